@@ -17,6 +17,7 @@
 package me.infuzion.web.server;
 
 import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.event.EventExecutors;
 import me.infuzion.web.server.event.EventManager;
 import me.infuzion.web.server.event.def.PageRequestEvent;
 import me.infuzion.web.server.event.reflect.EventHandler;
@@ -26,46 +27,112 @@ import me.infuzion.web.server.event.reflect.param.DefaultTypeConverter;
 import me.infuzion.web.server.event.reflect.param.TypeConverter;
 import me.infuzion.web.server.event.reflect.param.mapper.impl.*;
 import me.infuzion.web.server.listener.WebSocketListener;
+import me.infuzion.web.server.network.AdmissionControl;
 import me.infuzion.web.server.network.ConnectionHandler;
 import me.infuzion.web.server.network.HttpConnectionHandler;
+import me.infuzion.web.server.network.wait.WaitStrategy;
 import me.infuzion.web.server.network.websocket.WebsocketConnectionHandler;
 import me.infuzion.web.server.router.Router;
 import me.infuzion.web.server.router.def.DefaultRouter;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Server {
     public static final String version = "1.8.0";
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
     private final EventManager eventManager;
+    private final ServerOptions options;
     private final ServerSocketChannel serverSocketChannel;
+    /**
+     * All listening channels. When more than one channel is bound, they share the same address using SO_REUSEPORT
+     * and the kernel distributes incoming connections between them.
+     */
+    private final List<ServerSocketChannel> acceptorChannels = new ArrayList<>();
+    /**
+     * Run when a connection is released while the connection limit was reached, to resume paused accept loops
+     */
+    private final List<Runnable> capacityListeners = new CopyOnWriteArrayList<>();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final AtomicLong nextConnectionId = new AtomicLong();
     private final Map<Class<? extends ConnectionHandler>, ConnectionHandler> connectionHandlers = new ConcurrentHashMap<>();
     private Class<? extends ConnectionHandler> defaultHandler;
+    private volatile WaitStrategy acceptorWaitStrategy = WaitStrategy.blocking();
+    private volatile AdmissionControl admissionControl = new AdmissionControl();
 
     public Server(InetSocketAddress address) throws IOException {
         this(address, new DefaultTypeConverter());
     }
 
     public Server(InetSocketAddress address, TypeConverter typeConverter) throws IOException {
+        this(address, typeConverter, new ServerOptions());
+    }
+
+    /**
+     * Creates a server with multiple accept loops. If {@code acceptorThreads} is greater than one, that many listening
+     * channels are bound to the given address with SO_REUSEPORT, each with its own accept thread. If the platform does
+     * not support SO_REUSEPORT, a single accept loop is used.
+     *
+     * @param acceptorThreads The number of listening channels (and accept threads) to use
+     */
+    public Server(InetSocketAddress address, TypeConverter typeConverter, int acceptorThreads) throws IOException {
+        this(address, typeConverter, new ServerOptions().setAcceptorThreads(acceptorThreads));
+    }
+
+    /**
+     * Creates a server bound to the given address using the given options.
+     *
+     * @see ServerOptions
+     */
+    public Server(InetSocketAddress address, TypeConverter typeConverter, ServerOptions options) throws IOException {
+        this.options = Objects.requireNonNull(options);
+        int acceptorThreads = options.getAcceptorThreads();
+
         logger.atInfo().log("Starting server at %s", address);
-        serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.bind(address);
+        serverSocketChannel = openListeningChannel();
+
+        boolean reusePort = acceptorThreads > 1;
+        if (reusePort && !serverSocketChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            logger.atWarning().log("SO_REUSEPORT is not supported; falling back to a single acceptor");
+            reusePort = false;
+        }
+
+        if (reusePort) {
+            serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        serverSocketChannel.bind(address, options.getBacklog());
         serverSocketChannel.configureBlocking(false);
+        acceptorChannels.add(serverSocketChannel);
+
+        if (reusePort) {
+            // bind to the resolved address in case an ephemeral port was requested
+            InetSocketAddress bound = (InetSocketAddress) serverSocketChannel.getLocalAddress();
+
+            for (int i = 1; i < acceptorThreads; i++) {
+                ServerSocketChannel channel = openListeningChannel();
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(bound, options.getBacklog());
+                channel.configureBlocking(false);
+                acceptorChannels.add(channel);
+            }
+        }
 
         Router router = new DefaultRouter();
 
-        eventManager = new EventManager();
+        eventManager = new EventManager(EventExecutors.newExecutor(options.isVirtualThreadDispatch()));
         eventManager.registerAnnotation(BodyParam.class, new BodyParamMapper(typeConverter));
         eventManager.registerAnnotation(QueryParam.class, new QueryParamMapper(typeConverter));
         eventManager.registerAnnotation(UrlParam.class, new UrlParamMapper(router));
@@ -92,15 +159,166 @@ public class Server {
         return eventManager;
     }
 
+    /**
+     * @return The options this server was created with
+     */
+    public ServerOptions getOptions() {
+        return options;
+    }
+
+    private ServerSocketChannel openListeningChannel() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+
+        // accepted sockets inherit the receive buffer size of the listening socket; setting it before binding allows
+        // a larger window to be negotiated during the handshake
+        Integer receiveBufferSize = options.getSocketOptions().getReceiveBufferSize();
+        if (receiveBufferSize != null) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        }
+
+        return channel;
+    }
+
+    /**
+     * @return The local address this server is listening on
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverSocketChannel.getLocalAddress();
+    }
+
+    /**
+     * @return The total number of connections accepted by this server
+     */
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    /**
+     * @return The total number of connections closed at accept time because a connection limit was reached
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    /**
+     * @return The number of bytes currently held for connections, as charged to the server's
+     * {@link me.infuzion.web.server.network.MemoryBudget}
+     */
+    public long getMemoryUsed() {
+        return options.getMemoryBudget().getUsed();
+    }
+
+    /**
+     * @return The highest number of bytes held for connections at once
+     */
+    public long getPeakMemoryUsed() {
+        return options.getMemoryBudget().getPeakUsed();
+    }
+
+    /**
+     * @return The number of connections that are currently not being read from because the memory budget is exhausted
+     */
+    public int getPausedConnections() {
+        return options.getMemoryBudget().getPausedConnections();
+    }
+
+    /**
+     * @return The total number of times a connection stopped being read from because the memory budget was exhausted
+     */
+    public long getMemoryPauseCount() {
+        return options.getMemoryBudget().getPauseCount();
+    }
+
+    /**
+     * @return The connection limits applied to newly accepted connections
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Sets the connection limits applied to newly accepted connections. Must be called before {@link #start()}.
+     * Defaults to an {@link AdmissionControl} without any limits.
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) {
+        this.admissionControl = Objects.requireNonNull(admissionControl);
+    }
+
+    /**
+     * Counts a newly accepted connection and applies the server's {@link AdmissionControl} to it. Connection handlers
+     * that accept connections on their own listening channels must call this for each one, and close it if it is
+     * refused, so that their connections are limited and counted like those accepted by the server.
+     *
+     * @param address The remote address of the connection
+     * @return Whether the connection was admitted; if so, it must be released with {@link #releaseConnection(InetAddress)}
+     */
+    public boolean admitConnection(InetAddress address) {
+        acceptedConnections.increment();
+
+        if (!admissionControl.tryAcquire(address)) {
+            rejectedConnections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers an action to run whenever a connection is released while the total connection limit was reached under
+     * the {@link AdmissionControl.OverflowPolicy#PAUSE} policy. Connection handlers that stop accepting on their own
+     * listening channels while the server has no capacity use this to resume.
+     */
+    public void addCapacityListener(Runnable listener) {
+        capacityListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Releases a connection admitted by this server. Connection handlers must call this exactly once for every
+     * connection they close, including connections they received from another handler, and should do so before the
+     * channel is closed.
+     */
+    public void releaseConnection(SocketChannel channel) {
+        InetAddress address = channel.socket().getInetAddress();
+
+        if (address != null) {
+            releaseConnection(address);
+        }
+    }
+
+    /**
+     * Releases a connection from the given remote address that was admitted by this server's
+     * {@link AdmissionControl}.
+     *
+     * @see #releaseConnection(SocketChannel)
+     */
+    public void releaseConnection(InetAddress address) {
+        AdmissionControl admission = admissionControl;
+
+        if (admission.release(address) && admission.getOverflowPolicy() == AdmissionControl.OverflowPolicy.PAUSE) {
+            // the limit was reached, so accept loops may be paused
+            for (Runnable listener : capacityListeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Sets the strategy used by the accept loops to wait for incoming connections. Defaults to
+     * {@link WaitStrategy#blocking()}.
+     */
+    public void setAcceptorWaitStrategy(WaitStrategy waitStrategy) {
+        this.acceptorWaitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+
     public void setDefaultConnectionHandler(Class<? extends ConnectionHandler> handler) {
         defaultHandler = handler;
     }
 
+    /**
+     * Registers a connection handler with this server. Any previously registered handler of the same class is replaced.
+     * Connection handlers must be registered before {@link #start()} is called.
+     */
     public void registerConnectionHandler(ConnectionHandler handler) throws IOException {
-        Selector clientSelector = Selector.open();
-
-        serverSocketChannel.register(clientSelector, SelectionKey.OP_ACCEPT);
-        handler.init(this, eventManager, clientSelector);
+        handler.init(this, eventManager);
 
         connectionHandlers.put(handler.getClass(), handler);
     }
@@ -109,6 +327,10 @@ public class Server {
         return connectionHandlers.get(handler);
     }
 
+    /**
+     * Starts all registered connection handlers and begins accepting connections. The first accept loop runs on the
+     * calling thread, so this method blocks while the server is running.
+     */
     public void start() throws IOException {
         for (ConnectionHandler e : connectionHandlers.values()) {
             Thread t = new Thread(e);
@@ -116,40 +338,84 @@ public class Server {
             t.start();
         }
 
+        for (int i = 1; i < acceptorChannels.size(); i++) {
+            ServerSocketChannel channel = acceptorChannels.get(i);
+            Thread t = new Thread(() -> {
+                try {
+                    acceptConnections(channel);
+                } catch (IOException e) {
+                    logger.atSevere().withCause(e).log("Accept loop terminated");
+                }
+            });
+            t.setName("Acceptor #" + i);
+            t.start();
+        }
+
+        acceptConnections(serverSocketChannel);
+    }
+
+    private void acceptConnections(ServerSocketChannel serverChannel) throws IOException {
         Selector selector = Selector.open();
-        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        SelectionKey acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        addCapacityListener(selector::wakeup);
+
+        AdmissionControl admission = admissionControl;
+        boolean paused = false;
+        int idleCount = 0;
 
         while (true) {
-            int readyCount = selector.select();
+            if (paused && admission.hasCapacity()) {
+                acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                paused = false;
+            }
+
+            int readyCount = acceptorWaitStrategy.select(selector, idleCount, 0);
 
             if (readyCount == 0) {
-                Thread.onSpinWait();
+                if (idleCount < Integer.MAX_VALUE) {
+                    idleCount++;
+                }
                 continue;
             }
 
-            Set<SelectionKey> ready = selector.selectedKeys();
-            Iterator<SelectionKey> iterator = ready.iterator();
+            idleCount = 0;
 
-            while (iterator.hasNext()) {
-                SelectionKey key = iterator.next();
-                iterator.remove();
+            selector.selectedKeys().clear();
+
+            // drain the backlog completely before waiting again
+            while (true) {
+                if (admission.getOverflowPolicy() == AdmissionControl.OverflowPolicy.PAUSE && !admission.hasCapacity()) {
+                    // leave further connections in the listen backlog until a connection is released
+                    acceptKey.interestOps(0);
+                    paused = true;
+                    break;
+                }
+
+                SocketChannel client;
+                try {
+                    client = serverChannel.accept();
+                } catch (IOException e) {
+                    logger.atWarning().withCause(e).log("Exception occurred while accepting a connection");
+                    break;
+                }
+
+                if (client == null) {
+                    break;
+                }
 
-                if (!key.isValid()) {
-                    key.cancel();
+                if (!admitConnection(client.socket().getInetAddress())) {
+                    client.close();
                     continue;
                 }
 
-                if (key.isAcceptable()) {
-                    try {
-                        UUID uuid = UUID.randomUUID();
-                        ServerSocketChannel server = (ServerSocketChannel) key.channel();
-                        SocketChannel client = server.accept();
-                        client.configureBlocking(false);
-
-                        connectionHandlers.get(defaultHandler).register(client, uuid, null);
-                    } catch (Exception e) {
-                        key.cancel();
-                    }
+                try {
+                    client.configureBlocking(false);
+                    options.getSocketOptions().apply(client);
+                    connectionHandlers.get(defaultHandler).register(client, nextConnectionId.incrementAndGet(), null);
+                } catch (Exception e) {
+                    logger.atWarning().withCause(e).log("Exception occurred while registering a connection");
+                    releaseConnection(client);
+                    client.close();
                 }
             }
         }
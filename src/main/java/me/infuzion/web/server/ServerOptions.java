@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server;
+
+import me.infuzion.web.server.network.BufferPool;
+import me.infuzion.web.server.network.ConnectionHandler;
+import me.infuzion.web.server.network.MemoryBudget;
+import me.infuzion.web.server.network.SocketOptions;
+import me.infuzion.web.server.network.websocket.WebsocketConnectionHandler;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Options used when creating a {@link Server}: how its listening sockets are bound, and the socket options applied to
+ * the connections it accepts.
+ * <p>
+ * Socket options are configured per connection handler, because different protocols want different settings. Options
+ * set for a handler class are applied when a connection is registered with that handler, after the default options,
+ * so they override the defaults. By default, TCP_NODELAY is enabled for websocket connections so that small frames
+ * are not delayed.
+ * <p>
+ * Options must not be changed once they have been passed to a server.
+ */
+public class ServerOptions {
+    private int acceptorThreads = 1;
+    private int backlog = 0;
+    private boolean virtualThreadDispatch = false;
+    private BufferPool bufferPool = new BufferPool();
+    private MemoryBudget memoryBudget = new MemoryBudget();
+    private SocketOptions defaultSocketOptions = new SocketOptions();
+    private final Map<Class<? extends ConnectionHandler>, SocketOptions> handlerSocketOptions = new HashMap<>();
+
+    public ServerOptions() {
+        handlerSocketOptions.put(WebsocketConnectionHandler.class, new SocketOptions().setTcpNoDelay(true));
+    }
+
+    /**
+     * Sets the number of listening channels (and accept threads) to use. If greater than one, the channels are bound to
+     * the same address with SO_REUSEPORT. Defaults to one.
+     */
+    @Contract("_ -> this")
+    public ServerOptions setAcceptorThreads(int acceptorThreads) {
+        if (acceptorThreads < 1) {
+            throw new IllegalArgumentException("At least one acceptor thread is required");
+        }
+        this.acceptorThreads = acceptorThreads;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of pending connections queued by each listening channel. A value of zero uses the
+     * platform default.
+     */
+    @Contract("_ -> this")
+    public ServerOptions setBacklog(int backlog) {
+        if (backlog < 0) {
+            throw new IllegalArgumentException("backlog must not be negative");
+        }
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Sets whether event listeners run on virtual threads instead of a pool of platform threads. This suits listeners
+     * that block, but requires Java 21 or newer; on older runtimes platform threads are used regardless. Defaults to
+     * false.
+     *
+     * @see me.infuzion.web.server.event.EventExecutors
+     */
+    @Contract("_ -> this")
+    public ServerOptions setVirtualThreadDispatch(boolean virtualThreadDispatch) {
+        this.virtualThreadDispatch = virtualThreadDispatch;
+        return this;
+    }
+
+    /**
+     * Sets the pool that connection handlers acquire their read and write buffers from. Defaults to a pool of heap
+     * buffers without leak detection.
+     */
+    @Contract("_ -> this")
+    public ServerOptions setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = Objects.requireNonNull(bufferPool);
+        return this;
+    }
+
+    /**
+     * Sets the budget that connection handlers charge the memory held for each connection to. Clients are not read from
+     * while the budget, or their connection's share of it, is exhausted. Defaults to half of the maximum heap size, and
+     * 64MB per connection.
+     */
+    @Contract("_ -> this")
+    public ServerOptions setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = Objects.requireNonNull(memoryBudget);
+        return this;
+    }
+
+    /**
+     * Sets the socket options applied to every accepted connection. The receive buffer size is also set on the
+     * listening channels, so that it is in effect while the TCP handshake negotiates the window size.
+     */
+    @Contract("_ -> this")
+    public ServerOptions setSocketOptions(SocketOptions socketOptions) {
+        this.defaultSocketOptions = Objects.requireNonNull(socketOptions);
+        return this;
+    }
+
+    /**
+     * Sets the socket options applied to connections registered with the given connection handler, replacing any options
+     * previously set for that handler.
+     */
+    @Contract("_, _ -> this")
+    public ServerOptions setSocketOptions(Class<? extends ConnectionHandler> handler, SocketOptions socketOptions) {
+        handlerSocketOptions.put(Objects.requireNonNull(handler), Objects.requireNonNull(socketOptions));
+        return this;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public boolean isVirtualThreadDispatch() {
+        return virtualThreadDispatch;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public SocketOptions getSocketOptions() {
+        return defaultSocketOptions;
+    }
+
+    /**
+     * @return The socket options set for the given connection handler, or null if only the defaults apply
+     */
+    public @Nullable SocketOptions getSocketOptions(Class<? extends ConnectionHandler> handler) {
+        return handlerSocketOptions.get(handler);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.event;
+
+import com.google.common.flogger.FluentLogger;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Creates the executors used by {@link EventManager} to run event listeners.
+ * <p>
+ * Virtual threads are only available on Java 21 and newer, while this project targets Java 11, so the virtual thread
+ * executor is looked up reflectively. On older runtimes, listeners run on a cached pool of platform threads instead.
+ */
+public final class EventExecutors {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    /**
+     * Whether the fallback to platform threads has been logged, so that it is only reported once
+     */
+    private static final AtomicBoolean fallbackLogged = new AtomicBoolean();
+
+    private EventExecutors() {
+    }
+
+    /**
+     * Looks up the virtual thread executor factory once, the first time it is needed.
+     */
+    private static final class VirtualThreads {
+        private static final @Nullable MethodHandle newVirtualThreadPerTaskExecutor = find();
+
+        private static @Nullable MethodHandle find() {
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().findStatic(Executors.class,
+                        "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+
+                // on Java 19 and 20 virtual threads are a preview feature, and fail unless previews are enabled
+                ((ExecutorService) handle.invoke()).shutdown();
+                return handle;
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the current runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.newVirtualThreadPerTaskExecutor != null;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new platform thread, reusing idle threads where possible.
+     */
+    public static ExecutorService newPlatformThreadExecutor() {
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread. Listeners that block, for example on a database
+     * call, then park a virtual thread instead of holding on to a platform thread.
+     *
+     * @throws UnsupportedOperationException If the current runtime does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        MethodHandle newVirtualThreadPerTaskExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor;
+        if (newVirtualThreadPerTaskExecutor == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+
+        try {
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates an executor for event listeners, using virtual threads if they are preferred and supported by the current
+     * runtime, and platform threads otherwise.
+     */
+    public static ExecutorService newExecutor(boolean preferVirtualThreads) {
+        if (preferVirtualThreads) {
+            if (isVirtualThreadSupported()) {
+                return newVirtualThreadExecutor();
+            }
+
+            if (fallbackLogged.compareAndSet(false, true)) {
+                logger.atInfo().log("Virtual threads are not supported by this runtime; using platform threads");
+            }
+        }
+
+        return newPlatformThreadExecutor();
+    }
+}
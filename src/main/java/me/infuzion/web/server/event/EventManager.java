@@ -36,12 +36,11 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 public class EventManager {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ExecutorService executor;
 
     private static class EventListenerData implements Comparable<EventListenerData> {
         public EventListenerData(EventListener instance,
@@ -102,6 +101,16 @@ public class EventManager {
     private final List<EventPredicate<? extends Annotation, ?>> defaultEventPredicates = new ArrayList<>();
 
     public EventManager() {
+        this(EventExecutors.newPlatformThreadExecutor());
+    }
+
+    /**
+     * @param executor The executor used to run listeners for events fired with {@link #fireEvent(Event, Consumer)}
+     * @see EventExecutors
+     */
+    public EventManager(ExecutorService executor) {
+        this.executor = Objects.requireNonNull(executor);
+
         // ensure that only listeners with the same event as the event fired are called
         this.defaultParamMappers.add(new ParamMapper<>() {
             @Override
@@ -22,13 +22,13 @@ import me.infuzion.web.server.http.HttpMethod;
 import me.infuzion.web.server.http.HttpResponse;
 import me.infuzion.web.server.http.parser.BodyData;
 import me.infuzion.web.server.http.parser.HttpRequest;
+import me.infuzion.web.server.http.parser.RequestHeaders;
 import me.infuzion.web.server.network.ConnectionHandler;
 import me.infuzion.web.server.util.HttpParameters;
 import me.infuzion.web.server.util.Utilities;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
-import java.util.Map;
 
 /**
  * Represents an HTTP client requesting a path. This event should be fired when a new request is made to the server.
@@ -56,11 +56,19 @@ public class PageRequestEvent extends AbstractEvent implements RequestEvent {
         return request.getMethod();
     }
 
+    public @NotNull HttpRequest getRequest() {
+        return request;
+    }
+
     public @NotNull BodyData getBodyData() {
         return bodyData;
     }
 
-    public Map<String, String> getRequestHeaders() {
+    /**
+     * @return The request's headers, which also support lookups by {@link me.infuzion.web.server.http.HttpHeader}
+     */
+    @Override
+    public RequestHeaders getRequestHeaders() {
         return request.getHeaders();
     }
 
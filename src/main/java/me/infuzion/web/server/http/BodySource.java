@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Produces the body of a response as it is sent, so a large body never has to be held in memory at once. Connection
+ * handlers send the body with chunked transfer encoding, and only pull the next part once the previous one has been
+ * written to the client, so a slow client slows down the source instead of data building up in the server.
+ * <p>
+ * Parts are pulled on the connection's I/O thread, so a source should produce each part promptly, such as by reading
+ * the next rows of an open cursor or by encoding the next records of an export.
+ */
+@FunctionalInterface
+public interface BodySource extends Closeable {
+    /**
+     * Writes the next part of the body into the given buffer.
+     *
+     * @param buffer The buffer to write into, which has room for at least one byte
+     * @return The number of bytes written, or -1 if the whole body has been produced
+     */
+    int read(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Called once the body has been sent, or the connection was closed before it could be. Does nothing by default.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.http;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A range of a file to send as the body of a response. Connection handlers transfer the file directly to the socket
+ * where possible, so the data is not copied through the heap, and close the file once it has been sent or the
+ * connection is closed.
+ */
+public class FileRegion implements Closeable {
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+    private long transferred = 0;
+
+    /**
+     * @param channel  The file to send, which is closed once the region has been sent
+     * @param position The offset of the first byte to send
+     * @param count    The number of bytes to send
+     */
+    public FileRegion(FileChannel channel, long position, long count) {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position and count must not be negative");
+        }
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * Opens a region of the given file.
+     */
+    public static FileRegion open(Path file, long position, long count) throws IOException {
+        return new FileRegion(FileChannel.open(file, StandardOpenOption.READ), position, count);
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The number of bytes in this region
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of bytes that have not yet been sent
+     */
+    public long remaining() {
+        return count - transferred;
+    }
+
+    /**
+     * Transfers as much of the rest of the region to the target as it accepts. A non-blocking target accepts data until
+     * its send buffer is full.
+     *
+     * @return Whether the whole region has been sent
+     * @throws EOFException If the file was truncated while it was being sent
+     */
+    public boolean transferTo(WritableByteChannel target) throws IOException {
+        while (transferred < count) {
+            long sent = channel.transferTo(position + transferred, count - transferred, target);
+
+            if (sent == 0) {
+                checkNotTruncated();
+                return false;
+            }
+            transferred += sent;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the next part of the region into the given buffer, for targets that can not be transferred to directly.
+     * The data read is counted as sent.
+     *
+     * @return The number of bytes read, or -1 if the whole region has been sent
+     * @throws EOFException If the file was truncated while it was being sent
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        if (transferred >= count) {
+            return -1;
+        }
+
+        int limit = buffer.limit();
+        if (buffer.remaining() > count - transferred) {
+            buffer.limit(buffer.position() + (int) (count - transferred));
+        }
+
+        int read;
+        try {
+            read = channel.read(buffer, position + transferred);
+        } finally {
+            buffer.limit(limit);
+        }
+
+        if (read <= 0) {
+            checkNotTruncated();
+            return 0;
+        }
+
+        transferred += read;
+        return read;
+    }
+
+    private void checkNotTruncated() throws IOException {
+        if (position + transferred >= channel.size()) {
+            throw new EOFException("File was truncated while it was being sent");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
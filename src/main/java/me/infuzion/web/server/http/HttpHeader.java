@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.http;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Request headers that are resolved to a constant while a request is parsed, so they can be looked up without
+ * comparing names.
+ */
+public enum HttpHeader {
+    ACCEPT("Accept"),
+    ACCEPT_ENCODING("Accept-Encoding"),
+    ACCEPT_LANGUAGE("Accept-Language"),
+    AUTHORIZATION("Authorization"),
+    CACHE_CONTROL("Cache-Control"),
+    CONNECTION("Connection"),
+    CONTENT_LENGTH("Content-Length"),
+    CONTENT_TYPE("Content-Type"),
+    COOKIE("Cookie"),
+    EXPECT("Expect"),
+    HOST("Host"),
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_RANGE("If-Range"),
+    ORIGIN("Origin"),
+    RANGE("Range"),
+    REFERER("Referer"),
+    SEC_WEBSOCKET_EXTENSIONS("Sec-WebSocket-Extensions"),
+    SEC_WEBSOCKET_KEY("Sec-WebSocket-Key"),
+    SEC_WEBSOCKET_PROTOCOL("Sec-WebSocket-Protocol"),
+    SEC_WEBSOCKET_VERSION("Sec-WebSocket-Version"),
+    TRANSFER_ENCODING("Transfer-Encoding"),
+    UPGRADE("Upgrade"),
+    USER_AGENT("User-Agent");
+
+    /**
+     * The headers grouped by the length of their name, which narrows a lookup to one or two comparisons
+     */
+    private static final HttpHeader[][] byLength;
+
+    static {
+        int longest = 0;
+        for (HttpHeader header : values()) {
+            longest = Math.max(longest, header.name.length());
+        }
+
+        byLength = new HttpHeader[longest + 1][0];
+        for (HttpHeader header : values()) {
+            HttpHeader[] group = byLength[header.name.length()];
+            group = Arrays.copyOf(group, group.length + 1);
+            group[group.length - 1] = header;
+            byLength[header.name.length()] = group;
+        }
+    }
+
+    private final @NotNull String name;
+    private final byte @NotNull [] lowercase;
+
+    HttpHeader(@NotNull String name) {
+        this.name = name;
+        this.lowercase = name.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public @NotNull String getName() {
+        return name;
+    }
+
+    /**
+     * @param name A header name, compared ignoring case
+     * @return The header with the given name, or null if it is not one of the well-known headers
+     */
+    public static @Nullable HttpHeader forName(@NotNull String name) {
+        if (name.length() >= byLength.length) {
+            return null;
+        }
+
+        for (HttpHeader header : byLength[name.length()]) {
+            if (header.name.equalsIgnoreCase(name)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param data   The bytes containing a header name
+     * @param start  The index of the name's first byte
+     * @param length The length of the name
+     * @return The header with the given name, compared ignoring ASCII case, or null if it is not one of the
+     * well-known headers
+     */
+    public static @Nullable HttpHeader forName(byte @NotNull [] data, int start, int length) {
+        if (length >= byLength.length) {
+            return null;
+        }
+
+        outer:
+        for (HttpHeader header : byLength[length]) {
+            byte[] lowercase = header.lowercase;
+            for (int i = 0; i < length; i++) {
+                int c = data[start + i];
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                if (c != lowercase[i]) {
+                    continue outer;
+                }
+            }
+            return header;
+        }
+        return null;
+    }
+}
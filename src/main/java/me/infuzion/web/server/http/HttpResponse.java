@@ -30,6 +30,8 @@ public class HttpResponse {
     private final Map<String, String> headers = new HashMap<>();
     private int statusCode = 200;
     private @Nullable ByteBuffer body = null;
+    private @Nullable FileRegion fileBody = null;
+    private @Nullable BodySource bodySource = null;
     private String contentType = "text/html";
 
     /**
@@ -120,6 +122,48 @@ public class HttpResponse {
         this.body = StandardCharsets.UTF_8.encode(body);
     }
 
+    /**
+     * Gets the file sent as the body of this response. If set, it is sent instead of {@link #getBody()}.
+     *
+     * @return The file region to send, or null if the body is not sent from a file
+     */
+    public @Nullable FileRegion getFileBody() {
+        return fileBody;
+    }
+
+    /**
+     * Sets the body of the response to a region of a file. The file is sent directly from the file system where
+     * possible, without being read into memory, and is closed by the connection handler once it has been sent. A file
+     * body is sent instead of any body set with {@code setBody}.
+     *
+     * @param fileBody The file region to send, or null to send the body set with {@code setBody}
+     */
+    public void setFileBody(@Nullable FileRegion fileBody) {
+        this.fileBody = fileBody;
+    }
+
+    /**
+     * Gets the source the body of this response is streamed from. If set, it is sent instead of {@link #getFileBody()}
+     * and {@link #getBody()}.
+     *
+     * @return The source of the body, or null if the body is not streamed
+     */
+    public @Nullable BodySource getBodySource() {
+        return bodySource;
+    }
+
+    /**
+     * Sets the body of the response to be streamed from the given source. The length of the body does not need to be
+     * known in advance: it is sent with chunked transfer encoding, and the connection handler pulls each part from the
+     * source only once the previous part has been written. The source is closed once the body has been sent or the
+     * connection is closed. A streamed body is sent instead of any file body or body set with {@code setBody}.
+     *
+     * @param bodySource The source to stream the body from, or null to send the body set otherwise
+     */
+    public void setBodySource(@Nullable BodySource bodySource) {
+        this.bodySource = bodySource;
+    }
+
     /**
      * @return The current content type of the body of this response
      */
@@ -17,26 +17,44 @@
 package me.infuzion.web.server.http.parser;
 
 import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.http.HttpHeader;
 import me.infuzion.web.server.http.HttpMethod;
-import me.infuzion.web.server.util.ByteBufferUtils;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Parses a String HTTP Request into a {@link HttpRequest}.
+ * Parses the bytes of a HTTP request into a {@link HttpRequest}.
+ * <p>
+ * Parsing is incremental: the progress made on a partially received request is kept in a {@link State}, so each call
+ * only examines the bytes received since the previous one. The request line and headers are not decoded while
+ * parsing; their offsets are recorded, and the request creates Strings from them when they are accessed.
  */
 public class HttpParser {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+    private static final HttpMethod[] methods = HttpMethod.values();
+    private static final byte[][] methodNames = new byte[methods.length][];
+    private static final byte[] chunked = "chunked".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * The ASCII characters allowed in a request target, which are the ones {@link java.net.URI} accepts
+     */
+    private static final boolean[] targetCharacters = new boolean[128];
+
+    static {
+        for (int i = 0; i < methods.length; i++) {
+            methodNames[i] = methods[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        for (char c = '!'; c < 127; c++) {
+            targetCharacters[c] = "\"<>[\\]^`{|}".indexOf(c) == -1;
+        }
+    }
+
     @NotNull
     private final Config config;
 
@@ -48,101 +66,493 @@ public class HttpParser {
         this.config = config;
     }
 
-    protected Map<String, String> parseHeaders(String[] split) {
-        Map<String, String> headerMap = new HashMap<>();
+    /**
+     * Parses a given ByteBuffer containing a HTTP request. If the request is incomplete, null will be returned.
+     *
+     * @param request A ByteBuffer containing a HTTP request. The current position of the byte buffer must be the end
+     *                of the HTTP request.
+     * @return An HTTPRequest object containing the information present in `request` or null if incomplete.
+     */
+    public @Nullable HttpRequest parse(@NotNull ByteBuffer request) {
+        return parse(request, new State());
+    }
 
-        for (String field : split) {
-            if (field.isEmpty()) {
-                continue;
+    /**
+     * Continues parsing a request from where the previous call with the same state stopped. The request starts at
+     * index 0 of the buffer, and bytes that were already examined must not change between calls. Once a request is
+     * complete, the buffer's position is set to its end and the next call starts over with a new request.
+     * <p>
+     * A chunked body is decoded in place as it is received: the data of each chunk is moved down to follow the
+     * previous one, so the body is contiguous after the headers. Trailer fields are kept apart from the request's
+     * headers, as listeners may already have acted on those, and are available from {@link HttpRequest#getTrailers()}.
+     * Well-known headers, which must not be sent as trailers, are dropped.
+     * <p>
+     * The returned request decodes its fields from the buffer's backing array when they are first accessed, so like
+     * its body, it is only valid until the buffer is reused.
+     *
+     * @param request A heap ByteBuffer whose position is the end of the data received so far
+     * @param state   The progress made on the request by previous calls
+     * @return The request, or null if it has not been completely received
+     * @throws ParseException If the request is malformed
+     */
+    public @Nullable HttpRequest parse(@NotNull ByteBuffer request, @NotNull State state) {
+        if (state.complete) {
+            state.reset();
+        }
+
+        byte[] data = request.array();
+        int offset = request.arrayOffset();
+        int end = request.position();
+
+        if (state.headerEnd == -1) {
+            int i = state.scanned;
+
+            while (i < end) {
+                if (data[offset + i++] != '\n') {
+                    continue;
+                }
+
+                int lineEnd = i - 1;
+                if (lineEnd > state.lineStart && data[offset + lineEnd - 1] == '\r') {
+                    lineEnd--;
+                }
+
+                int lineStart = state.lineStart;
+                state.lineStart = i;
+
+                if (state.method == null) {
+                    // empty lines before the request line are ignored
+                    if (lineEnd > lineStart) {
+                        parseRequestLine(data, offset, lineStart, lineEnd, state);
+                    }
+                } else if (lineEnd == lineStart) {
+                    state.headerEnd = i;
+                    state.trailerStart = state.headerCount;
+                    break;
+                } else {
+                    parseHeader(data, offset, lineStart, lineEnd, state, false);
+                }
             }
 
-            // The key value pair; Content-Length, 32
-            String[] kv = field.split(":", 2);
-            if (kv.length != 2) {
-                if (config.strictMode) {
-                    throw new ParseException("Invalid header without a key-value pair");
+            state.scanned = i;
+
+            if (state.headerEnd == -1) {
+                return null;
+            }
+
+            if (state.chunked) {
+                if (state.contentLength != -1) {
+                    // the length would be ambiguous, which allows requests to be smuggled past intermediaries
+                    throw new ParseException("Request has both Content-Length and Transfer-Encoding");
                 }
-                continue;
+                state.bodyEnd = state.headerEnd;
+            }
+        }
+
+        int headerEnd = state.headerEnd;
+        long length = state.contentLength;
+        int requestEnd;
+
+        if (state.chunked) {
+            if (!decodeChunks(data, offset, end, state)) {
+                return null;
             }
+            length = state.bodyEnd - headerEnd;
+            requestEnd = state.scanned;
+        } else {
+            if (length != -1 && headerEnd + length > end) {
+                return null;
+            }
+            requestEnd = headerEnd + (int) Math.max(length, 0);
+        }
+
+        int trailerStart = state.trailerStart;
+        RequestHeaders headers = new RequestHeaders(data, offset, Arrays.copyOf(state.headers, trailerStart * 4),
+                state.known.clone(), trailerStart);
+        RequestHeaders trailers = trailerStart == state.headerCount ? RequestHeaders.empty : new RequestHeaders(data,
+                offset, Arrays.copyOfRange(state.headers, trailerStart * 4, state.headerCount * 4),
+                new int[HttpHeader.values().length], state.headerCount - trailerStart);
+        HttpRequest partial = new HttpRequest(state.method, data, offset, state.target.clone(), headers, trailers);
 
-            headerMap.put(kv[0].trim().toLowerCase(), kv[1].trim());
+        if (length != -1) {
+            request.position(headerEnd);
+
+            ByteBuffer bodySlice = request.slice();
+
+            // Set request position to end of body
+            request.position(requestEnd);
+
+            bodySlice.limit((int) length);
+
+            partial.setBody(bodySlice);
+        } else {
+            request.position(headerEnd);
         }
 
-        return Collections.unmodifiableMap(headerMap);
+        state.complete = true;
+        return partial;
     }
 
-    protected HttpRequest parseStatusAndHeaders(String request) {
-        String[] lines = request.split("\r\n");
-        String[] statusLine = lines[0].split(" ");
+    private void parseRequestLine(byte[] data, int offset, int start, int end, State state) {
+        int methodEnd = indexOf(data, offset, ' ', start, end);
+        int targetEnd = indexOf(data, offset, ' ', methodEnd + 1, end);
 
-        if (statusLine.length != 3) {
-            logger.atWarning().log("Received invalid status line: %s", statusLine);
+        if (methodEnd <= start || targetEnd <= methodEnd + 1 || targetEnd + 1 >= end
+                || indexOf(data, offset, ' ', targetEnd + 1, end) != -1) {
+            logger.atWarning().log("Received invalid status line: %s", new String(data, offset + start, end - start, StandardCharsets.UTF_8));
             throw new ParseException("Status line is invalid");
         }
 
-        HttpMethod method = HttpMethod.valueOf(statusLine[0].toUpperCase());
+        state.method = method(data, offset + start, methodEnd - start);
+        parseTarget(data, offset, methodEnd + 1, targetEnd, state.target);
+        state.target[HttpRequest.versionStart] = targetEnd + 1;
+        state.target[HttpRequest.versionEnd] = end;
+    }
 
-        URI pathQuery;
-        try {
-            pathQuery = new URI(statusLine[1]);
-        } catch (URISyntaxException e) {
-            throw new ParseException("Invalid path");
+    private static HttpMethod method(byte[] data, int start, int length) {
+        for (int i = 0; i < methods.length; i++) {
+            byte[] name = methodNames[i];
+            if (name.length == length && equalsIgnoreCase(data, start, name)) {
+                return methods[i];
+            }
+        }
+
+        throw new ParseException("Unknown method");
+    }
+
+    /**
+     * Records the offsets of the path and query of a request target, checking it is a valid URI reference. The
+     * fragment and, for an absolute target, the scheme and authority are not part of either.
+     */
+    private static void parseTarget(byte[] data, int offset, int start, int end, int[] target) {
+        int pathStart = start;
+
+        if (data[offset + start] != '/') {
+            // absolute form, such as http://example.com/index.html
+            int scheme = indexOf(data, offset, ':', start, end);
+            if (scheme != -1 && scheme + 2 < end && data[offset + scheme + 1] == '/' && data[offset + scheme + 2] == '/') {
+                int path = indexOf(data, offset, '/', scheme + 3, end);
+                pathStart = path == -1 ? end : path;
+            }
         }
-        String path = pathQuery.getPath();
-        String query = pathQuery.getQuery() != null ? pathQuery.getQuery() : "";
-        String version = statusLine[2];
 
-        int headerEndPosition = request.indexOf("\r\n\r\n");
+        int pathEnd = -1;
+        int queryStart = -1;
+        int queryEnd = -1;
 
-        Map<String, String> headers;
+        for (int i = pathStart; i < end; i++) {
+            int c = data[offset + i] & 0xff;
 
-        headers = parseHeaders(request.substring(request.indexOf("\r\n") + 2, headerEndPosition).split("\r\n"));
+            if (c == '%') {
+                if (i + 2 >= end || hex(data[offset + i + 1]) == -1 || hex(data[offset + i + 2]) == -1) {
+                    throw new ParseException("Invalid path");
+                }
+                i += 2;
+            } else if (c == '#') {
+                if (queryEnd == -1) {
+                    queryEnd = i;
+                }
+                if (pathEnd == -1) {
+                    pathEnd = i;
+                }
+            } else if (c == '?') {
+                if (pathEnd == -1) {
+                    pathEnd = i;
+                    queryStart = i + 1;
+                }
+            } else if (c < 128 && !targetCharacters[c]) {
+                throw new ParseException("Invalid path");
+            }
+        }
+
+        if (pathEnd == -1) {
+            pathEnd = end;
+        }
 
-        return new HttpRequest(method, path, query, version, headers, null);
+        target[HttpRequest.pathStart] = pathStart;
+        target[HttpRequest.pathEnd] = pathEnd;
+        target[HttpRequest.queryStart] = queryStart == -1 ? pathEnd : queryStart;
+        target[HttpRequest.queryEnd] = queryStart == -1 ? pathEnd : (queryEnd == -1 ? end : queryEnd);
     }
 
     /**
-     * Parses a given ByteBuffer containing a HTTP request. If the request is incomplete, null will be returned.
+     * Decodes the chunks of a body received since the previous call, moving their data down so the decoded body is
+     * contiguous after the headers.
      *
-     * @param request A ByteBuffer containing a HTTP request. The current position of the byte buffer must be the end
-     *                of the HTTP request.
-     * @return An HTTPRequest object containing the information present in `request` or null if incomplete.
+     * @return Whether the last chunk and the trailers have been received
      */
-    public @Nullable HttpRequest parse(@NotNull ByteBuffer request) {
-        int headerEndPosition = ByteBufferUtils.getOffsetToEndOfBoundary(0, request, ByteBufferUtils.CRLFCRLF);
+    private boolean decodeChunks(byte[] data, int offset, int end, State state) {
+        int i = state.scanned;
+
+        while (i < end) {
+            if (state.chunkPhase == State.chunkData) {
+                int length = (int) Math.min(state.chunkRemaining, end - i);
+                if (state.bodyEnd != i) {
+                    System.arraycopy(data, offset + i, data, offset + state.bodyEnd, length);
+                }
+                state.bodyEnd += length;
+                state.chunkRemaining -= length;
+                i += length;
+
+                if (state.chunkRemaining == 0) {
+                    state.chunkPhase = State.chunkDataEnd;
+                    state.lineStart = i;
+                }
+                continue;
+            }
 
-        if (headerEndPosition == -1) {
-            return null;
+            if (data[offset + i++] != '\n') {
+                continue;
+            }
+
+            int lineStart = state.lineStart;
+            int lineEnd = i - 1;
+            if (lineEnd > lineStart && data[offset + lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            state.lineStart = i;
+
+            if (state.chunkPhase == State.chunkSize) {
+                state.chunkRemaining = parseChunkSize(data, offset, lineStart, lineEnd);
+                state.chunkPhase = state.chunkRemaining == 0 ? State.chunkTrailer : State.chunkData;
+            } else if (state.chunkPhase == State.chunkDataEnd) {
+                if (lineEnd != lineStart) {
+                    throw new ParseException("Chunk data is longer than its size");
+                }
+                state.chunkPhase = State.chunkSize;
+            } else if (lineEnd == lineStart) {
+                state.scanned = i;
+                return true;
+            } else {
+                parseHeader(data, offset, lineStart, lineEnd, state, true);
+            }
         }
 
-        String r = new String(request.array(), 0, headerEndPosition, StandardCharsets.UTF_8);
+        state.scanned = i;
+        return false;
+    }
+
+    private static long parseChunkSize(byte[] data, int offset, int start, int end) {
+        long size = 0;
+        int i = start;
 
-        HttpRequest partial = parseStatusAndHeaders(r);
+        for (; i < end; i++) {
+            int digit = hex(data[offset + i]);
+            if (digit == -1) {
+                break;
+            }
+            size = size << 4 | digit;
+            if (size > Integer.MAX_VALUE) {
+                throw new ParseException("Invalid chunk size");
+            }
+        }
 
-        if (partial.getHeaders().containsKey("content-length")) {
-            int contentLength = Integer.parseInt(partial.getHeaders().get("content-length"));
+        // chunk extensions after the size are ignored
+        if (i == start || i < end && data[offset + i] != ';' && data[offset + i] != ' ' && data[offset + i] != '\t') {
+            throw new ParseException("Invalid chunk size");
+        }
 
-            int oldPos = request.position();
+        return size;
+    }
 
-            if (headerEndPosition + contentLength > oldPos) {
-                return null;
+    private void parseHeader(byte[] data, int offset, int start, int end, State state, boolean trailer) {
+        // The key value pair; Content-Length, 32
+        int colon = indexOf(data, offset, ':', start, end);
+        if (colon == -1) {
+            if (config.strictMode) {
+                throw new ParseException("Invalid header without a key-value pair");
             }
+            return;
+        }
 
+        int nameEnd = trimEnd(data, offset, start, colon);
+        int valueStart = colon + 1;
+        while (valueStart < end && (data[offset + valueStart] & 0xff) <= ' ') {
+            valueStart++;
+        }
+        int valueEnd = trimEnd(data, offset, valueStart, end);
 
-            request.position(headerEndPosition);
+        HttpHeader header = HttpHeader.forName(data, offset + start, nameEnd - start);
+        if (trailer && header != null) {
+            // the well-known headers control how a request is framed and handled, which a trailer must not change
+            return;
+        }
 
-            ByteBuffer bodySlice = request.slice();
+        if (header == HttpHeader.TRANSFER_ENCODING) {
+            if (state.chunked || valueEnd - valueStart != chunked.length || !equalsIgnoreCase(data, offset + valueStart, chunked)) {
+                throw new ParseException("Unsupported Transfer-Encoding");
+            }
+            state.chunked = true;
+        } else if (header == HttpHeader.CONTENT_LENGTH) {
+            long contentLength = parseContentLength(data, offset, valueStart, valueEnd);
+            // repeated lengths must agree, or the body's end would depend on which one the reader uses
+            if (state.contentLength != -1 && state.contentLength != contentLength) {
+                throw new ParseException("Conflicting Content-Length");
+            }
+            state.contentLength = contentLength;
+        }
+        if (header != null) {
+            state.known[header.ordinal()] = state.headerCount + 1;
+        }
 
-            // Set request position to end of body
-            request.position(headerEndPosition + contentLength);
+        int index = state.headerCount * 4;
+        if (index == state.headers.length) {
+            state.headers = Arrays.copyOf(state.headers, index * 2);
+        }
 
-            bodySlice.limit(contentLength);
+        state.headers[index] = start;
+        state.headers[index + 1] = nameEnd;
+        state.headers[index + 2] = valueStart;
+        state.headers[index + 3] = valueEnd;
+        state.headerCount++;
+    }
 
-            partial.setBody(bodySlice);
-        } else {
-            request.position(headerEndPosition);
+    private static long parseContentLength(byte[] data, int offset, int start, int end) {
+        if (start == end || end - start > 10) {
+            throw new ParseException("Invalid Content-Length");
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[offset + i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new ParseException("Invalid Content-Length");
+            }
+            value = value * 10 + digit;
+        }
+
+        if (value > Integer.MAX_VALUE) {
+            throw new ParseException("Invalid Content-Length");
+        }
+
+        return value;
+    }
+
+    private static int trimEnd(byte[] data, int offset, int start, int end) {
+        while (end > start && (data[offset + end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static int indexOf(byte[] data, int offset, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[offset + i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares bytes of the data against an ASCII name, ignoring case.
+     */
+    private static boolean equalsIgnoreCase(byte[] data, int start, byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            int a = data[start + i];
+            int b = name[i];
+            if (a != b && ((a | 0x20) != (b | 0x20) || (b | 0x20) < 'a' || (b | 0x20) > 'z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hex(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if ((c | 0x20) >= 'a' && (c | 0x20) <= 'f') {
+            return (c | 0x20) - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * The progress made parsing the request being received on a connection, kept between calls to
+     * {@link #parse(ByteBuffer, State)}.
+     */
+    public static class State {
+        // the parts of a chunked body
+        private static final int chunkSize = 0;
+        private static final int chunkData = 1;
+        private static final int chunkDataEnd = 2;
+        private static final int chunkTrailer = 3;
+
+        /**
+         * The number of bytes of the request head examined so far
+         */
+        private int scanned = 0;
+        private int lineStart = 0;
+        private @Nullable HttpMethod method = null;
+        private final int[] target = new int[6];
+        /**
+         * The start and end offsets of each header's name and value
+         */
+        private int[] headers = new int[64];
+        private int headerCount = 0;
+        /**
+         * The number of headers before the trailers, which follow them in {@link #headers}
+         */
+        private int trailerStart = 0;
+        /**
+         * For each well-known header, one more than the index of its last occurrence, or zero if it is absent
+         */
+        private final int[] known = new int[HttpHeader.values().length];
+        private int headerEnd = -1;
+        private long contentLength = -1;
+        private boolean chunked = false;
+        private int chunkPhase = chunkSize;
+        private long chunkRemaining = 0;
+        /**
+         * The end of the body decoded so far from a chunked request
+         */
+        private int bodyEnd = 0;
+        private boolean complete = false;
+
+        /**
+         * @return Whether the headers of the current request have been received, so only its body is outstanding
+         */
+        public boolean isHeaderComplete() {
+            return headerEnd != -1;
+        }
+
+        /**
+         * @return The offset of the end of the current request's headers, or -1 if they have not been received
+         */
+        public int getHeaderEnd() {
+            return headerEnd;
+        }
+
+        /**
+         * @return The length of the current request's body as far as is known: the declared length, or for a chunked
+         * body the length of the chunks received so far, including the whole of the last one started
+         */
+        public long getBodyLength() {
+            if (chunked) {
+                return bodyEnd - headerEnd + chunkRemaining;
+            }
+            return Math.max(contentLength, 0);
+        }
+
+        /**
+         * Discards the progress made, so the next call starts parsing a new request.
+         */
+        public void reset() {
+            scanned = 0;
+            lineStart = 0;
+            method = null;
+            headerCount = 0;
+            trailerStart = 0;
+            Arrays.fill(known, 0);
+            headerEnd = -1;
+            contentLength = -1;
+            chunked = false;
+            chunkPhase = chunkSize;
+            chunkRemaining = 0;
+            bodyEnd = 0;
+            complete = false;
         }
-        return partial;
     }
 
     public static class Config {
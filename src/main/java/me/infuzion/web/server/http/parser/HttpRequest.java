@@ -16,29 +16,43 @@
 
 package me.infuzion.web.server.http.parser;
 
+import me.infuzion.web.server.http.HttpHeader;
 import me.infuzion.web.server.http.HttpMethod;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.Map;
-import java.util.TreeMap;
 
 public class HttpRequest {
-    @NotNull
-    private final String version;
+    // indices of the request line offsets recorded by the parser
+    static final int pathStart = 0;
+    static final int pathEnd = 1;
+    static final int queryStart = 2;
+    static final int queryEnd = 3;
+    static final int versionStart = 4;
+    static final int versionEnd = 5;
+
+    private @Nullable String version;
     @NotNull
     private final HttpMethod method;
+    private @Nullable String path;
+    private @Nullable String query;
     @NotNull
-    private final String path;
-    @NotNull
-    private final String query;
+    private final RequestHeaders headers;
     @NotNull
-    private final Map<String, String> headers;
+    private final RequestHeaders trailers;
     private @Nullable ByteBuffer body;
 
+    /**
+     * The bytes of a parsed request's head, which its request line is decoded from when first accessed, or null if
+     * the fields were given when it was constructed
+     */
+    private final byte @Nullable [] head;
+    private final int offset;
+    private final int @Nullable [] target;
+
     public HttpRequest(@NotNull HttpMethod method, @NotNull String path, @NotNull String query, @NotNull String version, @NotNull Map<String, String> headers, @Nullable ByteBuffer body) {
         this.query = query;
         this.version = version;
@@ -46,12 +60,28 @@ public class HttpRequest {
         this.path = path;
         this.body = body;
 
-        @NotNull Map<String, String> temp = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-        temp.putAll(headers);
-        this.headers = Collections.unmodifiableMap(temp);
+        this.headers = new RequestHeaders(headers);
+        this.trailers = RequestHeaders.empty;
+
+        this.head = null;
+        this.offset = 0;
+        this.target = null;
+    }
+
+    HttpRequest(@NotNull HttpMethod method, byte @NotNull [] head, int offset, int @NotNull [] target,
+                @NotNull RequestHeaders headers, @NotNull RequestHeaders trailers) {
+        this.method = method;
+        this.head = head;
+        this.offset = offset;
+        this.target = target;
+        this.headers = headers;
+        this.trailers = trailers;
     }
 
     public @NotNull String getVersion() {
+        if (version == null) {
+            version = decode(target[versionStart], target[versionEnd]);
+        }
         return version;
     }
 
@@ -60,17 +90,103 @@ public class HttpRequest {
     }
 
     public @NotNull String getPath() {
+        if (path == null) {
+            path = decodeEscaped(target[pathStart], target[pathEnd]);
+        }
         return path;
     }
 
     public @NotNull String getQuery() {
+        if (query == null) {
+            query = decodeEscaped(target[queryStart], target[queryEnd]);
+        }
         return query;
     }
 
-    public @NotNull Map<String, String> getHeaders() {
+    public @NotNull RequestHeaders getHeaders() {
         return headers;
     }
 
+    /**
+     * @return The trailer fields sent after a chunked body. They are not part of {@link #getHeaders()}, since they
+     * arrive after the headers may have been acted on.
+     */
+    public @NotNull RequestHeaders getTrailers() {
+        return trailers;
+    }
+
+    /**
+     * @param name The name of the header, which is compared ignoring case
+     * @return The value of the header, or null if the request does not have it
+     */
+    public @Nullable String getHeader(@NotNull String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return The value of the header, or null if the request does not have it
+     */
+    public @Nullable String getHeader(@NotNull HttpHeader header) {
+        return headers.get(header);
+    }
+
+    /**
+     * Decodes the request line and headers, and copies the body, so that this request no longer refers to the buffer
+     * it was parsed from. Connection handlers call this before reusing that buffer while the request is still in use,
+     * such as when the connection is transferred to another handler along with the event for this request.
+     */
+    public void detach() {
+        if (head != null) {
+            getVersion();
+            getPath();
+            getQuery();
+            headers.decodeAll();
+            trailers.decodeAll();
+        }
+
+        if (body != null) {
+            ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+            copy.put(body.duplicate());
+            copy.flip();
+            body = copy;
+        }
+    }
+
+    private String decode(int start, int end) {
+        return new String(head, offset + start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a part of the request target, replacing percent-encoded octets as {@link java.net.URI} does.
+     */
+    private String decodeEscaped(int start, int end) {
+        int escape = -1;
+        for (int i = start; i < end; i++) {
+            if (head[offset + i] == '%') {
+                escape = i;
+                break;
+            }
+        }
+
+        if (escape == -1) {
+            return decode(start, end);
+        }
+
+        // the parser has checked that every escape is followed by two hex digits
+        byte[] decoded = new byte[end - start];
+        int length = escape - start;
+        System.arraycopy(head, offset + start, decoded, 0, length);
+        for (int i = escape; i < end; i++) {
+            byte b = head[offset + i];
+            if (b == '%') {
+                b = (byte) (HttpParser.hex(head[offset + i + 1]) << 4 | HttpParser.hex(head[offset + i + 2]));
+                i += 2;
+            }
+            decoded[length++] = b;
+        }
+        return new String(decoded, 0, length, StandardCharsets.UTF_8);
+    }
+
     /**
      * @return A UTF-8 encoded string of the raw body.
      * @deprecated This method returns the raw body encoded to UTF-8. The body may have a different charset, which
@@ -100,9 +216,9 @@ public class HttpRequest {
     @Override
     public String toString() {
         return "HttpRequest{" +
-                "version='" + version + '\'' +
+                "version='" + getVersion() + '\'' +
                 ", method=" + method +
-                ", path='" + path + '\'' +
+                ", path='" + getPath() + '\'' +
                 ", headers=" + headers +
                 ", hasBody='" + (body != null) + '\'' +
                 '}';
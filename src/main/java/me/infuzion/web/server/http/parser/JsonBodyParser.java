@@ -20,6 +20,7 @@ import com.google.common.flogger.FluentLogger;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
+import me.infuzion.web.server.http.HttpHeader;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -36,7 +37,7 @@ public class JsonBodyParser implements BodyParser {
 
     @Override
     public boolean matches(HttpRequest request, ByteBuffer body) {
-        String contentType = request.getHeaders().get("content-type");
+        String contentType = request.getHeader(HttpHeader.CONTENT_TYPE);
 
         if (contentType == null) {
             return false;
@@ -16,6 +16,7 @@
 
 package me.infuzion.web.server.http.parser;
 
+import me.infuzion.web.server.http.HttpHeader;
 import me.infuzion.web.server.util.ByteBufferUtils;
 import org.jetbrains.annotations.NotNull;
 
@@ -88,7 +89,7 @@ public class MultipartBodyParser implements BodyParser {
 
     @Override
     public boolean matches(HttpRequest request, ByteBuffer body) {
-        String contentType = request.getHeaders().get("content-type");
+        String contentType = request.getHeader(HttpHeader.CONTENT_TYPE);
 
         if (contentType == null) {
             return false;
@@ -99,7 +100,7 @@ public class MultipartBodyParser implements BodyParser {
 
     @Override
     public @NotNull BodyData parse(@NotNull HttpRequest request, @NotNull ByteBuffer body) {
-        String[] contentType = request.getHeaders().get("content-type").split(";");
+        String[] contentType = request.getHeader(HttpHeader.CONTENT_TYPE).split(";");
         byte[] boundary = null;
         for (String e : contentType) {
             String[] split = e.split("=");
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.http.parser;
+
+import me.infuzion.web.server.http.HttpHeader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The headers of a request, held as parallel arrays in the order they were received. Well-known headers are resolved
+ * to a {@link HttpHeader} while parsing and can be looked up with {@link #get(HttpHeader)} without comparing names.
+ * <p>
+ * Names are compared ignoring case. If a header is repeated, the last value is used. As a {@link Map}, the headers are
+ * unmodifiable and their keys are lowercase.
+ */
+public final class RequestHeaders extends AbstractMap<String, String> {
+    private static final int[] noIndices = new int[HttpHeader.values().length];
+    static final RequestHeaders empty = new RequestHeaders(Collections.emptyMap());
+
+    /**
+     * The bytes of a parsed request's head, which names and values are decoded from when first accessed
+     */
+    private final byte @Nullable [] head;
+    private final int offset;
+    /**
+     * The start and end offsets of each header's name and value within the head
+     */
+    private final int @Nullable [] offsets;
+    private final @Nullable String[] names;
+    private final @Nullable String[] values;
+    /**
+     * For each well-known header, one more than the index of its last occurrence, or zero if it is absent
+     */
+    private final int[] known;
+    private final int count;
+    private @Nullable Set<Entry<String, String>> entrySet;
+
+    RequestHeaders(byte @NotNull [] head, int offset, int @NotNull [] offsets, int @NotNull [] known, int count) {
+        this.head = head;
+        this.offset = offset;
+        this.offsets = offsets;
+        this.known = known;
+        this.count = count;
+        this.names = new String[count];
+        this.values = new String[count];
+    }
+
+    RequestHeaders(@NotNull Map<String, String> headers) {
+        this.head = null;
+        this.offset = 0;
+        this.offsets = null;
+        this.count = headers.size();
+        this.names = new String[count];
+        this.values = new String[count];
+        this.known = noIndices.clone();
+
+        int i = 0;
+        for (Entry<String, String> entry : headers.entrySet()) {
+            names[i] = entry.getKey().toLowerCase();
+            values[i] = entry.getValue();
+
+            HttpHeader header = HttpHeader.forName(entry.getKey());
+            if (header != null) {
+                known[header.ordinal()] = i + 1;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return The value of the header, or null if the request does not have it
+     */
+    public @Nullable String get(@NotNull HttpHeader header) {
+        int index = known[header.ordinal()] - 1;
+        return index == -1 ? null : value(index);
+    }
+
+    public boolean contains(@NotNull HttpHeader header) {
+        return known[header.ordinal()] != 0;
+    }
+
+    @Override
+    public @Nullable String get(Object key) {
+        int index = key instanceof String ? indexOf((String) key) : -1;
+        return index == -1 ? null : value(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key) != -1;
+    }
+
+    private int indexOf(String name) {
+        HttpHeader header = HttpHeader.forName(name);
+        if (header != null) {
+            return known[header.ordinal()] - 1;
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int index, String name) {
+        if (names[index] != null || offsets == null) {
+            return names[index].equalsIgnoreCase(name);
+        }
+
+        int start = offsets[index * 4];
+        if (offsets[index * 4 + 1] - start != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            char a = (char) (head[offset + start + i] & 0xff);
+            char b = name.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String name(int index) {
+        String name = names[index];
+        if (name == null) {
+            name = decode(index * 4).toLowerCase();
+            names[index] = name;
+        }
+        return name;
+    }
+
+    private String value(int index) {
+        String value = values[index];
+        if (value == null) {
+            value = decode(index * 4 + 2);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes every name and value, after which the head is no longer read.
+     */
+    void decodeAll() {
+        for (int i = 0; i < count; i++) {
+            name(i);
+            value(i);
+        }
+    }
+
+    private String decode(int field) {
+        int start = offsets[field];
+        return new String(head, offset + start, offsets[field + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Whether the header at the index is the last occurrence of its name
+     */
+    private boolean isLast(int index) {
+        String name = name(index);
+        for (int i = index + 1; i < count; i++) {
+            if (nameEquals(i, name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<>() {
+                        private int next = advance(0);
+
+                        private int advance(int from) {
+                            while (from < count && !isLast(from)) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < count;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (next >= count) {
+                                throw new NoSuchElementException();
+                            }
+
+                            int index = next;
+                            next = advance(next + 1);
+                            return new SimpleImmutableEntry<>(name(index), value(index));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (int i = 0; i < count; i++) {
+                        if (isLast(i)) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+}
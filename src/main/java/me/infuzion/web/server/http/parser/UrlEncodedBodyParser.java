@@ -16,6 +16,7 @@
 
 package me.infuzion.web.server.http.parser;
 
+import me.infuzion.web.server.http.HttpHeader;
 import org.jetbrains.annotations.NotNull;
 
 import java.net.URLDecoder;
@@ -28,7 +29,7 @@ public class UrlEncodedBodyParser implements BodyParser {
 
     @Override
     public boolean matches(HttpRequest request, ByteBuffer body) {
-        String contentType = request.getHeaders().get("content-type");
+        String contentType = request.getHeader(HttpHeader.CONTENT_TYPE);
 
         if (contentType == null) {
             return false;
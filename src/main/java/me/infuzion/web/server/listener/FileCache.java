@@ -0,0 +1,434 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.listener;
+
+import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.event.Event;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.response.HeaderEncoder;
+import me.infuzion.web.server.response.HttpDate;
+import me.infuzion.web.server.response.ResponseGenerator;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * An in-memory cache of small files for {@link StaticFileListener}. Each entry holds the file's contents and its
+ * response headers, both prebuilt in direct buffers, so a cached file is sent with a single gathering write of two
+ * buffers. Entries also hold a gzip form of the file, read from its {@code .gz} sibling or, for text
+ * content, compressed once when the file is loaded.
+ * <p>
+ * Contents are read into memory rather than mapped, as a mapped file that is truncated while it is being sent faults
+ * the thread reading it. The cache holds at most {@code maxBytes} of file contents and evicts the least recently used
+ * files first. The directories of cached files are watched, and an entry is dropped as soon as its file is changed or
+ * removed.
+ */
+public class FileCache implements Closeable {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private static final Set<String> compressibleTypes = Set.of(
+            "application/javascript",
+            "application/json",
+            "application/xml",
+            "application/wasm"
+    );
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private final WatchService watchService;
+    private long usedBytes;
+    // incremented whenever entries are invalidated, so a file read while it changed is not cached
+    private long generation;
+
+    /**
+     * Creates a cache holding up to 32MB of files no larger than 256KB each.
+     */
+    public FileCache() throws IOException {
+        this(32 * 1024 * 1024, 256 * 1024);
+    }
+
+    /**
+     * @param maxBytes    The maximum total size of the cached files
+     * @param maxFileSize The size of the largest file that will be cached
+     */
+    public FileCache(long maxBytes, long maxFileSize) throws IOException {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        this.watchService = Path.of("").getFileSystem().newWatchService();
+
+        Thread watcher = new Thread(this::watch, "FileCache Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * @return The cached entry for the given file, or null if it is not cached
+     */
+    public synchronized @Nullable Entry get(Path file) {
+        return entries.get(file);
+    }
+
+    /**
+     * Returns the cached entry for the given file, reading it into the cache if it is small enough.
+     *
+     * @param file        The file to read
+     * @param attributes  The file's current attributes
+     * @param contentType The content type to send the file with
+     * @return The entry for the file, or null if the file is too large to be cached
+     */
+    public @Nullable Entry load(Path file, BasicFileAttributes attributes, String contentType) throws IOException {
+        Entry existing = get(file);
+        if (existing != null) {
+            return existing;
+        }
+
+        long size = attributes.size();
+        if (size > maxFileSize || size > maxBytes) {
+            return null;
+        }
+
+        // watch before reading so a change made while the file is read is not missed
+        watch(file.getParent());
+        long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+
+        byte[] contents = read(file, size);
+        if (contents == null) {
+            return null;
+        }
+
+        Instant modified = StaticFileListener.lastModifiedInstant(attributes);
+        String etag = StaticFileListener.etag(attributes);
+
+        Entry compressed = null;
+        Path compressedFile = StaticFileListener.compressedVariant(file);
+        BasicFileAttributes compressedAttributes = StaticFileListener.compressedVariantAttributes(compressedFile, attributes);
+        if (compressedAttributes != null) {
+            byte[] gzip = compressedAttributes.size() <= maxFileSize ? read(compressedFile, compressedAttributes.size()) : null;
+            if (gzip != null) {
+                compressed = new Entry(file, gzip, contentType, modified, StaticFileListener.etag(compressedAttributes),
+                        "Content-Encoding: gzip\r\nVary: Accept-Encoding\r\n", null);
+            }
+        } else if (isCompressible(contentType)) {
+            // compressed once here instead of on every request
+            byte[] gzip = gzip(contents);
+            if (gzip.length < contents.length) {
+                String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+                compressed = new Entry(file, gzip, contentType, modified, gzipEtag,
+                        "Content-Encoding: gzip\r\nVary: Accept-Encoding\r\n", null);
+            }
+        }
+
+        Entry entry = new Entry(file, contents, contentType, modified, etag,
+                compressed != null ? "Vary: Accept-Encoding\r\n" : "", compressed);
+
+        synchronized (this) {
+            if (generation != startGeneration) {
+                return entry;
+            }
+
+            Entry previous = entries.put(file, entry);
+            if (previous != null) {
+                usedBytes -= previous.size();
+            }
+            usedBytes += entry.size();
+
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (usedBytes > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                usedBytes -= eldest.size();
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Drops the entry for the given path, and for every file under it if it is a directory.
+     */
+    public synchronized void invalidate(Path path) {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.getFile().startsWith(path)) {
+                iterator.remove();
+                usedBytes -= entry.size();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * @return The number of files in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The total size of the cached files
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return The contents of the file, or null if it is shorter than the expected size
+     */
+    private static byte @Nullable [] read(Path file, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // read until the buffer is full
+            }
+        }
+        // the file was truncated after its attributes were read
+        return buffer.hasRemaining() ? null : buffer.array();
+    }
+
+    private static byte[] gzip(byte[] contents) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 2);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(contents);
+        }
+        return out.toByteArray();
+    }
+
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || contentType.endsWith("+xml") || contentType.endsWith("+json")
+                || compressibleTypes.contains(contentType);
+    }
+
+    private void watch(Path directory) throws IOException {
+        synchronized (watchedDirectories) {
+            if (watchedDirectories.containsValue(directory)) {
+                return;
+            }
+            WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            watchedDirectories.put(key, directory);
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory;
+            synchronized (watchedDirectories) {
+                directory = watchedDirectories.get(key);
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || directory == null) {
+                    // events were lost, so any entry may be stale
+                    clear();
+                } else {
+                    Path changed = directory.resolve((Path) event.context());
+                    invalidate(changed);
+
+                    String name = changed.getFileName().toString();
+                    if (name.endsWith(".gz")) {
+                        // the precompressed copy of a cached file
+                        invalidate(changed.resolveSibling(name.substring(0, name.length() - 3)));
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                // the directory itself is gone
+                synchronized (watchedDirectories) {
+                    watchedDirectories.remove(key);
+                }
+                if (directory != null) {
+                    invalidate(directory);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        clear();
+    }
+
+    /**
+     * A cached file. Entries are used as the response generator of the requests they answer, and write their prebuilt
+     * headers instead of generating new ones. As the {@code Date} header changes every second, the headers are rebuilt
+     * around it at most once per second.
+     */
+    public static class Entry implements ResponseGenerator {
+        private static final byte[] statusLine = HeaderEncoder.statusLine(200);
+        private static final byte[] closeLine = HeaderEncoder.encode("Connection: close\r\n");
+
+        private final Path file;
+        private final ByteBuffer body;
+        /**
+         * The header lines that follow the status and date lines
+         */
+        private final byte[] headerLines;
+        private volatile Heads heads = new Heads(new byte[0], null, null);
+        private final String contentType;
+        private final Instant modified;
+        private final String etag;
+        private final @Nullable Entry compressed;
+
+        Entry(Path file, byte[] body, String contentType, Instant modified, String etag, String extraHeaders,
+              @Nullable Entry compressed) {
+            this.file = file;
+            this.body = ByteBuffer.allocateDirect(body.length).put(body).flip().asReadOnlyBuffer();
+            this.contentType = contentType;
+            this.modified = modified;
+            this.etag = etag;
+            this.compressed = compressed;
+
+            String head = "Content-Type: " + contentType + "\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Last-Modified: " + StaticFileListener.lastModified(modified) + "\r\n"
+                    + "ETag: " + etag + "\r\n"
+                    + "Accept-Ranges: bytes\r\n"
+                    + extraHeaders
+                    + "Server: Glade v" + Server.version + "\r\n";
+            this.headerLines = HeaderEncoder.encode(head);
+        }
+
+        private ByteBuffer head(byte[] dateLine, boolean closing) {
+            int length = statusLine.length + dateLine.length + headerLines.length + (closing ? closeLine.length : 0)
+                    + HeaderEncoder.CRLF.length;
+
+            ByteBuffer head = ByteBuffer.allocateDirect(length).put(statusLine).put(dateLine).put(headerLines);
+            if (closing) {
+                head.put(closeLine);
+            }
+            return head.put(HeaderEncoder.CRLF).flip().asReadOnlyBuffer();
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return A view of the file's contents with its own position
+         */
+        public ByteBuffer getBody() {
+            return body.duplicate();
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Instant getModified() {
+            return modified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return The gzip compressed form of this file, or null if it has none
+         */
+        public @Nullable Entry getCompressed() {
+            return compressed;
+        }
+
+        long size() {
+            return body.capacity() + (compressed != null ? compressed.size() : 0);
+        }
+
+        @Override
+        public ByteBuffer generateResponse(Event event) {
+            if (!(event instanceof PageRequestEvent)) {
+                return null;
+            }
+
+            // connection handlers set a Connection header when they close the connection after the response
+            boolean closing = ((PageRequestEvent) event).getResponse().getHeaders().containsKey("connection");
+
+            byte[] dateLine = HttpDate.line();
+            Heads current = heads;
+            if (current.dateLine != dateLine) {
+                // the first response in a new second rebuilds the heads; racing threads build identical ones
+                current = new Heads(dateLine, head(dateLine, false), head(dateLine, true));
+                heads = current;
+            }
+
+            return (closing ? current.close : current.keepAlive).duplicate();
+        }
+
+        @Override
+        public boolean shouldCopyBody(Event event) {
+            return true;
+        }
+    }
+
+    /**
+     * The complete response heads of an entry for the second given by a {@code Date} line
+     */
+    private static class Heads {
+        final byte[] dateLine;
+        final ByteBuffer keepAlive;
+        final ByteBuffer close;
+
+        Heads(byte[] dateLine, ByteBuffer keepAlive, ByteBuffer close) {
+            this.dateLine = dateLine;
+            this.keepAlive = keepAlive;
+            this.close = close;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.listener;
+
+import com.github.amr.mimetypes.MimeType;
+import com.github.amr.mimetypes.MimeTypes;
+import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.EventListener;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.event.reflect.EventControl;
+import me.infuzion.web.server.event.reflect.EventHandler;
+import me.infuzion.web.server.event.reflect.EventPriority;
+import me.infuzion.web.server.http.FileRegion;
+import me.infuzion.web.server.http.HttpHeader;
+import me.infuzion.web.server.http.HttpMethod;
+import me.infuzion.web.server.http.HttpResponse;
+import me.infuzion.web.server.http.parser.RequestHeaders;
+import me.infuzion.web.server.response.HttpDate;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+
+/**
+ * Serves the files in a directory. Files are sent with {@link FileRegion}s, so connection handlers transfer them
+ * straight from the file system to the socket, and large files are streamed as the client accepts them instead of being
+ * loaded into memory.
+ * <p>
+ * Single byte ranges requested with {@code Range} are answered with {@code 206 Partial Content}. Responses carry a
+ * strong {@code ETag}, and {@code If-None-Match} or {@code If-Modified-Since} are answered with
+ * {@code 304 Not Modified} from the file's attributes alone. Requests for paths that do not name a readable file in the
+ * directory are left to other listeners.
+ * <p>
+ * If a file has an up to date {@code .gz} sibling, such as {@code app.js.gz} for {@code app.js}, clients that accept
+ * gzip are sent the sibling instead. Nothing is compressed while responding.
+ * <p>
+ * Given a {@link FileCache}, small files are kept in memory and requests for them are answered from the cache with
+ * prebuilt headers.
+ */
+public class StaticFileListener implements EventListener {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private final Path root;
+    private final String prefix;
+    private final String indexFile;
+    private final @Nullable FileCache cache;
+
+    /**
+     * Serves the given directory at the root path, with {@code index.html} as the index of each directory.
+     */
+    public StaticFileListener(Path root) {
+        this(root, "/", "index.html");
+    }
+
+    /**
+     * @param root      The directory to serve
+     * @param prefix    The request path the directory is served at, such as {@code /static/}
+     * @param indexFile The name of the file served for requests for a directory
+     */
+    public StaticFileListener(Path root, String prefix, String indexFile) {
+        this(root, prefix, indexFile, null);
+    }
+
+    /**
+     * @param root      The directory to serve
+     * @param prefix    The request path the directory is served at, such as {@code /static/}
+     * @param indexFile The name of the file served for requests for a directory
+     * @param cache     The cache small files are served from, or null to always send files from the file system
+     */
+    public StaticFileListener(Path root, String prefix, String indexFile, @Nullable FileCache cache) {
+        this.root = root.toAbsolutePath().normalize();
+        this.prefix = prefix.endsWith("/") ? prefix : prefix + "/";
+        this.indexFile = indexFile;
+        this.cache = cache;
+    }
+
+    @EventHandler(priority = EventPriority.START, control = EventControl.FULL)
+    public boolean onPageRequest(PageRequestEvent event) {
+        if (event.getHttpMethod() != HttpMethod.GET) {
+            return false;
+        }
+
+        Path file = resolve(event.getPath());
+        if (file == null) {
+            return false;
+        }
+
+        // cached files are served without touching the file system
+        boolean cacheable = cache != null && !event.getRequestHeaders().contains(HttpHeader.RANGE);
+        if (cacheable && serveCached(event, file)) {
+            return true;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            if (Files.isDirectory(file)) {
+                // index files are cached under their own path, so directories are looked up again once resolved
+                file = file.resolve(indexFile);
+                if (cacheable && serveCached(event, file)) {
+                    return true;
+                }
+            }
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+
+        if (!attributes.isRegularFile() || !Files.isReadable(file)) {
+            return false;
+        }
+
+        try {
+            serve(event, file, attributes);
+        } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Exception occurred while opening %s", file);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param path The request path, which has already been percent-decoded when the request was parsed
+     * @return The file named by the given request path, or null if the path is not under this listener's prefix or
+     * would leave the served directory
+     */
+    @Nullable Path resolve(String path) {
+        if (!(path + "/").startsWith(prefix)) {
+            return null;
+        }
+
+        String relative = path.length() > prefix.length() ? path.substring(prefix.length()) : "";
+        Path file;
+        try {
+            file = root.resolve(relative).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+
+        return file.startsWith(root) ? file : null;
+    }
+
+    private void serve(PageRequestEvent event, Path file, BasicFileAttributes attributes) throws IOException {
+        RequestHeaders headers = event.getRequestHeaders();
+        HttpResponse response = event.getResponse();
+        String contentType = contentType(file);
+        String range = headers.get(HttpHeader.RANGE);
+
+        if (cache != null && range == null) {
+            FileCache.Entry entry = cache.load(file, attributes, contentType);
+            if (entry != null) {
+                serveCached(event, entry);
+                return;
+            }
+        }
+
+        Instant modified = lastModifiedInstant(attributes);
+        String lastModified = lastModified(modified);
+
+        Path compressedFile = compressedVariant(file);
+        BasicFileAttributes compressedAttributes = compressedVariantAttributes(compressedFile, attributes);
+        // ranges are only served from the uncompressed file
+        boolean compressed = compressedAttributes != null && range == null && acceptsGzip(headers);
+
+        Path sent = compressed ? compressedFile : file;
+        BasicFileAttributes sentAttributes = compressed ? compressedAttributes : attributes;
+        long length = sentAttributes.size();
+        String etag = etag(sentAttributes);
+
+        response.setContentType(contentType);
+        response.setHeader("Last-Modified", lastModified);
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (compressedAttributes != null) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (compressed) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+
+        if (isNotModified(headers, etag, modified)) {
+            response.setStatusCode(304);
+            return;
+        }
+
+        String ifRange = headers.get(HttpHeader.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(lastModified) || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+
+            if (bounds == null) {
+                // unsupported or malformed ranges are ignored, and the whole file is sent
+            } else if (bounds.length == 0) {
+                response.setStatusCode(416);
+                response.setHeader("Content-Range", "bytes */" + length);
+                return;
+            } else {
+                response.setStatusCode(206);
+                response.setHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+                response.setFileBody(FileRegion.open(sent, bounds[0], bounds[1] - bounds[0] + 1));
+                return;
+            }
+        }
+
+        response.setFileBody(FileRegion.open(sent, 0, length));
+    }
+
+    /**
+     * @return Whether the file was cached and has been served from the cache
+     */
+    private boolean serveCached(PageRequestEvent event, Path file) {
+        FileCache.Entry entry = cache.get(file);
+        if (entry == null) {
+            return false;
+        }
+        serveCached(event, entry);
+        return true;
+    }
+
+    private static void serveCached(PageRequestEvent event, FileCache.Entry entry) {
+        RequestHeaders headers = event.getRequestHeaders();
+        FileCache.Entry selected = entry.getCompressed() != null && acceptsGzip(headers) ? entry.getCompressed() : entry;
+
+        if (isNotModified(headers, selected.getETag(), entry.getModified())) {
+            HttpResponse response = event.getResponse();
+            response.setStatusCode(304);
+            response.setContentType(entry.getContentType());
+            response.setHeader("Last-Modified", lastModified(entry.getModified()));
+            response.setHeader("ETag", selected.getETag());
+            if (entry.getCompressed() != null) {
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            return;
+        }
+
+        // the entry writes its prebuilt headers in place of the default response generator's
+        event.setResponseGenerator(selected);
+        event.getResponse().setBody(selected.getBody());
+    }
+
+    /**
+     * Evaluates {@code If-None-Match}, or {@code If-Modified-Since} if the request has no {@code If-None-Match}.
+     *
+     * @return True if the client's copy is current and a 304 response should be sent
+     */
+    static boolean isNotModified(RequestHeaders headers, String etag, Instant modified) {
+        String ifNoneMatch = headers.get(HttpHeader.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // If-None-Match uses the weak comparison
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Instant ifModifiedSince = parseDate(headers.get(HttpHeader.IF_MODIFIED_SINCE));
+        return ifModifiedSince != null && !modified.isAfter(ifModifiedSince);
+    }
+
+    /**
+     * @return True if the request's {@code Accept-Encoding} header allows a gzip response
+     */
+    static boolean acceptsGzip(RequestHeaders headers) {
+        String acceptEncoding = headers.get(HttpHeader.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The path of the precompressed copy of the given file
+     */
+    static Path compressedVariant(Path file) {
+        return file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    /**
+     * @return The attributes of a precompressed copy of a file, or null if there is no copy or it is older than the file
+     */
+    static @Nullable BasicFileAttributes compressedVariantAttributes(Path compressedFile, BasicFileAttributes original) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(compressedFile, BasicFileAttributes.class);
+            if (!attributes.isRegularFile() || attributes.lastModifiedTime().compareTo(original.lastModifiedTime()) < 0) {
+                return null;
+            }
+            return attributes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return A strong entity tag identifying the current contents of a file
+     */
+    static String etag(BasicFileAttributes attributes) {
+        return "\"" + Long.toHexString(attributes.size()) + "-"
+                + Long.toHexString(attributes.lastModifiedTime().toMillis()) + "\"";
+    }
+
+    static Instant lastModifiedInstant(BasicFileAttributes attributes) {
+        // HTTP dates have a resolution of one second
+        return attributes.lastModifiedTime().toInstant().with(ChronoField.NANO_OF_SECOND, 0);
+    }
+
+    /**
+     * @return The given modification time, formatted for the {@code Last-Modified} header
+     */
+    static String lastModified(Instant modified) {
+        return HttpDate.formatter.format(modified);
+    }
+
+    /**
+     * Parses a {@code Range} header with a single byte range.
+     *
+     * @return The first and last byte of the range, an empty array if the range can not be satisfied, or null if the
+     * header is malformed or requests multiple ranges
+     */
+    static long @Nullable [] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') != -1) {
+            return null;
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            if (first.isEmpty()) {
+                // a suffix range: the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            return new long[]{start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static @Nullable Instant parseDate(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        MimeType type = dot == -1 ? null : MimeTypes.getInstance().getByExtension(name.substring(dot + 1).toLowerCase());
+
+        return type != null ? type.getMimeType() : "application/octet-stream";
+    }
+}
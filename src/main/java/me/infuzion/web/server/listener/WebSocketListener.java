@@ -21,8 +21,10 @@ import me.infuzion.web.server.event.def.PageRequestEvent;
 import me.infuzion.web.server.event.reflect.EventControl;
 import me.infuzion.web.server.event.reflect.EventHandler;
 import me.infuzion.web.server.event.reflect.EventPriority;
+import me.infuzion.web.server.http.HttpHeader;
 import me.infuzion.web.server.http.HttpMethod;
 import me.infuzion.web.server.http.HttpResponse;
+import me.infuzion.web.server.http.parser.RequestHeaders;
 import me.infuzion.web.server.network.websocket.WebsocketConnectionHandler;
 import me.infuzion.web.server.response.ResponseGenerator;
 import me.infuzion.web.server.response.WebSocketResponseGenerator;
@@ -31,7 +33,6 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
-import java.util.Map;
 
 //TODO: Update
 public class WebSocketListener implements EventListener {
@@ -53,17 +54,21 @@ public class WebSocketListener implements EventListener {
 
     @EventHandler(priority = EventPriority.START, control = EventControl.FULL)
     public boolean onPageLoad(PageRequestEvent event) {
-        final Map<String, String> headers = event.getRequestHeaders();
+        final RequestHeaders headers = event.getRequestHeaders();
 
         if (!(event.getHttpMethod() == HttpMethod.GET)) {
             return false;
         }
 
-        if (!headers.containsKey("Connection") || !headers.containsKey("Upgrade") || !headers.containsKey("Sec-WebSocket-Key")) {
+        String connection = headers.get(HttpHeader.CONNECTION);
+        String upgrade = headers.get(HttpHeader.UPGRADE);
+        String webSocketKey = headers.get(HttpHeader.SEC_WEBSOCKET_KEY);
+
+        if (connection == null || upgrade == null || webSocketKey == null) {
             return false;
         }
 
-        String[] split = headers.get("Connection").split(",");
+        String[] split = connection.split(",");
         boolean found = false;
         for (String e : split) {
             if (e.trim().equalsIgnoreCase("upgrade")) {
@@ -75,12 +80,10 @@ public class WebSocketListener implements EventListener {
             return false;
         }
 
-        if (!headers.get("Upgrade").equalsIgnoreCase("websocket")) {
+        if (!upgrade.equalsIgnoreCase("websocket")) {
             return false;
         }
 
-        String webSocketKey = headers.get("sec-websocket-key");
-
         HttpResponse response = event.getResponse();
         response.setHeader("Sec-WebSocket-Accept", generateWebSocketAccept(webSocketKey));
         response.setHeader("Sec-WebSocket-Version", "13");
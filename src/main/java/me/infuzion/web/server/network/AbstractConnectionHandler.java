@@ -20,121 +20,418 @@ import com.google.common.flogger.FluentLogger;
 import me.infuzion.web.server.Server;
 import me.infuzion.web.server.event.Event;
 import me.infuzion.web.server.event.EventManager;
+import me.infuzion.web.server.network.wait.WaitStrategy;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public abstract class AbstractConnectionHandler implements ConnectionHandler {
+/**
+ * Base class for selector based connection handlers. Clients are spread across a fixed number of selector loops in a
+ * round-robin order; each loop runs on its own thread and owns the clients (and their per-connection state) assigned
+ * to it. Per-connection state is attached directly to the client's {@link SelectionKey}, so the selector loop does not
+ * need any shared lookup tables.
+ *
+ * @param <C> The type of the per-connection state stored for each client
+ */
+public abstract class AbstractConnectionHandler<C> implements ConnectionHandler {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-    /**
-     * A set containing all of the clients managed by this connection handler.
-     */
-    protected final Set<UUID> clients = Collections.synchronizedSet(new HashSet<>());
-
-    /**
-     * A set containing all of the clients that are to be removed
-     */
-    protected final Set<UUID> removedClients = Collections.synchronizedSet(new HashSet<>());
+    private final int selectorThreads;
+    private final List<SelectorLoop> loops = new ArrayList<>();
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private volatile WaitStrategy waitStrategy = WaitStrategy.blocking();
 
     protected Server server;
     protected EventManager eventManager;
-    protected Selector clientSelector;
 
+    protected AbstractConnectionHandler() {
+        this(1);
+    }
 
+    /**
+     * @param selectorThreads The number of selector loops (each with its own thread) used to service clients
+     */
+    protected AbstractConnectionHandler(int selectorThreads) {
+        if (selectorThreads < 1) {
+            throw new IllegalArgumentException("At least one selector thread is required");
+        }
+        this.selectorThreads = selectorThreads;
+    }
+
+    /**
+     * Assigns the client to a selector loop. The channel is registered by that loop, so this never contends with a
+     * selector that is blocked in {@code select()}. Any socket options configured for this handler in the server's
+     * {@link me.infuzion.web.server.ServerOptions} are applied first.
+     */
     @Override
-    public void register(SocketChannel client, UUID clientUUID, Event event) throws ClosedChannelException {
-        clients.add(clientUUID);
+    public void register(SocketChannel client, long clientId, Event event) throws IOException {
+        SocketOptions socketOptions = server.getOptions().getSocketOptions(getClass());
+        if (socketOptions != null) {
+            socketOptions.apply(client);
+        }
 
-        handleNewClient(client, clientUUID, event);
+        SelectorLoop loop = loops.get(Math.floorMod(nextLoop.getAndIncrement(), loops.size()));
 
-        client.register(clientSelector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, clientUUID);
-        clientSelector.wakeup();
+        loop.execute(() -> {
+            try {
+                Connection connection = new Connection(clientId, loop);
+                // write interest is only added while there is pending output
+                SelectionKey key = client.register(loop.selector, SelectionKey.OP_READ, connection);
+                connection.state = handleNewClient(key, client, clientId, event);
+            } catch (Exception e) {
+                logger.atWarning().withCause(e).log("Exception occurred while registering client");
+                try {
+                    server.releaseConnection(client);
+                    client.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
     }
 
     @Override
-    public void init(Server server, EventManager eventManager, Selector clientSelector) {
+    public void init(Server server, EventManager eventManager) throws IOException {
         this.server = server;
         this.eventManager = eventManager;
-        this.clientSelector = clientSelector;
+
+        for (int i = 0; i < selectorThreads; i++) {
+            loops.add(new SelectorLoop(Selector.open()));
+        }
     }
 
+    /**
+     * Runs the first selector loop on the calling thread, and starts a new thread for each of the remaining loops.
+     */
     public void handleConnections() throws IOException {
-        while (true) {
-            int readyCount = clientSelector.select();
+        String name = Thread.currentThread().getName();
 
-            if (readyCount == 0) {
-                Thread.onSpinWait();
-                continue;
-            }
+        for (int i = 1; i < loops.size(); i++) {
+            Thread t = new Thread(loops.get(i));
+            t.setName(name + " #" + i);
+            t.start();
+        }
+
+        loops.get(0).handleConnections();
+    }
 
-            Set<SelectionKey> ready = clientSelector.selectedKeys();
-            Iterator<SelectionKey> iterator = ready.iterator();
+    /**
+     * Sets the strategy used by this handler's selector loops to wait for ready channels. Defaults to
+     * {@link WaitStrategy#blocking()}.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
 
-            while (iterator.hasNext()) {
-                SelectionKey key = iterator.next();
-                iterator.remove();
+    /**
+     * @return The number of selector loops used by this connection handler
+     */
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
 
-                if (!key.isValid()) {
-                    continue;
-                }
+    /**
+     * Called when a registered channel is available to read.
+     */
+    protected abstract void handleRead(SelectionKey key, C client, SocketChannel clientChannel) throws Exception;
 
-                UUID uuid = (UUID) key.attachment();
+    /**
+     * Called when a registered channel is available to write.
+     */
+    protected abstract void handleWrite(SelectionKey key, C client, SocketChannel clientChannel) throws Exception;
 
-                if (!clients.contains(uuid)) {
-                    try {
-                        if (removedClients.contains(uuid)) {
-                            handleRemoveClient(uuid);
+    /**
+     * Called when a client is registered with this connection handler. The client is initially only subscribed to
+     * {@link SelectionKey#OP_READ}; implementations should add {@link SelectionKey#OP_WRITE} only while they have
+     * output pending, and remove it once that output has been written.
+     *
+     * @param key The selection key of the new client. Interest operations may be changed, but the attachment must not.
+     * @return The per-connection state to associate with the new client
+     */
+    protected abstract C handleNewClient(SelectionKey key, SocketChannel client, long clientId, @Nullable Event event);
 
-                            SocketChannel client = (SocketChannel) key.channel();
-                            client.close();
-                            key.cancel();
-                            removedClients.remove(uuid);
-                        }
-                    } catch (Exception e) {
-                        logger.atWarning().withCause(e).log("Exception occurred while removing client");
-                    }
-                    continue;
-                }
+    /**
+     * Called by the owning selector loop after a removed client's channel has been closed.
+     */
+    protected abstract void handleRemoveClient(C client) throws Exception;
 
-                SocketChannel client = (SocketChannel) key.channel();
+    /**
+     * @return The id of the client registered with the given key
+     */
+    @SuppressWarnings("unchecked")
+    protected long getConnectionId(SelectionKey key) {
+        return ((Connection) key.attachment()).id;
+    }
 
-                try {
-                    if (key.isValid() && key.isReadable()) {
-                        handleRead(key, uuid, client);
-                    }
-                    if (key.isValid() && key.isWritable()) {
-                        handleWrite(key, uuid, client);
-                    }
-                } catch (Exception e) {
-                    logger.atWarning().withCause(e).log("Exception occurred");
-                    removeClient(uuid);
-                }
+    /**
+     * Returns an executor that runs tasks on the selector loop that owns the given client. Other threads should use it
+     * to change interest operations or write to the client instead of touching the selection key directly.
+     * <p>
+     * Tasks are queued without locking, and a batch of tasks submitted while the loop is blocked causes at most one
+     * selector wakeup. Tasks submitted from the loop itself run before it next waits for ready channels.
+     */
+    @SuppressWarnings("unchecked")
+    protected Executor getExecutor(SelectionKey key) {
+        return ((Connection) key.attachment()).loop;
+    }
+
+    /**
+     * Returns the timing wheel of the selector loop that owns the given client. The wheel may only be used from that
+     * loop, for example from {@link #handleRead} or {@link #handleWrite}, or from tasks submitted to
+     * {@link #getExecutor(SelectionKey)}.
+     */
+    @SuppressWarnings("unchecked")
+    protected TimingWheel getTimingWheel(SelectionKey key) {
+        return ((Connection) key.attachment()).loop.timingWheel;
+    }
+
+    /**
+     * Stops reading from the given client while its memory account is exhausted, and resumes reading once usage drops
+     * back under the budget's limits. Handlers should call this before allocating memory to read into. Must be called
+     * from the selector loop that owns the client.
+     *
+     * @return Whether reading was paused, in which case the caller should not read from the client
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean pauseReadingIfExhausted(SelectionKey key, MemoryBudget.Account account) {
+        if (!account.isExhausted()) {
+            return false;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        key.interestOpsAnd(~SelectionKey.OP_READ);
+
+        account.onAvailable(() -> connection.loop.execute(() -> {
+            if (key.isValid() && !connection.closed) {
+                key.interestOpsOr(SelectionKey.OP_READ);
             }
+        }));
+        return true;
+    }
+
+    /**
+     * Removes the given client and closes its channel. This may be called from any thread; if it is not called from the
+     * selector loop that owns the client, the removal is performed by that loop on its next iteration.
+     */
+    @SuppressWarnings("unchecked")
+    protected void removeClient(SelectionKey key) {
+        SelectorLoop loop = ((Connection) key.attachment()).loop;
+
+        if (Thread.currentThread() == loop.thread) {
+            loop.close(key);
+        } else {
+            loop.execute(() -> loop.close(key));
         }
     }
 
     /**
-     * Called when a registered channel is available to read.
+     * Stops tracking the given client without closing its channel or calling {@link #handleRemoveClient(Object)}.
+     * The selection key is cancelled so that the channel can be handed off to another connection handler. Must be
+     * called from the selector loop that owns the client.
      */
-    protected abstract void handleRead(SelectionKey key, UUID uuid, SocketChannel clientChannel) throws Exception;
+    @SuppressWarnings("unchecked")
+    protected void detachClient(SelectionKey key) {
+        ((Connection) key.attachment()).closed = true;
+        key.cancel();
+    }
 
     /**
-     * Called when a registered channel is available to write.
+     * Closes the channel of a client that has been detached with {@link #detachClient(SelectionKey)}, without calling
+     * {@link #handleRemoveClient(Object)}. Handlers must close channels through this method (or
+     * {@link #removeClient(SelectionKey)}) so that the connection is released from the server's connection limits.
      */
-    protected abstract void handleWrite(SelectionKey key, UUID uuid, SocketChannel clientChannel) throws Exception;
+    protected void closeChannel(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+
+        server.releaseConnection(channel);
+        channel.close();
+    }
 
-    protected abstract void handleNewClient(SocketChannel client, UUID uuid, @Nullable Event event);
+    /**
+     * Bookkeeping attached to each client's selection key.
+     */
+    private final class Connection {
+        private final long id;
+        private final SelectorLoop loop;
 
-    protected void removeClient(UUID uuid) {
-        clients.remove(uuid);
-        removedClients.add(uuid);
+        /**
+         * Set by the owning selector loop immediately after the channel is registered
+         */
+        private C state;
+
+        /**
+         * Only accessed from the owning selector loop
+         */
+        private boolean closed = false;
+
+        Connection(long id, SelectorLoop loop) {
+            this.id = id;
+            this.loop = loop;
+        }
     }
 
-    protected abstract void handleRemoveClient(UUID uuid) throws Exception;
+    /**
+     * A single selector and the clients registered with it.
+     */
+    private class SelectorLoop implements Runnable, Executor {
+        private final Selector selector;
+
+        /**
+         * Commands submitted to this loop, such as registrations, interest changes and removals
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Whether a selector wakeup has been issued that the loop has not yet observed. Used to coalesce wakeups when
+         * many tasks are submitted at once.
+         */
+        private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+        /**
+         * Tracks connection deadlines, such as idle timeouts, for the clients owned by this loop
+         */
+        private final TimingWheel timingWheel = new TimingWheel(100, TimeUnit.MILLISECONDS, 512, System.nanoTime());
+
+        private volatile Thread thread;
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+
+            if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Runs all queued tasks, including any submitted while running.
+         *
+         * @return Whether any tasks were run
+         */
+        private boolean runTasks() {
+            wakeupPending.set(false);
+
+            boolean ran = false;
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                ran = true;
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.atWarning().withCause(e).log("Exception occurred while running selector task");
+                }
+            }
+            return ran;
+        }
+
+        @Override
+        public void run() {
+            try {
+                handleConnections();
+            } catch (Exception e) {
+                logger.atSevere().withCause(e).log("Selector loop terminated");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+
+            try {
+                key.cancel();
+                closeChannel(key);
+                handleRemoveClient(connection.state);
+            } catch (Exception e) {
+                logger.atWarning().withCause(e).log("Exception occurred while removing client");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void handleConnections() throws IOException {
+            thread = Thread.currentThread();
+
+            int idleCount = 0;
+
+            while (true) {
+                long now = System.nanoTime();
+
+                if (timingWheel.advance(now) > 0) {
+                    idleCount = 0;
+                }
+
+                if (runTasks()) {
+                    idleCount = 0;
+                }
+
+                // wake up in time to process the next tick of the timing wheel
+                long untilNextTick = timingWheel.nanosUntilNextTick(now);
+                long timeoutMillis = untilNextTick < 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(untilNextTick));
+
+                int readyCount = waitStrategy.select(selector, idleCount, timeoutMillis);
+
+                if (readyCount == 0) {
+                    if (idleCount < Integer.MAX_VALUE) {
+                        idleCount++;
+                    }
+                    continue;
+                }
+
+                idleCount = 0;
+
+                Set<SelectionKey> ready = selector.selectedKeys();
+                Iterator<SelectionKey> iterator = ready.iterator();
+
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+
+                    if (connection.closed) {
+                        continue;
+                    }
+
+                    SocketChannel client = (SocketChannel) key.channel();
+
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            handleRead(key, connection.state, client);
+                        }
+                        if (key.isValid() && !connection.closed && key.isWritable()) {
+                            handleWrite(key, connection.state, client);
+                        }
+                    } catch (Exception e) {
+                        logger.atWarning().withCause(e).log("Exception occurred");
+                        close(key);
+                    }
+                }
+            }
+        }
+    }
 }
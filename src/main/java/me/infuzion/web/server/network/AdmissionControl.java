@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.jetbrains.annotations.Contract;
+
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of connections that may be open at once, both in total and per remote address. The server checks
+ * each connection as it is accepted, and releases it once the connection is closed.
+ * <p>
+ * Counts are kept without locking: the total is a single atomic counter, and per-address counts live in a concurrent
+ * map that is only consulted when a per-address limit is set. Entries for addresses without open connections are
+ * removed, so the map does not grow with the number of distinct clients seen.
+ * <p>
+ * Limits must be configured before the server is started.
+ */
+public class AdmissionControl {
+    /**
+     * What the accept loop does once the total connection limit is reached.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Keep accepting, and close new connections immediately
+         */
+        CLOSE,
+        /**
+         * Stop accepting until a connection is released, leaving new connections queued in the listen backlog
+         */
+        PAUSE
+    }
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final ConcurrentMap<InetAddress, AtomicInteger> perAddress = new ConcurrentHashMap<>();
+    private int maxConnections = Integer.MAX_VALUE;
+    private int maxConnectionsPerAddress = Integer.MAX_VALUE;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.CLOSE;
+
+    /**
+     * Sets the maximum number of connections that may be open at once. Defaults to no limit.
+     */
+    @Contract("_ -> this")
+    public AdmissionControl setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of connections that may be open at once from a single remote address. Connections over
+     * this limit are always closed, regardless of the {@link OverflowPolicy}. Defaults to no limit.
+     */
+    @Contract("_ -> this")
+    public AdmissionControl setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        if (maxConnectionsPerAddress < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerAddress must be positive");
+        }
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        return this;
+    }
+
+    /**
+     * Sets what happens once the total connection limit is reached. Defaults to {@link OverflowPolicy#CLOSE}.
+     */
+    @Contract("_ -> this")
+    public AdmissionControl setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return The number of connections currently admitted
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return Whether another connection would currently fit under the total connection limit
+     */
+    public boolean hasCapacity() {
+        return openConnections.get() < maxConnections;
+    }
+
+    /**
+     * Attempts to admit a new connection from the given address. Every successful call must be paired with a call to
+     * {@link #release(InetAddress)} once the connection is closed.
+     *
+     * @return Whether the connection was admitted
+     */
+    public boolean tryAcquire(InetAddress address) {
+        int current;
+        do {
+            current = openConnections.get();
+            if (current >= maxConnections) {
+                return false;
+            }
+        } while (!openConnections.compareAndSet(current, current + 1));
+
+        if (maxConnectionsPerAddress != Integer.MAX_VALUE && !tryAcquireAddress(address)) {
+            openConnections.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Releases a connection previously admitted by {@link #tryAcquire(InetAddress)}.
+     *
+     * @return Whether the total connection limit was reached before this connection was released
+     */
+    public boolean release(InetAddress address) {
+        if (maxConnectionsPerAddress != Integer.MAX_VALUE) {
+            releaseAddress(address);
+        }
+
+        return openConnections.getAndDecrement() >= maxConnections;
+    }
+
+    private boolean tryAcquireAddress(InetAddress address) {
+        while (true) {
+            AtomicInteger counter = perAddress.computeIfAbsent(address, k -> new AtomicInteger());
+            int current = counter.get();
+
+            if (current < 0) {
+                // the counter is being retired by a concurrent release; help remove it and start again
+                perAddress.remove(address, counter);
+                continue;
+            }
+
+            if (current >= maxConnectionsPerAddress) {
+                return false;
+            }
+
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseAddress(InetAddress address) {
+        AtomicInteger counter = perAddress.get(address);
+
+        if (counter == null) {
+            return;
+        }
+
+        // retire the counter once it reaches zero, so that acquirers never increment a counter that has been removed
+        if (counter.decrementAndGet() == 0 && counter.compareAndSet(0, -1)) {
+            perAddress.remove(address, counter);
+        }
+    }
+
+    /**
+     * @return The number of remote addresses that currently have a per-address count
+     */
+    int trackedAddresses() {
+        return perAddress.size();
+    }
+}
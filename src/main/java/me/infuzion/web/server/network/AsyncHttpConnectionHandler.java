@@ -0,0 +1,1122 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.event.Event;
+import me.infuzion.web.server.event.EventExecutors;
+import me.infuzion.web.server.event.EventManager;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.BodySource;
+import me.infuzion.web.server.http.FileRegion;
+import me.infuzion.web.server.http.HttpHeader;
+import me.infuzion.web.server.http.HttpResponse;
+import me.infuzion.web.server.http.parser.*;
+import me.infuzion.web.server.response.DefaultResponseGenerator;
+import me.infuzion.web.server.response.ResponseGenerator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.channels.ShutdownChannelGroupException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves HTTP clients with NIO.2 asynchronous channels. Reads and writes are issued as asynchronous operations and
+ * continued from their completion handlers, which run on a fixed pool of threads shared through an
+ * {@link AsynchronousChannelGroup}, so there are no selectors or interest operations to manage. Once a response is
+ * ready, the read for the next request is issued while the response is still being written.
+ * <p>
+ * Asynchronous channels cannot be created from the {@link SocketChannel}s accepted by the server, so this handler
+ * listens on its own address. Connections accepted there are admitted and counted through
+ * {@link Server#admitConnection(InetAddress)}, and are subject to the server's socket options. Under the
+ * {@link AdmissionControl.OverflowPolicy#PAUSE} policy, no further connections are accepted while the server is at its
+ * connection limit. Connections transferred from another handler through
+ * {@link #register(SocketChannel, long, Event)} are served by the same state machine, with their reads and writes run
+ * as blocking operations on separate threads that complete like asynchronous ones. Protocol upgrades are not
+ * supported, as websocket connections are handled by a selector based handler; requests for one are answered with
+ * {@code 501 Not Implemented}.
+ * <p>
+ * The handler's threads are not daemon threads, and are stopped by {@link #close()}.
+ */
+public class AsyncHttpConnectionHandler implements ConnectionHandler, Closeable {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final int initialBufferSize = ReadBufferSizer.initialSize;
+    private static final int fileChunkSize = 64 * 1024;
+
+    private ResponseGenerator defaultResponseGenerator;
+    private final HttpParser parser = new HttpParser();
+    private final List<BodyParser> bodyParsers = new ArrayList<>();
+
+    @NotNull
+    private final HttpConnectionHandler.Config config;
+
+    /**
+     * The largest request that can be read, which is also bounded by the memory budget's per-connection limit
+     */
+    private int maxRequestSize;
+    private final InetSocketAddress bindAddress;
+    private final int threads;
+
+    private final CompletionHandler<Integer, Connection> readHandler = new ReadHandler();
+    private final CompletionHandler<Long, Connection> writeHandler = new WriteHandler();
+    private final CompletionHandler<AsynchronousSocketChannel, Void> acceptHandler = new AcceptHandler();
+    /**
+     * Whether no accept is pending because the server's connection limit was reached under the
+     * {@link AdmissionControl.OverflowPolicy#PAUSE} policy. Guarded by {@link #acceptLock}.
+     */
+    private boolean acceptPaused = false;
+    private final Object acceptLock = new Object();
+
+    private Server server;
+    private EventManager eventManager;
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel listener;
+    /**
+     * Times the waits that can not be bounded by a read's own timeout: the wait for the next request when its read was
+     * issued while the previous response was being written, the body transfer rate, and blocking writes
+     */
+    private ScheduledExecutorService timer;
+    /**
+     * Runs the blocking reads and writes of connections transferred from other handlers
+     */
+    private ExecutorService transferredExecutor;
+
+    /**
+     * @param address The address to listen on
+     */
+    public AsyncHttpConnectionHandler(InetSocketAddress address) {
+        this(address, Runtime.getRuntime().availableProcessors(), new HttpConnectionHandler.Config());
+    }
+
+    /**
+     * @param address The address to listen on
+     * @param threads The number of threads used to run completion handlers
+     * @param config  The connection limits to enforce
+     */
+    public AsyncHttpConnectionHandler(InetSocketAddress address, int threads, @NotNull HttpConnectionHandler.Config config) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        this.bindAddress = address;
+        this.threads = threads;
+        this.config = config;
+        bodyParsers.add(new MultipartBodyParser());
+        bodyParsers.add(new UrlEncodedBodyParser());
+        bodyParsers.add(new JsonBodyParser());
+    }
+
+    /**
+     * Creates the channel group and binds the listening channel. Connections are accepted once
+     * {@link #handleConnections()} is called.
+     */
+    @Override
+    public void init(Server server, EventManager eventManager) throws IOException {
+        this.server = server;
+        this.eventManager = eventManager;
+        this.maxRequestSize = (int) Math.min(config.maxRequestSize, server.getOptions().getMemoryBudget().getConnectionLimit());
+        this.defaultResponseGenerator = new DefaultResponseGenerator(
+                TimeUnit.MILLISECONDS.toSeconds(config.keepAliveTimeout), config.maxRequests,
+                server.getOptions().getBufferPool());
+
+        AtomicInteger threadCount = new AtomicInteger();
+        group = AsynchronousChannelGroup.withFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r);
+            t.setName("Async HTTP #" + threadCount.getAndIncrement());
+            return t;
+        });
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("Async HTTP timer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        transferredExecutor = EventExecutors.newExecutor(true);
+
+        listener = AsynchronousServerSocketChannel.open(group);
+        listener.bind(bindAddress, server.getOptions().getBacklog());
+    }
+
+    /**
+     * Stops accepting connections and stops the handler's threads. Open connections are closed without their responses
+     * being completed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            listener.close();
+        } finally {
+            group.shutdownNow();
+            timer.shutdownNow();
+            transferredExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The local address this handler is listening on
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) listener.getLocalAddress();
+    }
+
+    /**
+     * Serves a connection transferred from another handler. The channel is switched to blocking mode, and each of its
+     * reads and writes runs on a separate thread, completing through the same handlers as an asynchronous channel.
+     */
+    @Override
+    public void register(SocketChannel channel, long clientId, @Nullable Event event) throws IOException {
+        SocketOptions socketOptions = server.getOptions().getSocketOptions(getClass());
+        if (socketOptions != null) {
+            socketOptions.apply(channel);
+        }
+
+        channel.configureBlocking(true);
+        Connection connection = new Connection(new BlockingTransport(channel, transferredExecutor, timer),
+                channel.socket().getInetAddress());
+
+        synchronized (connection) {
+            connection.read();
+        }
+    }
+
+    /**
+     * Starts accepting connections. Accepts and all further I/O are driven by completion handlers on the channel
+     * group's threads, so this returns immediately.
+     */
+    @Override
+    public void handleConnections() {
+        server.addCapacityListener(this::resumeAccepting);
+        acceptNext();
+    }
+
+    /**
+     * Issues the next accept, unless the server is at its connection limit under the
+     * {@link AdmissionControl.OverflowPolicy#PAUSE} policy. Further connections are then left in the listen backlog
+     * until {@link #resumeAccepting()} is called for a released connection.
+     */
+    private void acceptNext() {
+        synchronized (acceptLock) {
+            AdmissionControl admission = server.getAdmissionControl();
+            if (admission.getOverflowPolicy() == AdmissionControl.OverflowPolicy.PAUSE && !admission.hasCapacity()) {
+                acceptPaused = true;
+                return;
+            }
+        }
+
+        try {
+            listener.accept(null, acceptHandler);
+        } catch (ShutdownChannelGroupException ignored) {
+            // the handler was closed
+        }
+    }
+
+    private void resumeAccepting() {
+        synchronized (acceptLock) {
+            if (!acceptPaused) {
+                return;
+            }
+            acceptPaused = false;
+        }
+        acceptNext();
+    }
+
+    private class AcceptHandler implements CompletionHandler<AsynchronousSocketChannel, Void> {
+        @Override
+        public void completed(AsynchronousSocketChannel channel, Void attachment) {
+            // admit the connection before the next accept, so that it counts towards the limit checked there
+            accept(channel);
+            acceptNext();
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+            if (listener.isOpen()) {
+                logger.atWarning().withCause(e).log("Exception occurred while accepting a connection");
+                acceptNext();
+            }
+        }
+    }
+
+    private void accept(AsynchronousSocketChannel channel) {
+        try {
+            InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+
+            if (!server.admitConnection(address)) {
+                channel.close();
+                return;
+            }
+
+            Connection connection = new Connection(new AsyncTransport(channel), address);
+            try {
+                server.getOptions().getSocketOptions().apply(channel);
+                SocketOptions socketOptions = server.getOptions().getSocketOptions(getClass());
+                if (socketOptions != null) {
+                    socketOptions.apply(channel);
+                }
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+
+            synchronized (connection) {
+                connection.read();
+            }
+        } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Exception occurred while registering a connection");
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private class ReadHandler implements CompletionHandler<Integer, Connection> {
+        @Override
+        public void completed(Integer read, Connection connection) {
+            synchronized (connection) {
+                if (read == -1) {
+                    connection.readPending = false;
+                    connection.close();
+                    return;
+                }
+
+                if (!connection.readCompleted(read)) {
+                    return;
+                }
+
+                if (!connection.processing) {
+                    connection.processNext();
+                }
+
+                if (!connection.processing || (connection.writing && !connection.closeAfterWrite)) {
+                    connection.read();
+                }
+            }
+        }
+
+        @Override
+        public void failed(Throwable e, Connection connection) {
+            if (e instanceof InterruptedByTimeoutException) {
+                logger.atFine().log("Closing connection after read timeout");
+            } else {
+                logger.atFine().withCause(e).log("Read failed");
+            }
+
+            synchronized (connection) {
+                connection.readPending = false;
+                connection.close();
+            }
+        }
+    }
+
+    private class WriteHandler implements CompletionHandler<Long, Connection> {
+        @Override
+        public void completed(Long written, Connection connection) {
+            synchronized (connection) {
+                if (connection.closed) {
+                    return;
+                }
+
+                for (ByteBuffer buffer : connection.output) {
+                    if (buffer.hasRemaining()) {
+                        connection.write();
+                        return;
+                    }
+                }
+
+                try {
+                    if (connection.nextFileChunk() || connection.nextBodyChunk()) {
+                        connection.write();
+                        return;
+                    }
+                } catch (IOException e) {
+                    logger.atWarning().withCause(e).log("Exception occurred while reading a response body");
+                    connection.close();
+                    return;
+                }
+
+                connection.responseWritten();
+            }
+        }
+
+        @Override
+        public void failed(Throwable e, Connection connection) {
+            if (e instanceof InterruptedByTimeoutException) {
+                logger.atFine().log("Closing connection that stopped reading its response");
+            } else {
+                logger.atFine().withCause(e).log("Write failed");
+            }
+
+            synchronized (connection) {
+                connection.writing = false;
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * The state of a single client. All fields are guarded by the connection's monitor, since the completion handlers
+     * of a read, a write and an event callback may run concurrently on different threads.
+     */
+    private class Connection {
+        private final Transport channel;
+        private final InetAddress address;
+        private final MemoryBudget.Account memory = server.getOptions().getMemoryBudget().newAccount();
+
+        /**
+         * Data read from the client, starting at the first byte of the current request. The position is the end of the
+         * data read so far. Only read into while no request is being processed.
+         */
+        private ByteBuffer buffer = allocate(initialBufferSize);
+        private int requests = 0;
+        private final HttpParser.State parseState = new HttpParser.State();
+
+        /**
+         * The end of the request currently being processed, or zero if no request is being processed
+         */
+        private int requestEnd = 0;
+        private long headerDeadline = 0;
+        private boolean headersComplete = false;
+        /**
+         * The number of body bytes read since the transfer rate was last checked, and the pending check
+         */
+        private long bodyBytesRead = 0;
+        private @Nullable ScheduledFuture<?> bodyRateCheck = null;
+
+        private boolean readPending = false;
+        /**
+         * The number of reads that have completed, which identifies the pending read to the timer started for it
+         */
+        private long readsCompleted = 0;
+        private boolean processing = false;
+        private boolean writing = false;
+        private boolean closeAfterWrite = false;
+        private boolean closed = false;
+        private ByteBuffer[] output;
+
+        /**
+         * The number of bytes charged to the memory account for the response being written
+         */
+        private long outputBytes = 0;
+
+        /**
+         * The file sent after {@link #output} as the body of the response being written. Asynchronous channels can not
+         * be transferred to directly, so it is read into {@link #fileBuffer} one chunk at a time.
+         */
+        private FileRegion file = null;
+        private ByteBuffer fileBuffer = null;
+        /**
+         * The streamed body sent after {@link #output}, and the buffer its chunks are encoded into
+         */
+        private ChunkedBody body = null;
+        private ByteBuffer chunkBuffer = null;
+
+        /**
+         * The head of the response being written, and the generator it is released to once written
+         */
+        private ByteBuffer responseHead = null;
+        private ResponseGenerator responseGenerator = null;
+
+        /**
+         * Receives data read while a response is being written
+         */
+        private ByteBuffer overlap = null;
+
+        Connection(Transport channel, InetAddress address) {
+            this.channel = channel;
+            this.address = address;
+        }
+
+        /**
+         * Issues a read if none is pending. While a response is being written, data is read into a separate buffer
+         * and appended to the request buffer once the read completes, so that the request buffer is never modified by
+         * a pending read.
+         */
+        void read() {
+            if (closed || readPending) {
+                return;
+            }
+
+            if (processing) {
+                if (overlap == null) {
+                    if (pauseIfExhausted()) {
+                        return;
+                    }
+                    overlap = allocate(initialBufferSize);
+                }
+
+                // writing the response may take longer than any read timeout, so the wait for the next request is
+                // timed by scheduleReadTimeout() once the response has been written. Until then, the write's own
+                // timeout closes a connection whose client has stopped reading.
+                readPending = true;
+                channel.read(overlap, 0, this, readHandler);
+                return;
+            }
+
+            if (!buffer.hasRemaining() && (pauseIfExhausted() || !grow(buffer.capacity() + 1))) {
+                return;
+            }
+
+            long timeout = readTimeout();
+            if (timeout < 0) {
+                return;
+            }
+
+            readPending = true;
+            channel.read(buffer, timeout, this, readHandler);
+        }
+
+        /**
+         * Returns how long to wait for the next read, based on how much of the next request has been read. Closes the
+         * connection if its headers are overdue. Reads of the body are not timed, as the body's transfer rate is checked
+         * by {@link #checkBodyRate(int)} instead.
+         *
+         * @return The timeout in milliseconds, zero to wait indefinitely, or -1 if the connection was closed
+         */
+        private long readTimeout() {
+            if (buffer.position() == 0) {
+                // waiting for the first byte of the next request
+                return config.keepAliveTimeout;
+            } else if (!headersComplete) {
+                long timeout = TimeUnit.NANOSECONDS.toMillis(headerDeadline - System.nanoTime());
+                if (timeout <= 0) {
+                    logger.atFine().log("Closing connection that did not send headers within %d ms", config.headerTimeout);
+                    close();
+                    return -1;
+                }
+                return timeout;
+            } else {
+                return 0;
+            }
+        }
+
+        /**
+         * Starts timing the read that was issued while the last response was being written, closing the connection if
+         * it has not completed once the timeout expires.
+         */
+        private void scheduleReadTimeout() {
+            long timeout = readTimeout();
+            if (timeout <= 0) {
+                return;
+            }
+
+            long read = readsCompleted;
+            timer.schedule(() -> {
+                synchronized (this) {
+                    if (readPending && readsCompleted == read) {
+                        logger.atFine().log("Closing connection after read timeout");
+                        close();
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Checks the body transfer rate of the request being read once every interval, closing the connection if fewer
+         * bytes than the configured minimum rate allows were read.
+         */
+        private void scheduleBodyRateCheck() {
+            bodyBytesRead = 0;
+            int request = requests;
+            bodyRateCheck = timer.schedule(() -> checkBodyRate(request), config.bodyRateInterval, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @param request The number of requests completed when the check was scheduled, which identifies the request
+         *                whose body it checks
+         */
+        private synchronized void checkBodyRate(int request) {
+            if (closed || requests != request || !headersComplete) {
+                return;
+            }
+
+            long minimum = config.minBodyRate * config.bodyRateInterval / 1000;
+            if (bodyBytesRead < minimum) {
+                logger.atFine().log("Closing connection with body transfer rate below %d bytes/s", config.minBodyRate);
+                close();
+                return;
+            }
+            scheduleBodyRateCheck();
+        }
+
+        private void cancelBodyRateCheck() {
+            if (bodyRateCheck != null) {
+                bodyRateCheck.cancel(false);
+                bodyRateCheck = null;
+            }
+        }
+
+        /**
+         * Defers reading while the memory account is exhausted, since the next read needs a new buffer.
+         *
+         * @return Whether reading was deferred until usage drops
+         */
+        private boolean pauseIfExhausted() {
+            if (!memory.isExhausted()) {
+                return false;
+            }
+
+            memory.onAvailable(() -> {
+                synchronized (this) {
+                    read();
+                }
+            });
+            return true;
+        }
+
+        private ByteBuffer allocate(int capacity) {
+            memory.charge(capacity);
+            return ByteBuffer.allocate(capacity);
+        }
+
+        /**
+         * Called once a read has completed. Moves data read while a response was being written into the request
+         * buffer.
+         *
+         * @param read The number of bytes read
+         * @return Whether the connection is still open
+         */
+        boolean readCompleted(int read) {
+            readPending = false;
+            readsCompleted++;
+            if (headersComplete) {
+                bodyBytesRead += read;
+            }
+
+            if (overlap != null && overlap.position() > 0) {
+                overlap.flip();
+                if (buffer.remaining() < overlap.remaining() && !grow(buffer.position() + overlap.remaining())) {
+                    return false;
+                }
+                buffer.put(overlap);
+                overlap.clear();
+            }
+
+            return !closed;
+        }
+
+        /**
+         * Replaces the request buffer with a larger one holding the same data. Requests that are being processed keep
+         * referring to the old buffer.
+         *
+         * @return Whether the buffer could be grown; if not, the request is rejected or the connection is closed
+         */
+        private boolean grow(int minimumCapacity) {
+            if (minimumCapacity > maxRequestSize) {
+                if (processing) {
+                    // a response is already being written, so there is no way to reject the next request
+                    close();
+                } else {
+                    reject(HttpConnectionHandler.payloadTooLarge.duplicate());
+                }
+                return false;
+            }
+
+            int capacity = buffer.capacity();
+            while (capacity < minimumCapacity) {
+                capacity *= 2;
+            }
+
+            ByteBuffer larger = allocate(Math.min(capacity, maxRequestSize));
+            buffer.flip();
+            larger.put(buffer);
+            memory.release(buffer.capacity());
+            buffer = larger;
+            return true;
+        }
+
+        /**
+         * Parses and dispatches the next request if the buffer holds a complete one.
+         */
+        void processNext() {
+            if (buffer.position() == 0) {
+                return;
+            }
+
+            if (headerDeadline == 0) {
+                // the header deadline is measured from the first byte and is not extended by further reads
+                headerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.headerTimeout);
+            }
+
+            int end = buffer.position();
+            buffer.limit(end);
+
+            HttpRequest request;
+            try {
+                request = parser.parse(buffer, parseState);
+            } catch (RuntimeException e) {
+                logger.atWarning().withCause(e).log("Exception occurred while parsing a request");
+                close();
+                return;
+            }
+
+            ByteBuffer error = HttpConnectionHandler.checkRequestSize(end, parseState, config);
+            if (error != null) {
+                buffer.limit(buffer.capacity());
+                reject(error);
+                return;
+            }
+
+            if (request == null) {
+                if (!headersComplete && parseState.isHeaderComplete()) {
+                    headersComplete = true;
+                    scheduleBodyRateCheck();
+                }
+                buffer.position(end);
+                buffer.limit(buffer.capacity());
+                return;
+            }
+
+            requestEnd = buffer.position();
+            buffer.position(end);
+            buffer.limit(buffer.capacity());
+
+            processing = true;
+            headerDeadline = 0;
+            headersComplete = false;
+            cancelBodyRateCheck();
+
+            requests++;
+            closeAfterWrite = requests >= config.maxRequests
+                    || "close".equalsIgnoreCase(request.getHeader(HttpHeader.CONNECTION));
+
+            BodyData bodyData = new BodyData(Collections.emptyMap());
+            if (request.getRawBody() != null) {
+                ByteBuffer raw = request.getRawBody();
+                for (BodyParser parser : bodyParsers) {
+                    if (parser.matches(request, raw)) {
+                        bodyData = parser.parse(request, raw);
+                        break;
+                    }
+                }
+            }
+
+            PageRequestEvent event = new PageRequestEvent(request, bodyData);
+            event.setResponseGenerator(defaultResponseGenerator);
+            event.setConnectionHandler(AsyncHttpConnectionHandler.this.getClass());
+
+            eventManager.fireEvent(event, this::respond);
+        }
+
+        /**
+         * Called on an event thread once all listeners have handled the request.
+         */
+        private void respond(PageRequestEvent event) {
+            if (event.getConnectionHandler() != AsyncHttpConnectionHandler.this.getClass()) {
+                logger.atWarning().log("Connection transfers to %s are not supported", event.getConnectionHandler());
+                refuseUpgrade(event);
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                if (closeAfterWrite) {
+                    event.getResponse().setHeader("Connection", "close");
+                }
+
+                ResponseGenerator generator = event.getResponseGenerator();
+                ByteBuffer response = generator.generateResponse(event);
+
+                FileRegion file = event.getResponse().getFileBody();
+                BodySource source = event.getResponse().getBodySource();
+                boolean copyBody = response != null && generator.shouldCopyBody(event);
+
+                if (source != null && !copyBody) {
+                    HttpConnectionHandler.closeSource(source);
+                }
+                if (file != null && (!copyBody || source != null)) {
+                    HttpConnectionHandler.closeFile(file);
+                }
+
+                if (response == null) {
+                    responseWritten();
+                    return;
+                }
+
+                responseGenerator = generator;
+                responseHead = response;
+
+                if (copyBody && source != null) {
+                    output = new ByteBuffer[]{response};
+                    this.body = new ChunkedBody(source);
+                } else if (copyBody && file != null) {
+                    output = new ByteBuffer[]{response};
+                    this.file = file;
+                } else if (copyBody && event.getResponse().getBody() != null) {
+                    output = new ByteBuffer[]{response, event.getResponse().getBody()};
+                } else {
+                    output = new ByteBuffer[]{response};
+                }
+
+                for (ByteBuffer buffer : output) {
+                    outputBytes += buffer.remaining();
+                }
+                memory.charge(outputBytes);
+
+                writing = true;
+                write();
+
+                // start reading the next request while the response is written
+                if (!closeAfterWrite) {
+                    read();
+                }
+            }
+        }
+
+        /**
+         * Replaces the response prepared for a protocol upgrade, which this handler can not switch to, with an error.
+         */
+        private void refuseUpgrade(PageRequestEvent event) {
+            HttpResponse response = event.getResponse();
+            HttpConnectionHandler.closeSource(response.getBodySource());
+            HttpConnectionHandler.closeFile(response.getFileBody());
+
+            response.getHeaders().clear();
+            response.setBodySource(null);
+            response.setFileBody(null);
+            response.setStatusCode(501);
+            response.setContentType("text/plain");
+            response.setBody("Protocol upgrades are not supported");
+            event.setResponseGenerator(defaultResponseGenerator);
+            event.setConnectionHandler(AsyncHttpConnectionHandler.this.getClass());
+        }
+
+        /**
+         * Responds to a request that exceeds a size limit with the given error, and closes the connection once it has
+         * been written.
+         */
+        void reject(ByteBuffer response) {
+            logger.atFine().log("Rejecting request that exceeds a size limit");
+
+            processing = true;
+            writing = true;
+            closeAfterWrite = true;
+            output = new ByteBuffer[]{response};
+            write();
+        }
+
+        /**
+         * Reads the next chunk of the response file into the output.
+         *
+         * @return Whether there is more of the file to write; if not, the file is closed
+         */
+        boolean nextFileChunk() throws IOException {
+            if (file == null) {
+                return false;
+            }
+
+            if (fileBuffer == null) {
+                fileBuffer = allocate(fileChunkSize);
+            }
+
+            fileBuffer.clear();
+            if (file.read(fileBuffer) == -1) {
+                closeFile();
+                return false;
+            }
+
+            fileBuffer.flip();
+            output = new ByteBuffer[]{fileBuffer};
+            return true;
+        }
+
+        private void closeFile() {
+            HttpConnectionHandler.closeFile(file);
+            file = null;
+
+            if (fileBuffer != null) {
+                memory.release(fileBuffer.capacity());
+                fileBuffer = null;
+            }
+        }
+
+        /**
+         * Pulls the next chunk of the streamed response body into the output.
+         *
+         * @return Whether there is more of the body to write; if not, its source is closed
+         */
+        boolean nextBodyChunk() throws IOException {
+            if (body == null) {
+                return false;
+            }
+
+            if (chunkBuffer == null) {
+                chunkBuffer = allocate(ChunkedBody.bufferSize);
+            }
+
+            ByteBuffer chunk = body.next(chunkBuffer);
+            if (chunk == null) {
+                closeBody();
+                return false;
+            }
+
+            output = new ByteBuffer[]{chunk};
+            return true;
+        }
+
+        private void closeBody() {
+            HttpConnectionHandler.closeSource(body);
+            body = null;
+
+            if (chunkBuffer != null) {
+                memory.release(chunkBuffer.capacity());
+                chunkBuffer = null;
+            }
+        }
+
+        void write() {
+            // bounds the time the client may go without accepting any of the response
+            channel.write(output, config.keepAliveTimeout, this, writeHandler);
+        }
+
+        /**
+         * Finishes the current request, and moves on to any request that has already been read.
+         */
+        void responseWritten() {
+            writing = false;
+            processing = false;
+            output = null;
+            memory.release(outputBytes);
+            outputBytes = 0;
+            releaseResponseHead();
+
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+
+            // discard the finished request, keeping any data read after it
+            buffer.limit(buffer.position());
+            buffer.position(requestEnd);
+            buffer.compact();
+            requestEnd = 0;
+
+            processNext();
+
+            if (processing) {
+                return;
+            }
+
+            if (readPending) {
+                scheduleReadTimeout();
+            } else {
+                read();
+            }
+        }
+
+        private void releaseResponseHead() {
+            if (responseHead != null) {
+                responseGenerator.release(responseHead);
+                responseHead = null;
+                responseGenerator = null;
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            cancelBodyRateCheck();
+            closeFile();
+            closeBody();
+            if (!writing) {
+                // otherwise a pending write may still be reading from the head, which is left to be collected
+                releaseResponseHead();
+            }
+            memory.close();
+            server.releaseConnection(address);
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * The reads and writes a connection issues on its channel, completed through a {@link CompletionHandler}.
+     */
+    private interface Transport {
+        /**
+         * @param timeout The time to wait for data in milliseconds, or zero to wait indefinitely
+         */
+        <A> void read(ByteBuffer buffer, long timeout, A attachment, CompletionHandler<Integer, ? super A> handler);
+
+        /**
+         * Writes all of the buffers, or as much of them as the channel accepts in one write.
+         *
+         * @param timeout The time to wait for the client to accept any data in milliseconds
+         */
+        <A> void write(ByteBuffer[] buffers, long timeout, A attachment, CompletionHandler<Long, ? super A> handler);
+
+        void close() throws IOException;
+    }
+
+    /**
+     * A connection accepted by this handler, whose operations are asynchronous.
+     */
+    private static class AsyncTransport implements Transport {
+        private final AsynchronousSocketChannel channel;
+
+        AsyncTransport(AsynchronousSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public <A> void read(ByteBuffer buffer, long timeout, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            if (timeout == 0) {
+                channel.read(buffer, attachment, handler);
+            } else {
+                channel.read(buffer, timeout, TimeUnit.MILLISECONDS, attachment, handler);
+            }
+        }
+
+        @Override
+        public <A> void write(ByteBuffer[] buffers, long timeout, A attachment, CompletionHandler<Long, ? super A> handler) {
+            channel.write(buffers, 0, buffers.length, timeout, TimeUnit.MILLISECONDS, attachment, handler);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A connection transferred from another handler, whose blocking channel is read and written on the given
+     * executor's threads. A read and a write may be pending at the same time, as with an asynchronous channel.
+     * Connections only read into heap buffers, so reads go through the socket's stream, which honours its timeout.
+     * Blocking writes have no timeout of their own, so each writes at most {@link #writeLimit} bytes and the channel
+     * is closed by the timer if that does not complete in time.
+     */
+    private static class BlockingTransport implements Transport {
+        private static final int writeLimit = 64 * 1024;
+
+        private final SocketChannel channel;
+        private final Executor executor;
+        private final ScheduledExecutorService timer;
+
+        BlockingTransport(SocketChannel channel, Executor executor, ScheduledExecutorService timer) {
+            this.channel = channel;
+            this.executor = executor;
+            this.timer = timer;
+        }
+
+        @Override
+        public <A> void read(ByteBuffer buffer, long timeout, A attachment, CompletionHandler<Integer, ? super A> handler) {
+            executor.execute(() -> {
+                int read;
+                try {
+                    Socket socket = channel.socket();
+                    socket.setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+                    read = socket.getInputStream().read(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                            buffer.remaining());
+                    if (read > 0) {
+                        buffer.position(buffer.position() + read);
+                    }
+                } catch (SocketTimeoutException e) {
+                    handler.failed(new InterruptedByTimeoutException(), attachment);
+                    return;
+                } catch (IOException e) {
+                    handler.failed(e, attachment);
+                    return;
+                }
+                handler.completed(read, attachment);
+            });
+        }
+
+        @Override
+        public <A> void write(ByteBuffer[] buffers, long timeout, A attachment, CompletionHandler<Long, ? super A> handler) {
+            executor.execute(() -> {
+                ByteBuffer[] limited = limit(buffers);
+                ScheduledFuture<?> expiry = timer.schedule(() -> {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+
+                long written;
+                try {
+                    written = channel.write(limited);
+                } catch (IOException e) {
+                    expiry.cancel(false);
+                    handler.failed(expiry.isDone() && !expiry.isCancelled() ? new InterruptedByTimeoutException() : e,
+                            attachment);
+                    return;
+                }
+                expiry.cancel(false);
+
+                // advance the caller's buffers past what was written from the limited views of them
+                long remaining = written;
+                for (ByteBuffer buffer : buffers) {
+                    int advance = (int) Math.min(remaining, buffer.remaining());
+                    buffer.position(buffer.position() + advance);
+                    remaining -= advance;
+                }
+                handler.completed(written, attachment);
+            });
+        }
+
+        /**
+         * @return Views of the buffers' remaining data, up to {@link #writeLimit} bytes in total
+         */
+        private static ByteBuffer[] limit(ByteBuffer[] buffers) {
+            ByteBuffer[] limited = new ByteBuffer[buffers.length];
+            int available = writeLimit;
+            for (int i = 0; i < buffers.length; i++) {
+                limited[i] = buffers[i].duplicate();
+                int length = Math.min(available, limited[i].remaining());
+                limited[i].limit(limited[i].position() + length);
+                available -= length;
+            }
+            return limited;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
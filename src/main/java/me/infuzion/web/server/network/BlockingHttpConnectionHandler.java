@@ -0,0 +1,445 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.event.Event;
+import me.infuzion.web.server.event.EventExecutors;
+import me.infuzion.web.server.event.EventManager;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.BodySource;
+import me.infuzion.web.server.http.FileRegion;
+import me.infuzion.web.server.http.HttpHeader;
+import me.infuzion.web.server.http.parser.*;
+import me.infuzion.web.server.response.DefaultResponseGenerator;
+import me.infuzion.web.server.response.ResponseGenerator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves HTTP clients with blocking I/O, using one thread per connection. Requests are read with plain blocking reads,
+ * and event listeners run inline on the connection's thread, so there is no selector, wakeup or callback hand-off.
+ * <p>
+ * Connections run on virtual threads when the runtime supports them (Java 21 and newer), which makes a thread per
+ * connection affordable even with many idle keep-alive clients. On older runtimes platform threads are used, so this
+ * handler is then best suited to a small number of connections.
+ * <p>
+ * To use this handler instead of {@link HttpConnectionHandler}, register it and make it the default:
+ * <pre>{@code
+ * server.registerConnectionHandler(new BlockingHttpConnectionHandler());
+ * server.setDefaultConnectionHandler(BlockingHttpConnectionHandler.class);
+ * }</pre>
+ * The same {@link HttpConnectionHandler.Config} limits are enforced. Connections upgraded to another protocol are
+ * switched back to non-blocking mode and transferred to the matching connection handler.
+ */
+public class BlockingHttpConnectionHandler implements ConnectionHandler {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    private ResponseGenerator defaultResponseGenerator;
+    private final HttpParser parser = new HttpParser();
+    private final List<BodyParser> bodyParsers = new ArrayList<>();
+
+    @NotNull
+    private final HttpConnectionHandler.Config config;
+
+    private Server server;
+    private EventManager eventManager;
+    private ExecutorService executor;
+
+    /**
+     * The largest request that can be read, which is also bounded by the memory budget's per-connection limit
+     */
+    private int maxRequestSize;
+
+    public BlockingHttpConnectionHandler() {
+        this(new HttpConnectionHandler.Config());
+    }
+
+    /**
+     * @param config The connection limits to enforce
+     */
+    public BlockingHttpConnectionHandler(@NotNull HttpConnectionHandler.Config config) {
+        this.config = config;
+        bodyParsers.add(new MultipartBodyParser());
+        bodyParsers.add(new UrlEncodedBodyParser());
+        bodyParsers.add(new JsonBodyParser());
+    }
+
+    @Override
+    public void init(Server server, EventManager eventManager) {
+        this.server = server;
+        this.eventManager = eventManager;
+        this.executor = EventExecutors.newExecutor(true);
+        this.defaultResponseGenerator = new DefaultResponseGenerator(
+                TimeUnit.MILLISECONDS.toSeconds(config.keepAliveTimeout), config.maxRequests,
+                server.getOptions().getBufferPool());
+        this.maxRequestSize = (int) Math.min(config.maxRequestSize, server.getOptions().getMemoryBudget().getConnectionLimit());
+    }
+
+    @Override
+    public void register(SocketChannel channel, long clientId, @Nullable Event event) throws IOException {
+        SocketOptions socketOptions = server.getOptions().getSocketOptions(getClass());
+        if (socketOptions != null) {
+            socketOptions.apply(channel);
+        }
+
+        channel.configureBlocking(true);
+        executor.execute(() -> serve(channel, clientId));
+    }
+
+    /**
+     * Each connection is serviced by its own thread, started by {@link #register(SocketChannel, long, Event)}, so there
+     * is nothing to do here.
+     */
+    @Override
+    public void handleConnections() {
+    }
+
+    private void serve(SocketChannel channel, long clientId) {
+        boolean transferred = false;
+        Client client = new Client(server.getOptions().getMemoryBudget().newAccount());
+
+        try {
+            transferred = handleRequests(channel, clientId, client);
+        } catch (SocketTimeoutException e) {
+            logger.atFine().log("Closing connection after timeout: %s", e.getMessage());
+        } catch (Exception e) {
+            logger.atWarning().withCause(e).log("Exception occurred");
+        } finally {
+            client.memory.close();
+
+            if (!transferred) {
+                server.releaseConnection(channel);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves requests until the connection is closed or transferred.
+     *
+     * @return Whether the connection was transferred to another connection handler
+     */
+    private boolean handleRequests(SocketChannel channel, long clientId, Client client) throws Exception {
+        InputStream in = channel.socket().getInputStream();
+
+        while (true) {
+            HttpRequest request = readRequest(channel, in, client);
+
+            if (request == null) {
+                return false;
+            }
+
+            client.requests++;
+            client.bufferSizer.record(client.buffer.position());
+            boolean closeAfterWrite = client.requests >= config.maxRequests
+                    || "close".equalsIgnoreCase(request.getHeader(HttpHeader.CONNECTION));
+
+            BodyData bodyData = new BodyData(Collections.emptyMap());
+            if (request.getRawBody() != null) {
+                ByteBuffer raw = request.getRawBody();
+                for (BodyParser parser : bodyParsers) {
+                    if (parser.matches(request, raw)) {
+                        bodyData = parser.parse(request, raw);
+                        break;
+                    }
+                }
+            }
+
+            PageRequestEvent event = new PageRequestEvent(request, bodyData);
+            event.setResponseGenerator(defaultResponseGenerator);
+            event.setConnectionHandler(this.getClass());
+
+            eventManager.fireEventSync(event);
+
+            Class<? extends ConnectionHandler> toTransfer =
+                    event.getConnectionHandler() == this.getClass() ? null : event.getConnectionHandler();
+
+            if (closeAfterWrite && toTransfer == null) {
+                event.getResponse().setHeader("Connection", "close");
+            }
+
+            ResponseGenerator generator = event.getResponseGenerator();
+            ByteBuffer response = generator.generateResponse(event);
+
+            ByteBuffer body = event.getResponse().getBody();
+            FileRegion file = event.getResponse().getFileBody();
+            BodySource source = event.getResponse().getBodySource();
+            boolean copyBody = response != null && generator.shouldCopyBody(event);
+
+            try {
+                if (copyBody && source != null) {
+                    writeFully(channel, response);
+                    // the channel is blocking, so each chunk is written completely before the next is pulled
+                    new ChunkedBody(source).writeTo(channel, client.chunkBuffer());
+                } else if (copyBody && file != null) {
+                    writeFully(channel, response);
+                    // the channel is blocking, so the whole file is transferred unless the transfer fails
+                    if (!file.transferTo(channel)) {
+                        throw new IOException("File transfer stopped before the whole file was sent");
+                    }
+                } else if (copyBody && body != null) {
+                    writeFully(channel, response, body);
+                } else if (response != null) {
+                    writeFully(channel, response);
+                }
+            } finally {
+                HttpConnectionHandler.closeFile(file);
+                HttpConnectionHandler.closeSource(source);
+                if (response != null) {
+                    generator.release(response);
+                }
+            }
+
+            if (toTransfer != null) {
+                ConnectionHandler handler = server.getConnectionHandler(toTransfer);
+
+                if (handler == null) {
+                    logger.atSevere().log("No connection handler found for %s", toTransfer);
+                    throw new RuntimeException("Connection Handler does not exist");
+                }
+
+                logger.atInfo().log("Transferring connection to %s", toTransfer);
+
+                channel.configureBlocking(false);
+                handler.register(channel, clientId, event);
+                return true;
+            }
+
+            if (closeAfterWrite) {
+                return false;
+            }
+
+            // keep any pipelined data that follows the request, and parse it before reading again
+            client.buffer.compact();
+
+            int nextSize = client.bufferSizer.nextSize();
+            if (client.buffer.capacity() > nextSize && client.buffer.position() <= nextSize) {
+                // release a buffer that grew for a large request once requests are small again
+                client.replaceBuffer(nextSize);
+            }
+        }
+    }
+
+    /**
+     * Reads from the client until its buffer holds a complete request, growing the buffer as needed. The buffer's
+     * position is the end of the data read so far.
+     *
+     * @return The parsed request, or null if the connection should be closed because the client closed it before
+     * sending another request, or the request was rejected
+     */
+    private @Nullable HttpRequest readRequest(SocketChannel channel, InputStream in, Client client) throws IOException {
+        ByteBuffer buffer = client.buffer;
+        long headerDeadline = 0;
+        boolean headersComplete = false;
+        long rateWindowStart = 0;
+        long rateWindowBytes = 0;
+
+        while (true) {
+            long now = System.nanoTime();
+
+            if (buffer.position() > 0) {
+                if (headerDeadline == 0) {
+                    // the header deadline is measured from the first byte and is not extended by further reads
+                    headerDeadline = now + TimeUnit.MILLISECONDS.toNanos(config.headerTimeout);
+                }
+
+                int received = buffer.position();
+                HttpRequest request = tryParse(buffer, client.parseState);
+
+                ByteBuffer error = HttpConnectionHandler.checkRequestSize(received, client.parseState, config);
+                if (error != null) {
+                    reject(channel, error);
+                    return null;
+                }
+
+                if (request != null) {
+                    return request;
+                }
+
+                if (!headersComplete && client.parseState.isHeaderComplete()) {
+                    // the headers are complete, so the rest of the request is held to a minimum transfer rate instead
+                    headersComplete = true;
+                    rateWindowStart = now;
+                    rateWindowBytes = 0;
+                }
+            }
+
+            int timeout;
+            if (buffer.position() == 0) {
+                timeout = (int) config.keepAliveTimeout;
+            } else if (!headersComplete) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(headerDeadline - now);
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Headers were not received within " + config.headerTimeout + " ms");
+                }
+                timeout = (int) remaining;
+            } else {
+                if (now - rateWindowStart >= TimeUnit.MILLISECONDS.toNanos(config.bodyRateInterval)) {
+                    if (rateWindowBytes < config.minBodyRate * config.bodyRateInterval / 1000) {
+                        throw new SocketTimeoutException("Body transfer rate was below " + config.minBodyRate + " bytes/s");
+                    }
+                    rateWindowStart = now;
+                    rateWindowBytes = 0;
+                }
+                timeout = (int) config.bodyRateInterval;
+            }
+
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= maxRequestSize) {
+                    reject(channel, HttpConnectionHandler.payloadTooLarge.duplicate());
+                    return null;
+                }
+
+                // growing needs more memory, so wait while the budget is exhausted
+                awaitMemory(client, timeout);
+                buffer = client.replaceBuffer(Math.min(buffer.capacity() * 2, maxRequestSize));
+            }
+
+            channel.socket().setSoTimeout(Math.max(1, timeout));
+
+            int read;
+            try {
+                read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } catch (SocketTimeoutException e) {
+                if (buffer.position() == 0) {
+                    logger.atFine().log("Closing idle keep-alive connection");
+                    return null;
+                }
+                throw e;
+            }
+
+            if (read == -1) {
+                return null;
+            }
+
+            buffer.position(buffer.position() + read);
+            rateWindowBytes += read;
+        }
+    }
+
+    /**
+     * Blocks until the client's memory account is no longer exhausted.
+     *
+     * @throws SocketTimeoutException If the account is still exhausted after the given number of milliseconds
+     */
+    private void awaitMemory(Client client, int timeout) throws IOException {
+        if (!client.memory.isExhausted()) {
+            return;
+        }
+
+        CountDownLatch available = new CountDownLatch(1);
+        client.memory.onAvailable(available::countDown);
+
+        try {
+            if (!available.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Memory budget was exhausted for " + timeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Responds to a request that exceeds a size limit with the given error. The connection is closed by the caller.
+     */
+    private void reject(SocketChannel channel, ByteBuffer response) throws IOException {
+        logger.atFine().log("Rejecting request that exceeds a size limit");
+        writeFully(channel, response);
+    }
+
+    private @Nullable HttpRequest tryParse(ByteBuffer buffer, HttpParser.State state) {
+        buffer.limit(buffer.position());
+
+        HttpRequest request = parser.parse(buffer, state);
+
+        if (request == null) {
+            // continue reading after the last byte received
+            buffer.position(buffer.limit());
+            buffer.limit(buffer.capacity());
+        }
+
+        return request;
+    }
+
+    /**
+     * Writes the given buffers with gathering writes, so that a response's headers and body are sent together.
+     */
+    private static void writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+        // the channel is blocking, so every write makes progress
+        HttpConnectionHandler.writeAvailable(channel, buffers);
+    }
+
+    private static class Client {
+        final ReadBufferSizer bufferSizer = new ReadBufferSizer();
+        final HttpParser.State parseState = new HttpParser.State();
+        final MemoryBudget.Account memory;
+        ByteBuffer buffer;
+        /**
+         * The buffer the chunks of streamed response bodies are encoded into, allocated by the first one
+         */
+        private ByteBuffer chunkBuffer;
+        int requests = 0;
+
+        Client(MemoryBudget.Account memory) {
+            this.memory = memory;
+            this.buffer = ByteBuffer.allocate(bufferSizer.nextSize());
+            memory.charge(buffer.capacity());
+        }
+
+        ByteBuffer chunkBuffer() {
+            if (chunkBuffer == null) {
+                chunkBuffer = ByteBuffer.allocate(ChunkedBody.bufferSize);
+                memory.charge(chunkBuffer.capacity());
+            }
+            return chunkBuffer;
+        }
+
+        /**
+         * Moves the data read so far into a new buffer of the given capacity.
+         *
+         * @return The new buffer
+         */
+        ByteBuffer replaceBuffer(int capacity) {
+            ByteBuffer replacement = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            replacement.put(buffer);
+
+            memory.charge(capacity);
+            memory.release(buffer.capacity());
+            return buffer = replacement;
+        }
+    }
+}
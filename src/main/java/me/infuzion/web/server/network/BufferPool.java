@@ -0,0 +1,265 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import com.google.common.flogger.FluentLogger;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of reusable byte buffers for socket reads and writes. Buffers are grouped into power of two size classes from
+ * {@value #minPooledSize} bytes to {@value #maxPooledSize} bytes; larger requests are allocated directly and are not
+ * pooled.
+ * <p>
+ * Each thread keeps a small cache of released buffers per size class, so a selector loop that acquires and releases
+ * buffers on its own thread does not contend with other threads. Buffers that do not fit in the releasing thread's
+ * cache are shared with other threads through a bounded queue per size class. The queues are backed by arrays, so
+ * releasing a buffer to another thread does not allocate.
+ * <p>
+ * With leak detection enabled, the pool records where each outstanding buffer was acquired.
+ * {@link #reportLeaks()} logs every buffer that has not been released, and releasing a buffer twice is reported
+ * instead of corrupting the pool. Leak detection adds a synchronized map operation to every acquire and release, so it
+ * is meant for debugging.
+ */
+public class BufferPool {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+    static final int minPooledSize = 256;
+    static final int maxPooledSize = 4 * 1024 * 1024;
+
+    private static final int minShift = Integer.numberOfTrailingZeros(minPooledSize);
+    private static final int sizeClasses = Integer.numberOfTrailingZeros(maxPooledSize) - minShift + 1;
+
+    /**
+     * Bytes of each size class that may be cached by a single thread, and shared between threads
+     */
+    private static final int threadCacheBytes = 512 * 1024;
+    private static final int sharedBytes = 8 * 1024 * 1024;
+    private static final int maxThreadCacheEntries = 64;
+
+    private final boolean direct;
+    private final ThreadLocal<ThreadCache> threadCache = ThreadLocal.withInitial(ThreadCache::new);
+    private final Queue<ByteBuffer>[] shared;
+    private final LongAdder allocations = new LongAdder();
+
+    /**
+     * Stack traces of where each outstanding buffer was acquired, or null if leak detection is disabled
+     */
+    private final Map<ByteBuffer, Throwable> outstanding;
+
+    /**
+     * Creates a pool of heap buffers without leak detection.
+     */
+    public BufferPool() {
+        this(false, false);
+    }
+
+    /**
+     * @param direct        Whether to pool direct (off-heap) buffers instead of heap buffers. Direct buffers avoid a copy
+     *                      on each socket read and write, but have no backing array.
+     * @param leakDetection Whether to track outstanding buffers so that leaks can be reported
+     */
+    public BufferPool(boolean direct, boolean leakDetection) {
+        this.direct = direct;
+        this.outstanding = leakDetection ? Collections.synchronizedMap(new IdentityHashMap<>()) : null;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Queue<ByteBuffer>[] shared = new Queue[sizeClasses];
+        this.shared = shared;
+        for (int i = 0; i < sizeClasses; i++) {
+            shared[i] = new ArrayBlockingQueue<>(capacityOf(sharedBytes, i));
+        }
+    }
+
+    /**
+     * @return Whether this pool hands out direct buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Acquires a buffer able to hold at least {@code size} bytes. The buffer's position is zero and its limit is
+     * {@code size}; its capacity may be larger. The buffer should be passed to {@link #release(ByteBuffer)} once it is no
+     * longer used, including by any slices or views of it.
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+
+        ByteBuffer buffer = null;
+        int sizeClass = sizeClass(size);
+
+        if (sizeClass >= 0) {
+            buffer = threadCache.get().poll(sizeClass);
+
+            if (buffer == null) {
+                buffer = shared[sizeClass].poll();
+            }
+        }
+
+        if (buffer == null) {
+            allocations.increment();
+            int capacity = sizeClass >= 0 ? 1 << (sizeClass + minShift) : size;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        buffer.clear().limit(size);
+
+        if (outstanding != null) {
+            outstanding.put(buffer, new Throwable("Buffer of " + size + " bytes acquired here"));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer acquired from this pool so that it can be reused. The buffer, and any slices of it, must not be
+     * used after it has been released.
+     */
+    public void release(ByteBuffer buffer) {
+        release(buffer, true);
+    }
+
+    /**
+     * Returns a buffer acquired from this pool without caching it on the releasing thread. Buffers that are acquired on
+     * one thread and released on another, such as response heads generated by a listener thread and written by a
+     * selector loop, should be released this way so that the acquiring threads can reuse them.
+     */
+    public void releaseShared(ByteBuffer buffer) {
+        release(buffer, false);
+    }
+
+    private void release(ByteBuffer buffer, boolean cacheOnThread) {
+        if (outstanding != null && outstanding.remove(buffer) == null) {
+            logger.atWarning().withCause(new Throwable("Buffer released here"))
+                    .log("Released a buffer that was not acquired from this pool, or was already released");
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            return;
+        }
+
+        if (cacheOnThread && threadCache.get().offer(sizeClass, buffer)) {
+            return;
+        }
+
+        // dropped once the shared queue is full
+        shared[sizeClass].offer(buffer);
+    }
+
+    /**
+     * @return The number of buffers allocated by this pool because no released buffer was available
+     */
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    /**
+     * @return The number of buffers that have been acquired but not released, or -1 if leak detection is disabled
+     */
+    public int getOutstandingBuffers() {
+        return outstanding == null ? -1 : outstanding.size();
+    }
+
+    /**
+     * Logs every buffer that has been acquired but not released, along with where it was acquired. Does nothing if
+     * leak detection is disabled.
+     *
+     * @return The number of buffers reported
+     */
+    public int reportLeaks() {
+        if (outstanding == null) {
+            return 0;
+        }
+
+        Throwable[] sites;
+        synchronized (outstanding) {
+            sites = outstanding.values().toArray(new Throwable[0]);
+        }
+
+        for (Throwable site : sites) {
+            logger.atWarning().withCause(site).log("Buffer was never released");
+        }
+
+        return sites.length;
+    }
+
+    /**
+     * @return The index of the smallest size class that holds {@code size} bytes, or -1 if it is too large to pool
+     */
+    static int sizeClass(int size) {
+        if (size > maxPooledSize) {
+            return -1;
+        }
+        if (size <= minPooledSize) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+    }
+
+    private static int capacityOf(int bytes, int sizeClass) {
+        return Math.max(1, bytes >> (sizeClass + minShift));
+    }
+
+    /**
+     * Released buffers cached by a single thread. Only accessed by its owning thread.
+     */
+    private static class ThreadCache {
+        private final ByteBuffer[][] buffers = new ByteBuffer[sizeClasses][];
+        private final int[] counts = new int[sizeClasses];
+
+        ByteBuffer poll(int sizeClass) {
+            if (counts[sizeClass] == 0) {
+                return null;
+            }
+
+            ByteBuffer[] stack = buffers[sizeClass];
+            ByteBuffer buffer = stack[--counts[sizeClass]];
+            stack[counts[sizeClass]] = null;
+            return buffer;
+        }
+
+        boolean offer(int sizeClass, ByteBuffer buffer) {
+            ByteBuffer[] stack = buffers[sizeClass];
+            if (stack == null) {
+                stack = buffers[sizeClass] = new ByteBuffer[Math.min(maxThreadCacheEntries, capacityOf(threadCacheBytes, sizeClass))];
+            }
+
+            if (counts[sizeClass] == stack.length) {
+                return false;
+            }
+
+            stack[counts[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+}
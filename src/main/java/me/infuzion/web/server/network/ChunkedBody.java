@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import me.infuzion.web.server.http.BodySource;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the body produced by a {@link BodySource} with chunked transfer encoding. Each chunk is read into the same
+ * buffer, so a streamed body holds a single buffer however long it is, and the next chunk is only pulled once the
+ * previous one has been written.
+ */
+final class ChunkedBody implements Closeable {
+    /**
+     * The capacity of the buffer chunks are encoded into
+     */
+    static final int bufferSize = 16 * 1024;
+    /**
+     * Room left before the data of a chunk for its size line, which is up to 8 hex digits and a CRLF
+     */
+    private static final int sizeLineLength = 10;
+    private static final byte[] hexDigits = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] lastChunk = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final BodySource source;
+    private boolean ended = false;
+    private boolean finished = false;
+    /**
+     * Whether the buffer holds a chunk that has not been completely written
+     */
+    private boolean pending = false;
+
+    ChunkedBody(BodySource source) {
+        this.source = source;
+    }
+
+    /**
+     * Pulls the next part of the body from the source and encodes it as a chunk.
+     *
+     * @param buffer The buffer to encode the chunk into, of at least {@link #bufferSize} bytes
+     * @return The buffer holding the encoded chunk, or null once the last chunk has been returned
+     */
+    @Nullable ByteBuffer next(ByteBuffer buffer) throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        buffer.clear();
+
+        if (!ended) {
+            buffer.position(sizeLineLength).limit(buffer.capacity() - 2);
+
+            int read;
+            do {
+                read = source.read(buffer);
+            } while (read == 0);
+
+            ended = read == -1;
+        }
+
+        int length = buffer.position() - sizeLineLength;
+
+        if (length <= 0) {
+            finished = true;
+            buffer.clear();
+            return buffer.put(lastChunk).flip();
+        }
+
+        // the size line is written right before the data
+        int digits = (35 - Integer.numberOfLeadingZeros(length)) / 4;
+        int start = sizeLineLength - digits - 2;
+        for (int i = 0; i < digits; i++) {
+            buffer.put(start + i, hexDigits[(length >>> (4 * (digits - 1 - i))) & 0xf]);
+        }
+        buffer.put(sizeLineLength - 2, (byte) '\r');
+        buffer.put(sizeLineLength - 1, (byte) '\n');
+
+        buffer.limit(buffer.capacity());
+        buffer.put((byte) '\r').put((byte) '\n');
+        buffer.limit(buffer.position());
+        buffer.position(start);
+        return buffer;
+    }
+
+    /**
+     * Writes chunks to the target until it stops accepting data, pulling each chunk only once the previous one has
+     * been written. A non-blocking target accepts data until its send buffer is full.
+     *
+     * @param buffer The buffer chunks are encoded into, which must be the same on every call
+     * @return Whether the whole body, including the last chunk, has been written
+     */
+    boolean writeTo(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        while (true) {
+            if (!pending) {
+                if (next(buffer) == null) {
+                    return true;
+                }
+                pending = true;
+            }
+
+            while (buffer.hasRemaining()) {
+                if (target.write(buffer) == 0) {
+                    return false;
+                }
+            }
+            pending = false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
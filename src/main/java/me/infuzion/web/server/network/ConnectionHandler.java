@@ -21,26 +21,31 @@ import me.infuzion.web.server.event.Event;
 import me.infuzion.web.server.event.EventManager;
 import org.jetbrains.annotations.Nullable;
 
-import java.nio.channels.Selector;
+import java.io.IOException;
 import java.nio.channels.SocketChannel;
-import java.util.UUID;
 
 /**
  * Implementing classes handle the network communications between this server and the client. All clients are represented
- * by UUIDs. Implementing classes should avoid holding strong references to the UUID object unless needed.
+ * by ids assigned by the server when the connection is accepted. Ids are unique for the lifetime of the server and are
+ * kept when a client is transferred between connection handlers.
  * <p>
- * ConnectionHandlers will run in a new thread, so implementing classes should synchronize on the clientUUID.
+ * ConnectionHandlers will run in a new thread, so implementing classes must guard any state shared with other threads.
+ * Implementations may start additional threads from {@link #handleConnections()} to service clients.
  */
 public interface ConnectionHandler extends Runnable {
-    void init(Server server, EventManager eventManager, Selector clientSelector);
+    /**
+     * Called once when this connection handler is registered with a server, before any clients are registered.
+     */
+    void init(Server server, EventManager eventManager) throws IOException;
 
     /**
-     * Registers a client with this connection handler.
+     * Registers a client with this connection handler. The handler that eventually closes the client's channel must
+     * call {@link Server#releaseConnection(SocketChannel)} for it, unless the client is transferred to another handler.
      *
-     * @param clientUUID The UUID of the client to begin processing
-     * @param event      The event that triggered this transfer, or null if no event triggered this registration.
+     * @param clientId The id of the client to begin processing
+     * @param event    The event that triggered this transfer, or null if no event triggered this registration.
      */
-    void register(SocketChannel channel, UUID clientUUID, @Nullable Event event) throws Exception;
+    void register(SocketChannel channel, long clientId, @Nullable Event event) throws Exception;
 
     /**
      * Begins handling connections. Implementing classes should iterate indefinitely while reading and writing
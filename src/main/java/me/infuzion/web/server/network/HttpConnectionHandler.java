@@ -17,76 +17,352 @@
 package me.infuzion.web.server.network;
 
 import com.google.common.flogger.FluentLogger;
+import me.infuzion.web.server.Server;
 import me.infuzion.web.server.event.Event;
+import me.infuzion.web.server.event.EventManager;
 import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.BodySource;
+import me.infuzion.web.server.http.FileRegion;
+import me.infuzion.web.server.http.HttpHeader;
 import me.infuzion.web.server.http.parser.*;
 import me.infuzion.web.server.response.DefaultResponseGenerator;
 import me.infuzion.web.server.response.ResponseGenerator;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.*;
-
-public class HttpConnectionHandler extends AbstractConnectionHandler {
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class HttpConnectionHandler extends AbstractConnectionHandler<HttpConnectionHandler.Client> {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-    private final ResponseGenerator defaultResponseGenerator = new DefaultResponseGenerator();
+    static final ByteBuffer requestHeaderFieldsTooLarge = errorResponse("431 Request Header Fields Too Large");
+    static final ByteBuffer payloadTooLarge = errorResponse("413 Payload Too Large");
+
+    private ResponseGenerator defaultResponseGenerator;
 
-    private final Map<UUID, Client> clientMap = Collections.synchronizedMap(new WeakHashMap<>());
     private final HttpParser parser = new HttpParser();
     private final List<BodyParser> bodyParsers = new ArrayList<>();
 
+    @NotNull
+    private final Config config;
+
+    private BufferPool bufferPool;
+    private MemoryBudget memoryBudget;
+
+    /**
+     * The largest request that can be read, which is also bounded by the memory budget's per-connection limit
+     */
+    private int maxRequestSize;
+
     public HttpConnectionHandler() {
+        this(1);
+    }
+
+    /**
+     * @param selectorThreads The number of selector loops used to service HTTP clients
+     */
+    public HttpConnectionHandler(int selectorThreads) {
+        this(selectorThreads, new Config());
+    }
+
+    /**
+     * @param selectorThreads The number of selector loops used to service HTTP clients
+     * @param config          The connection limits to enforce
+     */
+    public HttpConnectionHandler(int selectorThreads, @NotNull Config config) {
+        super(selectorThreads);
+        this.config = config;
         bodyParsers.add(new MultipartBodyParser());
         bodyParsers.add(new UrlEncodedBodyParser());
         bodyParsers.add(new JsonBodyParser());
     }
 
+    private static ByteBuffer errorResponse(String status) {
+        String response = "HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        return ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Checks the size of a partially or fully received request against the configured limits.
+     *
+     * @param received The number of bytes of the request received
+     * @param state    The state the request was last parsed with
+     * @return The error response to send if a limit was exceeded, or null if the request is within the limits
+     */
+    static @Nullable ByteBuffer checkRequestSize(int received, HttpParser.State state, Config config) {
+        int headerEnd = state.getHeaderEnd();
+
+        if (headerEnd == -1 ? received > config.maxHeaderSize : headerEnd > config.maxHeaderSize) {
+            return requestHeaderFieldsTooLarge.duplicate();
+        }
+
+        if (headerEnd != -1 && state.getBodyLength() > config.maxBodySize) {
+            return payloadTooLarge.duplicate();
+        }
+
+        return null;
+    }
+
     @Override
-    protected void handleNewClient(SocketChannel client, UUID uuid, @Nullable Event event) {
-        clientMap.put(uuid, new Client());
+    public void init(Server server, EventManager eventManager) throws IOException {
+        super.init(server, eventManager);
+
+        // requests are parsed from the buffer's backing array
+        BufferPool pool = server.getOptions().getBufferPool();
+        bufferPool = pool.isDirect() ? new BufferPool() : pool;
+        defaultResponseGenerator = new DefaultResponseGenerator(
+                TimeUnit.MILLISECONDS.toSeconds(config.keepAliveTimeout), config.maxRequests, pool);
+
+        memoryBudget = server.getOptions().getMemoryBudget();
+        maxRequestSize = (int) Math.min(config.maxRequestSize, memoryBudget.getConnectionLimit());
     }
 
     @Override
-    protected void handleRemoveClient(UUID uuid) {
-        clientMap.remove(uuid);
+    protected Client handleNewClient(SelectionKey key, SocketChannel client, long clientId, @Nullable Event event) {
+        Client state = new Client(getTimingWheel(key), memoryBudget.newAccount());
+        state.timeout = new TimingWheel.Timeout(() -> handleTimeout(key, state));
+        waitForNextRequest(state);
+        return state;
     }
 
     @Override
-    protected void handleRead(SelectionKey key, UUID uuid, SocketChannel clientChannel) throws Exception {
-        Client client = clientMap.get(uuid);
+    protected void handleRemoveClient(Client client) {
+        client.timingWheel.cancel(client.timeout);
+        releaseBuffers(client);
+        client.memory.close();
+    }
+
+    /**
+     * Returns the client's buffers to the pool. The buffer holding the request being handled is kept while listeners
+     * may still be using it; it is released by the selector loop once the callback has run.
+     */
+    private void releaseBuffers(Client client) {
+        if (client.buffer != null) {
+            releaseBuffer(client, client.buffer);
+            client.buffer = null;
+        }
+
+        if (!client.waitingForCallback) {
+            releaseRequestBuffer(client);
+            releaseResponse(client);
+        }
+    }
+
+    private void releaseRequestBuffer(Client client) {
+        if (client.requestBuffer != null) {
+            releaseBuffer(client, client.requestBuffer);
+            client.requestBuffer = null;
+        }
+    }
+
+    /**
+     * Acquires a buffer from the pool, and charges its capacity to the client's memory account.
+     */
+    private ByteBuffer acquireBuffer(Client client, int size) {
+        ByteBuffer buffer = bufferPool.acquire(size);
+        client.memory.charge(buffer.capacity());
+        return buffer;
+    }
+
+    private void releaseBuffer(Client client, ByteBuffer buffer) {
+        client.memory.release(buffer.capacity());
+        bufferPool.release(buffer);
+    }
+
+    /**
+     * Releases the memory charged for the response being written, returns its head to the generator that created it,
+     * and closes the file or body source it was sending, if any.
+     */
+    private void releaseResponse(Client client) {
+        client.memory.release(client.responseBytes);
+        client.responseBytes = 0;
+
+        if (client.responseHead != null) {
+            client.responseGenerator.release(client.responseHead);
+            client.responseHead = null;
+            client.responseGenerator = null;
+        }
+
+        closeFile(client.fileToWrite);
+        client.fileToWrite = null;
+
+        closeSource(client.bodyToWrite);
+        client.bodyToWrite = null;
+        if (client.chunkBuffer != null) {
+            releaseBuffer(client, client.chunkBuffer);
+            client.chunkBuffer = null;
+        }
+    }
 
+    static void closeFile(@Nullable FileRegion file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.atWarning().withCause(e).log("Exception occurred while closing a response file");
+            }
+        }
+    }
+
+    static void closeSource(@Nullable Closeable source) {
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                logger.atWarning().withCause(e).log("Exception occurred while closing a response body source");
+            }
+        }
+    }
+
+    /**
+     * Starts the keep-alive idle timer while waiting for the first byte of the next request.
+     */
+    private void waitForNextRequest(Client client) {
+        client.phase = Phase.IDLE;
+        client.timingWheel.schedule(client.timeout, config.keepAliveTimeout, TimeUnit.MILLISECONDS, System.nanoTime());
+    }
+
+    private void handleTimeout(SelectionKey key, Client client) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        switch (client.phase) {
+            case IDLE:
+                logger.atFine().log("Closing idle keep-alive connection");
+                removeClient(key);
+                break;
+            case HEADERS:
+                logger.atFine().log("Closing connection that did not send headers within %d ms", config.headerTimeout);
+                removeClient(key);
+                break;
+            case BODY:
+                long minimum = config.minBodyRate * config.bodyRateInterval / 1000;
+                if (client.bodyBytesRead < minimum) {
+                    logger.atFine().log("Closing connection with body transfer rate below %d bytes/s", config.minBodyRate);
+                    removeClient(key);
+                    return;
+                }
+                client.bodyBytesRead = 0;
+                client.timingWheel.schedule(client.timeout, config.bodyRateInterval, TimeUnit.MILLISECONDS, System.nanoTime());
+                break;
+            case PROCESSING:
+                // the response is not bounded by any of the connection limits
+                break;
+        }
+    }
+
+    @Override
+    protected void handleRead(SelectionKey key, Client client, SocketChannel clientChannel) throws Exception {
         if (client == null || client.waitingForCallback) {
             return;
         }
 
-        if (client.buffer == null) {
-            client.buffer = ByteBuffer.allocate(1024 * 1024 * 2);
+        if (client.buffer == null || !client.buffer.hasRemaining()) {
+            // reading needs more memory, so wait while the budget is exhausted
+            if (pauseReadingIfExhausted(key, client.memory)) {
+                return;
+            }
+
+            if (client.buffer == null) {
+                client.buffer = acquireBuffer(client, client.bufferSizer.nextSize());
+            } else {
+                // the request is incomplete and does not fit; grow the buffer geometrically up to the request size limit
+                ByteBuffer larger = acquireBuffer(client, Math.min(client.buffer.capacity() * 2, maxRequestSize));
+                client.buffer.flip();
+                larger.put(client.buffer);
+                releaseBuffer(client, client.buffer);
+                client.buffer = larger;
+            }
         }
+
         int numRead = clientChannel.read(client.buffer);
 
         if (numRead == -1) {
-            removeClient(uuid);
+            removeClient(key);
             return;
         }
 
+        if (numRead == 0) {
+            return;
+        }
+
+        if (client.phase == Phase.IDLE) {
+            // the header deadline is measured from the first byte and is not extended by further reads
+            client.phase = Phase.HEADERS;
+            client.timingWheel.schedule(client.timeout, config.headerTimeout, TimeUnit.MILLISECONDS, System.nanoTime());
+        } else if (client.phase == Phase.BODY) {
+            client.bodyBytesRead += numRead;
+        }
+
+        processRequest(key, client, clientChannel);
+    }
+
+    /**
+     * Parses the data read so far, and handles the request if it is complete.
+     */
+    private void processRequest(SelectionKey key, Client client, SocketChannel clientChannel) throws Exception {
         client.buffer.limit(client.buffer.position());
 
-        HttpRequest request = parser.parse(client.buffer);
+        int received = client.buffer.limit();
+        HttpRequest request = parser.parse(client.buffer, client.parseState);
+
+        ByteBuffer error = checkRequestSize(received, client.parseState, config);
+        if (error != null) {
+            rejectRequest(key, client, clientChannel, error);
+            return;
+        }
 
         if (request == null) {
-            clientChannel.register(clientSelector, SelectionKey.OP_READ, uuid);
+            if (client.phase == Phase.HEADERS && client.parseState.isHeaderComplete()) {
+                // the headers are complete, so the rest of the request is held to a minimum transfer rate instead
+                client.phase = Phase.BODY;
+                client.bodyBytesRead = 0;
+                client.timingWheel.schedule(client.timeout, config.bodyRateInterval, TimeUnit.MILLISECONDS, System.nanoTime());
+            }
+
+            // continue reading after the last byte received
+            client.buffer.position(client.buffer.limit());
+            client.buffer.limit(client.buffer.capacity());
+
+            if (!client.buffer.hasRemaining() && client.buffer.capacity() >= maxRequestSize) {
+                // the request is incomplete and the buffer can not grow any further
+                rejectRequest(key, client, clientChannel, payloadTooLarge.duplicate());
+                return;
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
             return;
         }
 
-        // keep remaining data in the request
+        client.phase = Phase.PROCESSING;
+        client.timingWheel.cancel(client.timeout);
+
+        client.requests++;
+        if (client.requests >= config.maxRequests || "close".equalsIgnoreCase(request.getHeader(HttpHeader.CONNECTION))) {
+            client.closeAfterWrite = true;
+        }
+
+        client.bufferSizer.record(client.buffer.position());
+
+        // the request refers to its buffer until the response is written; data after it moves to a new read buffer
+        client.requestBuffer = client.buffer;
         if (client.buffer.hasRemaining()) {
-            ByteBuffer temp = ByteBuffer.allocate(1024 * 1024 * 32);
-            temp.put(client.buffer);
-            client.buffer = temp;
+            ByteBuffer leftover = acquireBuffer(client, Math.max(client.bufferSizer.nextSize(), client.buffer.remaining()));
+            leftover.put(client.buffer);
+            client.buffer = leftover;
         } else {
             client.buffer = null;
         }
@@ -109,74 +385,177 @@ public class HttpConnectionHandler extends AbstractConnectionHandler {
         event.setResponseGenerator(defaultResponseGenerator);
         event.setConnectionHandler(this.getClass());
 
-        client.headersToWrite = null;
-        client.bodyToWrite = null;
+        client.output = null;
 
         client.waitingForCallback = true;
 
         // unregister for read/write until response is processed
-        clientChannel.register(clientSelector, 0);
+        key.interestOps(0);
+
+        Executor loop = getExecutor(key);
 
         eventManager.fireEvent(event, (updated) -> {
             client.toTransfer = updated.getConnectionHandler() == this.getClass() ? null : updated.getConnectionHandler();
 
+            if (client.closeAfterWrite && client.toTransfer == null) {
+                updated.getResponse().setHeader("Connection", "close");
+            }
+
             ResponseGenerator generator = updated.getResponseGenerator();
             ByteBuffer response = generator.generateResponse(updated);
 
-            if (response == null) {
-                try {
-                    clientChannel.register(clientSelector, SelectionKey.OP_READ, uuid);
-                } catch (ClosedChannelException e) {
-                    logger.atWarning().withCause(e).log("Exception occurred");
-                    removeClient(uuid);
-                }
-                client.waitingForCallback = false;
-                clientSelector.wakeup();
-                return;
+            ByteBuffer body = updated.getResponse().getBody();
+            FileRegion file = updated.getResponse().getFileBody();
+            BodySource source = updated.getResponse().getBodySource();
+            boolean copyBody = response != null && generator.shouldCopyBody(updated);
+
+            if (source != null && !copyBody) {
+                closeSource(source);
+            }
+            if (file != null && (!copyBody || source != null)) {
+                closeFile(file);
             }
 
-            client.headersToWrite = response;
+            if (response != null) {
+                client.responseGenerator = generator;
+                client.responseHead = response;
+
+                if (copyBody && source != null) {
+                    // the body is pulled from the source once the headers have been written
+                    client.output = new ByteBuffer[]{response};
+                    client.bodyToWrite = new ChunkedBody(source);
+                } else if (copyBody && file != null) {
+                    // the file is transferred to the socket once the headers have been written
+                    client.output = new ByteBuffer[]{response};
+                    client.fileToWrite = file;
+                } else if (copyBody && body != null) {
+                    client.output = new ByteBuffer[]{response, body};
+                } else {
+                    client.output = new ByteBuffer[]{response};
+                }
 
-            if (generator.shouldCopyBody(updated) && updated.getResponse().getBody() != null) {
-                client.bodyToWrite = updated.getResponse().getBody();
+                for (ByteBuffer buffer : client.output) {
+                    client.responseBytes += buffer.remaining();
+                }
+                client.memory.charge(client.responseBytes);
             }
 
-            try {
-                clientChannel.register(clientSelector, SelectionKey.OP_WRITE, uuid);
-            } catch (ClosedChannelException e) {
-                logger.atWarning().withCause(e).log("Exception occurred");
-                removeClient(uuid);
-            }
-            client.waitingForCallback = false;
-            clientSelector.wakeup();
+            // hand the response back to the selector loop instead of changing the key from this thread
+            loop.execute(() -> {
+                client.waitingForCallback = false;
+
+                if (!key.isValid()) {
+                    // the client was removed while the request was handled
+                    releaseRequestBuffer(client);
+                    releaseResponse(client);
+                    return;
+                }
+
+                try {
+                    if (response == null) {
+                        releaseRequestBuffer(client);
+                        finishRequest(key, client, clientChannel);
+                    } else {
+                        // attempt the write immediately; handleWrite subscribes to OP_WRITE if the socket is full
+                        handleWrite(key, client, clientChannel);
+                    }
+                } catch (Exception e) {
+                    logger.atWarning().withCause(e).log("Exception occurred");
+                    removeClient(key);
+                }
+            });
         });
     }
 
-    @Override
-    protected void handleWrite(SelectionKey key, UUID uuid, SocketChannel clientChannel) throws Exception {
-        Client client = clientMap.get(uuid);
+    /**
+     * Responds to a request that exceeds a size limit with the given error, and closes the connection.
+     */
+    private void rejectRequest(SelectionKey key, Client client, SocketChannel clientChannel, ByteBuffer response) throws Exception {
+        logger.atFine().log("Rejecting request that exceeds a size limit");
+
+        client.phase = Phase.PROCESSING;
+        client.timingWheel.cancel(client.timeout);
+
+        releaseBuffer(client, client.buffer);
+        client.buffer = null;
 
-        if (client.waitingForCallback) {
+        client.closeAfterWrite = true;
+        client.output = new ByteBuffer[]{response};
+        handleWrite(key, client, clientChannel);
+    }
+
+    /**
+     * Waits for the next request once a response has been written. A pipelined request that was read along with the
+     * previous one is handled immediately, as no further data may arrive to trigger a read.
+     */
+    private void finishRequest(SelectionKey key, Client client, SocketChannel clientChannel) throws Exception {
+        key.interestOps(SelectionKey.OP_READ);
+
+        if (client.buffer == null || client.buffer.position() == 0) {
+            waitForNextRequest(client);
             return;
         }
 
-        if (client.headersToWrite != null) {
-            clientChannel.write(client.headersToWrite);
+        client.phase = Phase.HEADERS;
+        client.timingWheel.schedule(client.timeout, config.headerTimeout, TimeUnit.MILLISECONDS, System.nanoTime());
+        processRequest(key, client, clientChannel);
+    }
 
-            if (client.headersToWrite.limit() == client.headersToWrite.position()) {
-                client.headersToWrite = null;
+    /**
+     * Writes as much of the given buffers as the channel accepts without blocking. Each call to the channel is a
+     * single gathering write, so a response's headers and body are sent together.
+     *
+     * @return Whether all of the buffers were written
+     */
+    static boolean writeAvailable(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException {
+        int offset = 0;
+
+        while (offset < buffers.length) {
+            if (!buffers[offset].hasRemaining()) {
+                offset++;
+            } else if (channel.write(buffers, offset, buffers.length - offset) == 0) {
+                return false;
             }
         }
 
-        if (client.headersToWrite == null && client.bodyToWrite != null) {
-            clientChannel.write(client.bodyToWrite);
+        return true;
+    }
+
+    @Override
+    protected void handleWrite(SelectionKey key, Client client, SocketChannel clientChannel) throws Exception {
+        if (client == null || client.waitingForCallback) {
+            return;
+        }
 
-            if (client.bodyToWrite.limit() == client.bodyToWrite.position()) {
+        if (client.output != null && writeAvailable(clientChannel, client.output)) {
+            client.output = null;
+        }
+
+        if (client.output == null && client.fileToWrite != null && client.fileToWrite.transferTo(clientChannel)) {
+            closeFile(client.fileToWrite);
+            client.fileToWrite = null;
+        }
+
+        if (client.output == null && client.fileToWrite == null && client.bodyToWrite != null) {
+            if (client.chunkBuffer == null) {
+                client.chunkBuffer = acquireBuffer(client, ChunkedBody.bufferSize);
+            }
+            if (client.bodyToWrite.writeTo(clientChannel, client.chunkBuffer)) {
+                closeSource(client.bodyToWrite);
                 client.bodyToWrite = null;
             }
         }
 
-        if (client.headersToWrite == null && client.bodyToWrite == null) {
+        if (client.output == null && client.fileToWrite == null && client.bodyToWrite == null) {
+            if (client.toTransfer != null) {
+                // the event is handed to the next handler, so its request must not refer to the pooled buffer
+                client.event.getRequest().detach();
+            }
+
+            // the response body may refer to the request buffer, so it is only released once the response is written
+            releaseRequestBuffer(client);
+            releaseResponse(client);
+
             // Only transfer after writing the expected response data
             if (client.toTransfer != null) {
                 ConnectionHandler handler = server.getConnectionHandler(client.toTransfer);
@@ -189,24 +568,205 @@ public class HttpConnectionHandler extends AbstractConnectionHandler {
                 logger.atInfo().log("Transferring connection to %s", client.toTransfer);
 
                 // Transfer this client to the registered connection handler
-                handler.register(clientChannel, uuid, client.event);
-                clients.remove(uuid);
+                long clientId = getConnectionId(key);
+                client.timingWheel.cancel(client.timeout);
+                releaseBuffers(client);
+                client.memory.close();
+                detachClient(key);
+                handler.register(clientChannel, clientId, client.event);
+                return;
+            }
+
+            if (client.closeAfterWrite) {
+                removeClient(key);
                 return;
             }
 
-            clientChannel.register(clientSelector, SelectionKey.OP_READ, uuid);
+            finishRequest(key, client, clientChannel);
         } else {
-            clientChannel.register(clientSelector, SelectionKey.OP_WRITE, uuid);
+            key.interestOps(SelectionKey.OP_WRITE);
         }
     }
 
 
-    private static class Client {
+    enum Phase {
+        /**
+         * Waiting for the first byte of the next request
+         */
+        IDLE,
+        /**
+         * Part of a request has been read, but its headers are incomplete
+         */
+        HEADERS,
+        /**
+         * The headers of a request have been read, but its body is incomplete
+         */
+        BODY,
+        /**
+         * A complete request is being handled or its response is being written
+         */
+        PROCESSING
+    }
+
+    static class Client {
+        final TimingWheel timingWheel;
+        TimingWheel.Timeout timeout;
+        Phase phase = Phase.IDLE;
+        int requests = 0;
+        long bodyBytesRead = 0;
+        final ReadBufferSizer bufferSizer = new ReadBufferSizer();
+        final HttpParser.State parseState = new HttpParser.State();
+        final MemoryBudget.Account memory;
+        boolean closeAfterWrite = false;
+
+        /**
+         * Data read from the client that has not yet been parsed into a request
+         */
         ByteBuffer buffer = null;
-        ByteBuffer headersToWrite = null;
-        ByteBuffer bodyToWrite = null;
+        /**
+         * The buffer the request being handled was parsed from, which its body refers to
+         */
+        ByteBuffer requestBuffer = null;
+        /**
+         * The response being written, as its headers followed by its body if it has one
+         */
+        ByteBuffer[] output = null;
+        /**
+         * The file sent after {@link #output} as the body of the response being written
+         */
+        FileRegion fileToWrite = null;
+        /**
+         * The streamed body sent after {@link #output}, and the buffer its chunks are encoded into
+         */
+        ChunkedBody bodyToWrite = null;
+        ByteBuffer chunkBuffer = null;
+        /**
+         * The head of the response being written, and the generator it is released to once written
+         */
+        ByteBuffer responseHead = null;
+        ResponseGenerator responseGenerator = null;
+        /**
+         * The number of bytes charged to the memory account for the response being written
+         */
+        long responseBytes = 0;
         PageRequestEvent event = null;
         boolean waitingForCallback = false;
         Class<? extends ConnectionHandler> toTransfer = null;
+
+        Client(TimingWheel timingWheel, MemoryBudget.Account memory) {
+            this.timingWheel = timingWheel;
+            this.memory = memory;
+        }
+    }
+
+    /**
+     * Limits enforced on each HTTP connection. All durations are in milliseconds.
+     */
+    public static class Config {
+        long keepAliveTimeout = 5000;
+        long headerTimeout = 10000;
+        long minBodyRate = 1024;
+        long bodyRateInterval = 5000;
+        int maxRequests = 1000;
+        int maxHeaderSize = 8 * 1024;
+        int maxRequestSize = 32 * 1024 * 1024;
+        int maxBodySize = 32 * 1024 * 1024;
+
+        /**
+         * Sets how long an idle keep-alive connection is kept open while waiting for the next request. Defaults to 5
+         * seconds.
+         */
+        @Contract("_, _ -> this")
+        public Config setKeepAliveTimeout(long timeout, TimeUnit unit) {
+            if (unit.toMillis(timeout) <= 0) {
+                throw new IllegalArgumentException("keepAliveTimeout must be at least one millisecond");
+            }
+            this.keepAliveTimeout = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Sets how long a client has to send the complete headers of a request, measured from the first byte of the
+         * request. Defaults to 10 seconds.
+         */
+        @Contract("_, _ -> this")
+        public Config setHeaderTimeout(long timeout, TimeUnit unit) {
+            if (unit.toMillis(timeout) <= 0) {
+                throw new IllegalArgumentException("headerTimeout must be at least one millisecond");
+            }
+            this.headerTimeout = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the minimum rate at which a request body must be received, averaged over the given interval. Defaults to
+         * 1024 bytes per second over 5 seconds.
+         *
+         * @param bytesPerSecond The minimum number of body bytes per second
+         */
+        @Contract("_, _, _ -> this")
+        public Config setMinBodyRate(long bytesPerSecond, long interval, TimeUnit unit) {
+            if (bytesPerSecond <= 0) {
+                throw new IllegalArgumentException("bytesPerSecond must be positive");
+            }
+            if (unit.toMillis(interval) <= 0) {
+                throw new IllegalArgumentException("interval must be at least one millisecond");
+            }
+            this.minBodyRate = bytesPerSecond;
+            this.bodyRateInterval = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the request line and headers of a request, in bytes. Requests with larger headers
+         * are answered with 431 (Request Header Fields Too Large) and the connection is closed. Defaults to 8 KiB.
+         */
+        @Contract("_ -> this")
+        public Config setMaxHeaderSize(int maxHeaderSize) {
+            if (maxHeaderSize <= 0) {
+                throw new IllegalArgumentException("maxHeaderSize must be positive");
+            }
+            this.maxHeaderSize = maxHeaderSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a complete request, including its body, in bytes. Larger requests are answered with
+         * 413 (Payload Too Large) and the connection is closed. Defaults to 32 MiB.
+         */
+        @Contract("_ -> this")
+        public Config setMaxRequestSize(int maxRequestSize) {
+            if (maxRequestSize <= 0) {
+                throw new IllegalArgumentException("maxRequestSize must be positive");
+            }
+            this.maxRequestSize = maxRequestSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a request body, in bytes. For a chunked body this is the decoded size, and a
+         * request is rejected as soon as a chunk would exceed it. Larger requests are answered with 413 (Payload Too
+         * Large) and the connection is closed. Defaults to 32 MiB.
+         */
+        @Contract("_ -> this")
+        public Config setMaxBodySize(int maxBodySize) {
+            if (maxBodySize < 0) {
+                throw new IllegalArgumentException("maxBodySize must not be negative");
+            }
+            this.maxBodySize = maxBodySize;
+            return this;
+        }
+
+        /**
+         * Sets the number of requests served on a connection before it is closed. Defaults to 1000.
+         */
+        @Contract("_ -> this")
+        public Config setMaxRequests(int maxRequests) {
+            if (maxRequests <= 0) {
+                throw new IllegalArgumentException("maxRequests must be positive");
+            }
+            this.maxRequests = maxRequests;
+            return this;
+        }
     }
 }
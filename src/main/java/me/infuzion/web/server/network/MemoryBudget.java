@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accounts for the memory held by connection handlers on behalf of their clients, such as read buffers, requests being
+ * handled and responses or frames waiting to be written. Each connection charges its allocations to its own
+ * {@link Account}, and every account also charges a server-wide total.
+ * <p>
+ * An account is exhausted while either its own usage exceeds the per-connection limit, or the server-wide usage
+ * exceeds the global limit. Connection handlers stop reading from a client whose account is exhausted before
+ * allocating memory for it, and use {@link Account#onAvailable(Runnable)} to resume once usage drops. Data that has
+ * already been read keeps being handled and written, which is what eventually releases the memory.
+ * <p>
+ * The limits bound the memory held by connection handlers, not the heap as a whole: buffers handed to event listeners
+ * are released from the budget as soon as they are handed off.
+ */
+public class MemoryBudget {
+    private final long limit;
+    private final long connectionLimit;
+
+    private final AtomicLong used = new AtomicLong();
+    private final LongAccumulator peakUsed = new LongAccumulator(Math::max, 0);
+    private final LongAdder pauses = new LongAdder();
+
+    /**
+     * Accounts that are waiting for usage to drop
+     */
+    private final Set<Account> waiting = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a budget limited to half of the maximum heap size, and 64MB per connection.
+     */
+    public MemoryBudget() {
+        this(Runtime.getRuntime().maxMemory() / 2, 64 * 1024 * 1024);
+    }
+
+    /**
+     * @param limit           The number of bytes that may be held for all connections
+     * @param connectionLimit The number of bytes that may be held for a single connection. HTTP requests that do not fit
+     *                        in this limit are rejected, as reading them can not complete without exceeding it.
+     */
+    public MemoryBudget(long limit, long connectionLimit) {
+        if (limit <= 0 || connectionLimit <= 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.limit = limit;
+        this.connectionLimit = connectionLimit;
+    }
+
+    /**
+     * Creates an account for a new connection. The account should be closed when the connection is closed or handed to
+     * another connection handler.
+     */
+    public Account newAccount() {
+        return new Account();
+    }
+
+    /**
+     * @return Whether the server-wide usage exceeds the global limit
+     */
+    public boolean isExhausted() {
+        return used.get() > limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getConnectionLimit() {
+        return connectionLimit;
+    }
+
+    /**
+     * @return The number of bytes currently charged to all accounts
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * @return The highest number of bytes charged to all accounts at once
+     */
+    public long getPeakUsed() {
+        return peakUsed.get();
+    }
+
+    /**
+     * @return The number of connections that are currently not being read from because their account is exhausted
+     */
+    public int getPausedConnections() {
+        return waiting.size();
+    }
+
+    /**
+     * @return The number of times a connection stopped being read from because its account was exhausted
+     */
+    public long getPauseCount() {
+        return pauses.sum();
+    }
+
+    private void add(long bytes) {
+        long now = used.addAndGet(bytes);
+
+        if (bytes > 0) {
+            peakUsed.accumulate(now);
+        } else if (now <= limit && now - bytes > limit && !waiting.isEmpty()) {
+            // usage dropped below the limit; accounts that are only waiting on their own limit stay paused
+            for (Account account : waiting) {
+                account.resumeIfAvailable();
+            }
+        }
+    }
+
+    /**
+     * The memory charged by a single connection. Charges and releases may be made from any thread.
+     */
+    public final class Account {
+        private final AtomicLong used = new AtomicLong();
+        private volatile boolean closed = false;
+
+        /**
+         * Run once the account is no longer exhausted. Only changed while holding this account's monitor.
+         */
+        private volatile Runnable waiter = null;
+
+        private Account() {
+        }
+
+        /**
+         * Charges the given number of bytes to this account. Charges made after the account is closed are ignored.
+         */
+        public void charge(long bytes) {
+            if (closed) {
+                return;
+            }
+
+            update(bytes);
+        }
+
+        /**
+         * Releases bytes previously charged to this account, and runs the task registered with
+         * {@link #onAvailable(Runnable)} if the account is no longer exhausted.
+         */
+        public void release(long bytes) {
+            if (closed) {
+                return;
+            }
+
+            update(-bytes);
+
+            if (waiter != null) {
+                resumeIfAvailable();
+            }
+        }
+
+        private void update(long bytes) {
+            used.addAndGet(bytes);
+            add(bytes);
+
+            if (closed) {
+                // raced with close(); return whatever close() did not see
+                add(-used.getAndSet(0));
+            }
+        }
+
+        /**
+         * @return Whether either this account's usage exceeds the per-connection limit, or the server-wide usage exceeds
+         * the global limit
+         */
+        public boolean isExhausted() {
+            return used.get() > connectionLimit || MemoryBudget.this.isExhausted();
+        }
+
+        /**
+         * Runs the given task once this account is no longer exhausted, replacing any task registered earlier. If the
+         * account is not exhausted, the task is run immediately on the calling thread; otherwise it is run by the
+         * thread whose release brings usage back under the limits.
+         */
+        public void onAvailable(Runnable task) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                if (waiter == null) {
+                    pauses.increment();
+                    waiting.add(this);
+                }
+                waiter = task;
+            }
+
+            // usage may have dropped before the task was registered
+            resumeIfAvailable();
+        }
+
+        private void resumeIfAvailable() {
+            Runnable task;
+
+            synchronized (this) {
+                if (waiter == null || isExhausted()) {
+                    return;
+                }
+
+                task = waiter;
+                waiter = null;
+                waiting.remove(this);
+            }
+
+            task.run();
+        }
+
+        /**
+         * @return The number of bytes currently charged to this account
+         */
+        public long getUsed() {
+            return used.get();
+        }
+
+        /**
+         * Releases everything charged to this account, and discards any task registered with
+         * {@link #onAvailable(Runnable)}.
+         */
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                waiter = null;
+                waiting.remove(this);
+            }
+
+            add(-used.getAndSet(0));
+        }
+    }
+}
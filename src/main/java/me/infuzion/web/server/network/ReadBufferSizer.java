@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+/**
+ * Predicts how large a connection's next read buffer should be from the sizes of its recent requests. The prediction
+ * doubles as soon as a request does not fit, and halves only after two consecutive requests would have fit in half the
+ * space, so that a single small request does not shrink the buffer of a client that usually sends large ones.
+ * <p>
+ * Buffers still grow beyond the prediction while a request is incomplete; the prediction only avoids regrowing the
+ * buffer for every request of a client that sends large requests, and avoids holding on to large buffers for clients
+ * that do not.
+ */
+final class ReadBufferSizer {
+    static final int minSize = 1024;
+    static final int initialSize = 4096;
+    static final int maxSize = 64 * 1024;
+
+    private int size = initialSize;
+    private boolean shrinkNext = false;
+
+    /**
+     * @return The size of the next buffer to read into
+     */
+    int nextSize() {
+        return size;
+    }
+
+    /**
+     * Records the number of bytes taken up by a complete request.
+     */
+    void record(int requestSize) {
+        if (requestSize > size) {
+            size = Math.min(maxSize, Math.max(size * 2, Integer.highestOneBit(requestSize - 1) << 1));
+            shrinkNext = false;
+        } else if (requestSize <= size / 2 && size > minSize) {
+            if (shrinkNext) {
+                size /= 2;
+                shrinkNext = false;
+            } else {
+                shrinkNext = true;
+            }
+        } else {
+            shrinkNext = false;
+        }
+    }
+}
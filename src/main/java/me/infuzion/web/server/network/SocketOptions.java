@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+/**
+ * Socket options applied to client connections. Options that are not set are left at the platform default.
+ */
+public class SocketOptions {
+    private @Nullable Boolean tcpNoDelay;
+    private @Nullable Boolean keepAlive;
+    private @Nullable Integer receiveBufferSize;
+    private @Nullable Integer sendBufferSize;
+    private @Nullable Integer linger;
+
+    /**
+     * Sets TCP_NODELAY. Enabling it disables Nagle's algorithm, so small writes are sent immediately instead of being
+     * held back until earlier data is acknowledged.
+     */
+    @Contract("_ -> this")
+    public SocketOptions setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    /**
+     * Sets SO_KEEPALIVE, which enables TCP keep-alive probes on idle connections.
+     */
+    @Contract("_ -> this")
+    public SocketOptions setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * Sets SO_RCVBUF, the size of the socket receive buffer in bytes. This is only a hint to the platform.
+     */
+    @Contract("_ -> this")
+    public SocketOptions setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize <= 0) {
+            throw new IllegalArgumentException("receiveBufferSize must be positive");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets SO_SNDBUF, the size of the socket send buffer in bytes. This is only a hint to the platform.
+     */
+    @Contract("_ -> this")
+    public SocketOptions setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize <= 0) {
+            throw new IllegalArgumentException("sendBufferSize must be positive");
+        }
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets SO_LINGER, the number of seconds a close may block while unsent data is transmitted. A negative value
+     * disables lingering.
+     */
+    @Contract("_ -> this")
+    public SocketOptions setLinger(int seconds) {
+        this.linger = seconds;
+        return this;
+    }
+
+    public @Nullable Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public @Nullable Boolean getKeepAlive() {
+        return keepAlive;
+    }
+
+    public @Nullable Integer getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public @Nullable Integer getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public @Nullable Integer getLinger() {
+        return linger;
+    }
+
+    /**
+     * Applies every option that has been set to the given channel.
+     */
+    public void apply(NetworkChannel channel) throws IOException {
+        setOption(channel, StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        setOption(channel, StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+        setOption(channel, StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+        setOption(channel, StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        setOption(channel, StandardSocketOptions.SO_LINGER, linger);
+    }
+
+    private static <T> void setOption(NetworkChannel channel, SocketOption<T> option, @Nullable T value) throws IOException {
+        if (value != null) {
+            channel.setOption(option, value);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.infuzion.web.server.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel used by selector loops to track connection deadlines. Scheduling, rescheduling and cancelling
+ * a timeout are all O(1), and timeouts are intrusive so that each connection can reuse a single {@link Timeout}
+ * instance for its entire lifetime.
+ * <p>
+ * Timeouts fire with a granularity of one tick, and never earlier than requested. This class is not thread-safe; it
+ * must only be used from the thread that owns it.
+ */
+public class TimingWheel {
+    private static final int UNSCHEDULED = 0;
+    private static final int SCHEDULED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final long startTime;
+    private final Timeout[] buckets;
+    private final int mask;
+
+    /**
+     * The next tick to be processed
+     */
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * @param tickDuration  The duration of a single tick
+     * @param unit          The unit of {@code tickDuration}
+     * @param ticksPerWheel The number of buckets in the wheel; rounded up to a power of two
+     * @param now           The current time, in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, long now) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30");
+        }
+
+        int wheelSize = Integer.highestOneBit(ticksPerWheel);
+        if (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startTime = now;
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+    }
+
+    /**
+     * Schedules the given timeout to fire after the given delay. If the timeout is already scheduled, it is moved.
+     *
+     * @param timeout The timeout to schedule
+     * @param delay   The minimum delay before the timeout fires
+     * @param unit    The unit of {@code delay}
+     * @param now     The current time, in nanoseconds, as returned by {@link System#nanoTime()}
+     */
+    public void schedule(Timeout timeout, long delay, TimeUnit unit, long now) {
+        if (timeout.wheel != null && timeout.wheel != this) {
+            throw new IllegalStateException("Timeout is scheduled on another wheel");
+        }
+
+        if (timeout.state == SCHEDULED) {
+            unlink(timeout);
+        }
+
+        long deadline = now - startTime + unit.toNanos(delay);
+        // round up so that the timeout never fires early
+        long tick = Math.max(currentTick, (deadline + tickNanos - 1) / tickNanos);
+
+        int index = (int) (tick & mask);
+        timeout.deadlineTick = tick;
+        timeout.bucket = index;
+        timeout.prev = null;
+        timeout.next = buckets[index];
+        if (buckets[index] != null) {
+            buckets[index].prev = timeout;
+        }
+        buckets[index] = timeout;
+
+        timeout.wheel = this;
+        timeout.state = SCHEDULED;
+        size++;
+    }
+
+    /**
+     * Cancels the given timeout. Does nothing if the timeout is not scheduled.
+     */
+    public void cancel(Timeout timeout) {
+        if (timeout.state == SCHEDULED) {
+            unlink(timeout);
+        }
+        timeout.state = UNSCHEDULED;
+        timeout.wheel = null;
+    }
+
+    /**
+     * Fires all timeouts whose deadlines have passed. Timeouts may reschedule or cancel themselves or any other timeout
+     * on this wheel while firing.
+     *
+     * @param now The current time, in nanoseconds, as returned by {@link System#nanoTime()}
+     * @return The number of timeouts that fired
+     */
+    public int advance(long now) {
+        long targetTick = (now - startTime) / tickNanos;
+        int fired = 0;
+
+        while (currentTick <= targetTick) {
+            if (size == 0) {
+                // nothing to process; skip ahead
+                currentTick = targetTick + 1;
+                break;
+            }
+
+            Timeout expired = null;
+            Timeout timeout = buckets[(int) (currentTick & mask)];
+
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= currentTick) {
+                    unlink(timeout);
+                    timeout.state = EXPIRED;
+                    timeout.nextExpired = expired;
+                    expired = timeout;
+                }
+                timeout = next;
+            }
+
+            currentTick++;
+
+            while (expired != null) {
+                Timeout cur = expired;
+                expired = cur.nextExpired;
+                cur.nextExpired = null;
+
+                // skip timeouts that were cancelled or rescheduled by an earlier task
+                if (cur.state == EXPIRED) {
+                    cur.state = UNSCHEDULED;
+                    cur.wheel = null;
+                    fired++;
+                    cur.task.run();
+                }
+            }
+        }
+
+        return fired;
+    }
+
+    /**
+     * @param now The current time, in nanoseconds, as returned by {@link System#nanoTime()}
+     * @return The number of nanoseconds until the next tick should be processed, or -1 if no timeouts are scheduled
+     */
+    public long nanosUntilNextTick(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        return Math.max(0, startTime + currentTick * tickNanos - now);
+    }
+
+    /**
+     * @return The number of scheduled timeouts
+     */
+    public int size() {
+        return size;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    /**
+     * A reusable timer entry. A timeout may be scheduled on at most one wheel at a time.
+     */
+    public static class Timeout {
+        private final Runnable task;
+
+        private TimingWheel wheel = null;
+        private int state = UNSCHEDULED;
+        private long deadlineTick;
+        private int bucket;
+        private Timeout prev;
+        private Timeout next;
+        private Timeout nextExpired;
+
+        /**
+         * @param task The task to run on the wheel's thread when this timeout fires
+         */
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return Whether this timeout is waiting to fire
+         */
+        public boolean isScheduled() {
+            return state == SCHEDULED;
+        }
+    }
+}
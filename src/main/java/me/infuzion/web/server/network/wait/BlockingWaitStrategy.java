@@ -0,0 +1,30 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.infuzion.web.server.network.wait;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/**
+ * Blocks in {@link Selector#select()} until a key is ready. This uses no CPU while idle, but every wakeup goes through
+ * the kernel.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    @Override
+    public int select(Selector selector, int idleCount, long timeoutMillis) throws IOException {
+        return timeoutMillis > 0 ? selector.select(timeoutMillis) : selector.select();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.infuzion.web.server.network.wait;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polls the selector in a tight loop for a fixed number of attempts, and then parks the thread for a short duration
+ * between further polls. The park duration bounds the added latency once the loop has gone idle.
+ */
+public class SpinParkWaitStrategy implements WaitStrategy {
+    private final int spins;
+    private final long parkNanos;
+
+    public SpinParkWaitStrategy(int spins, long parkNanos) {
+        if (spins < 0) {
+            throw new IllegalArgumentException("spins must not be negative");
+        }
+        if (parkNanos <= 0) {
+            throw new IllegalArgumentException("parkNanos must be positive");
+        }
+        this.spins = spins;
+        this.parkNanos = parkNanos;
+    }
+
+    @Override
+    public int select(Selector selector, int idleCount, long timeoutMillis) throws IOException {
+        int ready = selector.selectNow();
+        if (ready == 0) {
+            if (idleCount < spins) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(timeoutMillis > 0 ? Math.min(parkNanos, timeoutMillis * 1_000_000) : parkNanos);
+            }
+        }
+        return ready;
+    }
+}
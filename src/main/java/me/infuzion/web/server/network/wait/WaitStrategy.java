@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.infuzion.web.server.network.wait;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/**
+ * Determines how a selector loop waits for channels to become ready. Blocking trades latency for idle CPU usage, while
+ * the spinning strategies poll with {@link Selector#selectNow()} to avoid the cost of being woken up by the kernel.
+ * <p>
+ * Implementations must be stateless so that a single instance can be shared between selector loops. The calling loop
+ * keeps track of how many consecutive calls found nothing to do and passes it as {@code idleCount}.
+ */
+public interface WaitStrategy {
+    /**
+     * Selects ready keys from the given selector. Blocking strategies wait until a key is ready or the selector is woken
+     * up; spinning strategies poll once and idle before returning if nothing was ready.
+     *
+     * @param selector      The selector to wait on
+     * @param idleCount     The number of consecutive previous calls that returned zero
+     * @param timeoutMillis The maximum time to block, in milliseconds, or zero to block indefinitely
+     * @return The number of keys whose ready-operation sets were updated, which may be zero
+     */
+    int select(Selector selector, int idleCount, long timeoutMillis) throws IOException;
+
+    /**
+     * @return A strategy that blocks in {@link Selector#select()}
+     */
+    static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+
+    /**
+     * @return A strategy that continuously polls the selector without ever giving up the CPU
+     */
+    static WaitStrategy busySpin() {
+        return new BusySpinWaitStrategy();
+    }
+
+    /**
+     * @param spins The number of polls to attempt before yielding the CPU between polls
+     * @return A strategy that spins for a number of polls and then yields between polls
+     */
+    static WaitStrategy spinThenYield(int spins) {
+        return new SpinYieldWaitStrategy(spins);
+    }
+
+    /**
+     * @param spins     The number of polls to attempt before parking between polls
+     * @param parkNanos The duration to park the thread between polls once spinning has finished
+     * @return A strategy that spins for a number of polls and then parks the thread between polls
+     */
+    static WaitStrategy spinThenPark(int spins, long parkNanos) {
+        return new SpinParkWaitStrategy(spins, parkNanos);
+    }
+}
@@ -16,18 +16,41 @@
 
 package me.infuzion.web.server.network.websocket;
 
+import me.infuzion.web.server.network.MemoryBudget;
 import me.infuzion.web.server.websocket.WebsocketClient;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class NetworkWebsocketClient implements WebsocketClient {
-    private final UUID uuid;
+    private final long id;
     private final String path;
+    private final SelectionKey key;
+    /**
+     * Runs tasks on the selector loop that owns this client
+     */
+    private final Executor loop;
+
+    /**
+     * Charged for payloads being read and frames waiting to be written
+     */
+    final MemoryBudget.Account memory;
+
+    /**
+     * Created on the first call to {@link #getId()}
+     */
+    private volatile UUID uuid = null;
 
-    NetworkWebsocketClient(UUID uuid, String path) {
-        this.uuid = uuid;
+    NetworkWebsocketClient(SelectionKey key, Executor loop, MemoryBudget.Account memory, long id, String path) {
+        this.key = key;
+        this.loop = loop;
+        this.memory = memory;
+        this.id = id;
         this.path = path;
     }
 
@@ -36,8 +59,22 @@ class NetworkWebsocketClient implements WebsocketClient {
      */
     List<ByteBuffer> previousPayloads = new ArrayList<>();
 
+    /**
+     * Holds the header of the frame being read. Reused for every frame, as a header is at most 14 bytes.
+     */
+    final ByteBuffer headerBuffer = ByteBuffer.allocate(16);
+
+    /**
+     * Holds the payload of the frame being read. Payloads are handed to listeners, so each frame gets its own buffer.
+     */
     ByteBuffer readBuffer = null;
 
+    /**
+     * The number of bytes charged to the memory account for the payloads of the current message. Released once the
+     * message is handed to listeners.
+     */
+    long payloadBytes = 0;
+
     /**
      * The first frame of a series of continued messages. If this frame is not null, then the next non-control frame
      * should be treated as a continuation to this frame.
@@ -63,16 +100,24 @@ class NetworkWebsocketClient implements WebsocketClient {
 
     /**
      * A queue containing bytebuffers to be written back to the client. The data is assumed to begin at position 0
-     * and end at the buffer's limit
+     * and end at the buffer's limit. Frames may be queued from any thread.
+     */
+    final Queue<ByteBuffer> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether this client is subscribed (or about to be subscribed) to {@link SelectionKey#OP_WRITE}. Only the thread
+     * that changes this from false to true schedules write interest to be added, and only the selector loop removes it.
      */
-    Queue<ByteBuffer> writeBuffer = new LinkedList<>();
+    private final AtomicBoolean writeInterest = new AtomicBoolean(false);
 
-    boolean shouldClose = false;
+    volatile boolean shouldClose = false;
 
     /**
      * Close the client connection after writing out all current messages
      */
     void reset() {
+        this.memory.release(payloadBytes);
+        this.payloadBytes = 0;
         this.previousPayloads.clear();
         this.readBuffer = null;
         this.primaryFrame = null;
@@ -83,7 +128,21 @@ class NetworkWebsocketClient implements WebsocketClient {
 
     @Override
     public UUID getId() {
-        return uuid;
+        UUID result = uuid;
+        if (result == null) {
+            synchronized (this) {
+                result = uuid;
+                if (result == null) {
+                    uuid = result = UUID.randomUUID();
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getConnectionId() {
+        return id;
     }
 
     @Override
@@ -107,12 +166,44 @@ class NetworkWebsocketClient implements WebsocketClient {
     }
 
     void writeFrame(WebsocketFrameHeader header, ByteBuffer payload) {
-        writeBuffer.add(header.toByteBuffer(payload));
+        ByteBuffer frame = header.toByteBuffer(payload);
+        // released by the selector loop once the frame has been written
+        memory.charge(frame.limit());
+        writeBuffer.add(frame);
+        requestWrite();
+    }
+
+    /**
+     * Subscribes this client to {@link SelectionKey#OP_WRITE} if it is not already subscribed.
+     */
+    void requestWrite() {
+        if (writeInterest.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                if (key.isValid()) {
+                    key.interestOpsOr(SelectionKey.OP_WRITE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes write interest after the write queue has been drained. Must be called from the selector loop.
+     */
+    void clearWriteInterest() {
+        key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        writeInterest.set(false);
+
+        // a frame may have been queued after the queue was found to be empty
+        if (!writeBuffer.isEmpty() || shouldClose) {
+            requestWrite();
+        }
     }
 
     @Override
     public void remove() {
         this.shouldClose = true;
+        // the connection is closed by the selector loop once pending frames are written
+        requestWrite();
     }
 
     @Override
@@ -134,11 +225,11 @@ class NetworkWebsocketClient implements WebsocketClient {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         NetworkWebsocketClient that = (NetworkWebsocketClient) o;
-        return uuid.equals(that.uuid);
+        return id == that.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(uuid);
+        return Long.hashCode(id);
     }
 }
@@ -23,6 +23,7 @@ import me.infuzion.web.server.event.reflect.param.HasPath;
 import me.infuzion.web.server.http.parser.BodyData;
 import me.infuzion.web.server.http.parser.JsonBodyParser;
 import me.infuzion.web.server.network.AbstractConnectionHandler;
+import me.infuzion.web.server.network.MemoryBudget;
 import me.infuzion.web.server.util.ByteBufferUtils;
 import org.jetbrains.annotations.Nullable;
 
@@ -39,31 +40,46 @@ import java.util.*;
  * Handles websocket connections. Connection upgrades should be finalized before being registered with this connection
  * handler.
  */
-public class WebsocketConnectionHandler extends AbstractConnectionHandler {
+public class WebsocketConnectionHandler extends AbstractConnectionHandler<NetworkWebsocketClient> {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-    private final Map<UUID, NetworkWebsocketClient> clientMap = Collections.synchronizedMap(new WeakHashMap<>());
-    private final CharsetDecoder utf8Decoder = StandardCharsets.UTF_8.newDecoder();
+    // decoders are stateful, so each selector loop needs its own instance
+    private final ThreadLocal<CharsetDecoder> utf8Decoder = ThreadLocal.withInitial(StandardCharsets.UTF_8::newDecoder);
     private final JsonBodyParser bodyParser = new JsonBodyParser();
 
+    public WebsocketConnectionHandler() {
+        this(1);
+    }
+
+    /**
+     * @param selectorThreads The number of selector loops used to service websocket clients
+     */
+    public WebsocketConnectionHandler(int selectorThreads) {
+        super(selectorThreads);
+    }
+
     @Override
-    protected void handleNewClient(SocketChannel client, UUID uuid, @Nullable Event event) {
+    protected NetworkWebsocketClient handleNewClient(SelectionKey key, SocketChannel client, long clientId, @Nullable Event event) {
         if (event instanceof HasPath) {
             String path = ((HasPath) event).getPath();
-            NetworkWebsocketClient websocketClient = new NetworkWebsocketClient(uuid, path);
+            NetworkWebsocketClient websocketClient = new NetworkWebsocketClient(key, getExecutor(key), newAccount(), clientId, path);
 
             WebSocketConnectEvent connectEvent = new WebSocketConnectEvent(websocketClient, path);
             eventManager.fireEvent(connectEvent);
 
-            clientMap.put(uuid, websocketClient);
+            return websocketClient;
         } else {
-            clientMap.put(uuid, new NetworkWebsocketClient(uuid, ""));
+            return new NetworkWebsocketClient(key, getExecutor(key), newAccount(), clientId, "");
         }
     }
 
+    private MemoryBudget.Account newAccount() {
+        return server.getOptions().getMemoryBudget().newAccount();
+    }
+
     @Override
-    protected void handleRemoveClient(UUID uuid) {
-        NetworkWebsocketClient client = clientMap.remove(uuid);
+    protected void handleRemoveClient(NetworkWebsocketClient client) {
         if (client != null) {
+            client.memory.close();
             sendDisconnectEvent(client, WebsocketFrameCloseCodes.RESERVED_ABNORMAL, null);
         }
     }
@@ -75,7 +91,7 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
     }
 
     @Override
-    protected void handleRead(SelectionKey key, UUID uuid, SocketChannel clientChannel) throws Exception {
+    protected void handleRead(SelectionKey key, NetworkWebsocketClient client, SocketChannel clientChannel) throws Exception {
         /*
               0               1               2               3
               0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
@@ -90,9 +106,6 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
           https://tools.ietf.org/html/rfc6455#section-5.2
         */
 
-        NetworkWebsocketClient client = clientMap.get(uuid);
-
-
         if (client == null) {
             return;
         }
@@ -102,6 +115,11 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
         }
 
         if (client.state == NetworkWebsocketClient.WebsocketClientParserState.HEADER) {
+            // the next frame needs a new payload buffer, so wait while the budget is exhausted
+            if (pauseReadingIfExhausted(key, client.memory)) {
+                return;
+            }
+
             readHeader(client, clientChannel);
         }
 
@@ -138,25 +156,33 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
     }
 
     @Override
-    protected void handleWrite(SelectionKey key, UUID uuid, SocketChannel clientChannel) throws Exception {
-        NetworkWebsocketClient client = clientMap.get(uuid);
-
-        ByteBuffer buffer = client.writeBuffer.peek();
+    protected void handleWrite(SelectionKey key, NetworkWebsocketClient client, SocketChannel clientChannel) throws Exception {
+        if (client == null) {
+            return;
+        }
 
-        if (buffer != null) {
+        ByteBuffer buffer;
+        while ((buffer = client.writeBuffer.peek()) != null) {
             clientChannel.write(buffer);
 
-            if (!buffer.hasRemaining()) {
-                client.writeBuffer.poll();
+            if (buffer.hasRemaining()) {
+                // the socket's send buffer is full; wait for the next write event
+                return;
             }
+
+            client.writeBuffer.poll();
+            client.memory.release(buffer.limit());
         }
 
-        if (client.writeBuffer.isEmpty() && client.shouldClose) {
+        if (client.shouldClose) {
             client.reset();
-            clients.remove(uuid);
-            key.channel().close();
-            key.cancel();
+            client.memory.close();
+            detachClient(key);
+            closeChannel(key);
+            return;
         }
+
+        client.clearWriteInterest();
     }
 
     private @Nullable WebsocketFrameCloseCodes validateClientHeader(WebsocketFrameHeader header, @Nullable WebsocketFrameHeader primaryHeader) {
@@ -209,19 +235,16 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
      * Handles reading the metadata of a websocket frame.
      */
     private void readHeader(NetworkWebsocketClient client, SocketChannel channel) throws IOException {
-        if (client.readBuffer == null) {
-            client.readBuffer = ByteBuffer.allocate(16);
-            client.curFrame = new WebsocketFrameHeader();
-        }
-
-        ByteBuffer buffer = client.readBuffer;
+        ByteBuffer buffer = client.headerBuffer;
+        buffer.clear();
         buffer.position(client.headerTotalRead);
 
         int nRead;
 
         if (client.nextFrameData != null) {
+            // the data following the previous frame is a slice of this buffer, and is moved to its start
             nRead = client.nextFrameData.remaining();
-            client.readBuffer.put(client.nextFrameData);
+            buffer.put(client.nextFrameData);
             client.nextFrameData = null;
         } else {
             nRead = channel.read(buffer);
@@ -253,6 +276,8 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
         }
 
         ByteBuffer payload = ByteBuffer.allocate(header.payloadLength > Integer.MAX_VALUE ? Integer.MAX_VALUE : Math.toIntExact(header.payloadLength));
+        client.memory.charge(payload.capacity());
+        client.payloadBytes += payload.capacity();
 
         // move remaining data into payload buffer
         if (payload.limit() < buffer.remaining()) {
@@ -352,7 +377,7 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
 
         if (opcode == WebsocketFrameOpcodes.TEXT) {
             try {
-                String decoded = utf8Decoder.decode(consolidated).toString();
+                String decoded = utf8Decoder.get().decode(consolidated).toString();
                 BodyData bodyData = bodyParser.parse(decoded);
 
                 event = new WebSocketTextMessageEvent(client, consolidated, bodyData, decoded);
@@ -389,6 +414,9 @@ public class WebsocketConnectionHandler extends AbstractConnectionHandler {
             ByteBuffer wrapped = ByteBuffer.wrap(array);
 
             if (client.curFrame.opcode.isControl()) {
+                // control frames are not part of the current message
+                client.memory.release(array.length);
+                client.payloadBytes -= array.length;
                 handleControlFrame(client.curFrame, wrapped, client);
             } else {
                 client.previousPayloads.add(wrapped);
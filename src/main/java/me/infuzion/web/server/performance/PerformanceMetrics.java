@@ -113,6 +113,15 @@ public class PerformanceMetrics {
         recordMetric(new PerformanceMetric(name, description, duration));
     }
 
+    /**
+     * @return Whether any timing data has been recorded for the current event
+     */
+    public static boolean hasServerTiming() {
+        Event event = currentEvent.get();
+        return !timers.get().isEmpty()
+                || (event != null && event.getPerformanceMetrics() != null && !event.getPerformanceMetrics().isEmpty());
+    }
+
     /**
      * @return A value compatible with the Server-Timing header containing the recorded timing data.
      */
@@ -19,14 +19,65 @@ package me.infuzion.web.server.response;
 import me.infuzion.web.server.Server;
 import me.infuzion.web.server.event.Event;
 import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.FileRegion;
 import me.infuzion.web.server.http.HttpResponse;
+import me.infuzion.web.server.network.BufferPool;
 import me.infuzion.web.server.performance.PerformanceMetrics;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
+/**
+ * Generates the head of an HTTP response from the event's {@link HttpResponse}. The head is written straight into a
+ * buffer of the exact size needed. It starts with a few prebuilt segments: the status line, the {@code Date} line from
+ * {@link HttpDate}, and the constant lines encoded once by this generator. The per-response values follow, written
+ * without being formatted into Strings.
+ * <p>
+ * Responses whose status never has a body ({@code 1xx}, {@code 204} and {@code 304}) are sent without a length or a
+ * body, even if one was set.
+ */
 public class DefaultResponseGenerator implements ResponseGenerator {
+    protected static final byte[] serverLine = HeaderEncoder.encode("Server: Glade v" + Server.version + "\r\n");
+    private static final byte[] contentTypeName = HeaderEncoder.encode("Content-Type: ");
+    private static final byte[] contentLengthName = HeaderEncoder.encode("Content-Length: ");
+    private static final byte[] chunkedLine = HeaderEncoder.encode("Transfer-Encoding: chunked\r\n");
+    private static final byte[] serverTimingName = HeaderEncoder.encode("Server-Timing: ");
+    private static final byte[] requestTimeName = HeaderEncoder.encode("X-Request-Time: ");
+    private static final byte[] requestTimeUnit = HeaderEncoder.encode("ns\r\n");
+    private static final byte[] noLine = new byte[0];
+
+    /**
+     * The constant lines of each response, with and without the keep-alive lines
+     */
+    private final byte[] keepAliveLines;
+    private final byte[] closeLines = serverLine;
+    private final @Nullable BufferPool pool;
+
+    public DefaultResponseGenerator() {
+        this(5, 1000);
+    }
+
+    /**
+     * @param keepAliveTimeout The idle timeout, in seconds, advertised in the Keep-Alive header
+     * @param maxRequests      The maximum number of requests per connection advertised in the Keep-Alive header
+     */
+    public DefaultResponseGenerator(long keepAliveTimeout, int maxRequests) {
+        this(keepAliveTimeout, maxRequests, null);
+    }
+
+    /**
+     * @param keepAliveTimeout The idle timeout, in seconds, advertised in the Keep-Alive header
+     * @param maxRequests      The maximum number of requests per connection advertised in the Keep-Alive header
+     * @param pool             The pool response heads are acquired from, or null to allocate a buffer for each
+     */
+    public DefaultResponseGenerator(long keepAliveTimeout, int maxRequests, @Nullable BufferPool pool) {
+        this.keepAliveLines = HeaderEncoder.encode("Server: Glade v" + Server.version + "\r\n"
+                + "Connection: Keep-Alive\r\n"
+                + "Keep-Alive: timeout=" + keepAliveTimeout + ", max=" + maxRequests + "\r\n");
+        this.pool = pool;
+    }
+
     @Override
     public ByteBuffer generateResponse(Event event) {
         if (!(event instanceof PageRequestEvent)) {
@@ -38,45 +89,92 @@ public class DefaultResponseGenerator implements ResponseGenerator {
         PageRequestEvent requestEvent = (PageRequestEvent) event;
         HttpResponse response = requestEvent.getResponse();
 
-        int status = response.getStatusCode();
+        byte[] statusLine = HeaderEncoder.statusLine(response.getStatusCode());
         String contentType = response.getContentType();
         ByteBuffer rawResponse = response.getBody();
+        FileRegion fileBody = response.getFileBody();
+        boolean bodiless = isBodiless(response.getStatusCode());
+        boolean chunked = !bodiless && response.getBodySource() != null;
         Map<String, String> headers = response.getHeaders();
 
-        StringBuilder generated = new StringBuilder(256);
+        long contentLength = fileBody != null ? fileBody.getCount() : (rawResponse != null ? rawResponse.limit() : 0);
+        // the connection handler sets its own Connection header when it is going to close the connection
+        byte[] constantLines = headers.containsKey("connection") ? closeLines : keepAliveLines;
+        byte[] dateLine = headers.containsKey("date") ? noLine : HttpDate.line();
+        String serverTiming = PerformanceMetrics.hasServerTiming() ? PerformanceMetrics.generateServerTimingHeader() : null;
+        long elapsedTime = System.nanoTime() - lastRequestTime;
 
-        generated.append("HTTP/1.1 ").append(status).append("\r\n");
+        int length = statusLine.length
+                + dateLine.length
+                + constantLines.length
+                + contentTypeName.length + HeaderEncoder.length(contentType) + HeaderEncoder.CRLF.length
+                + (bodiless ? 0 : chunked ? chunkedLine.length : contentLengthName.length + HeaderEncoder.length(contentLength) + HeaderEncoder.CRLF.length)
+                + (serverTiming != null ? serverTimingName.length + HeaderEncoder.length(serverTiming) + HeaderEncoder.CRLF.length : 0)
+                + HeaderEncoder.headersLength(headers)
+                + requestTimeName.length + HeaderEncoder.length(elapsedTime) + requestTimeUnit.length
+                + HeaderEncoder.CRLF.length;
+
+        ByteBuffer generated = allocate(length);
+
+        generated.put(statusLine);
+        generated.put(dateLine);
+        generated.put(constantLines);
+
+        generated.put(contentTypeName);
+        HeaderEncoder.write(generated, contentType);
+        generated.put(HeaderEncoder.CRLF);
+
+        if (bodiless) {
+            // the client knows there is no body, and a length would describe the body it was not sent
+        } else if (chunked) {
+            // the length of a streamed body is not known until it has been sent
+            generated.put(chunkedLine);
+        } else {
+            generated.put(contentLengthName);
+            HeaderEncoder.write(generated, contentLength);
+            generated.put(HeaderEncoder.CRLF);
+        }
 
-        writeHeaderLine(generated, "Content-Type", contentType);
-        writeHeaderLine(generated, "Content-Length", (rawResponse != null ? rawResponse.limit() : 0));
-        writeHeaderLine(generated, "Connection", "Keep-Alive");
-        writeHeaderLine(generated, "Keep-Alive", "timeout=5, max=1000");
-        writeHeaderLine(generated, "Server", "Glade v" + Server.version);
-        writeHeaderLine(generated, "Server-Timing", PerformanceMetrics.generateServerTimingHeader());
-        writeHeaders(generated, headers);
+        if (serverTiming != null) {
+            generated.put(serverTimingName);
+            HeaderEncoder.write(generated, serverTiming);
+            generated.put(HeaderEncoder.CRLF);
+        }
+        HeaderEncoder.writeHeaders(generated, headers);
 
-        long elapsedTime = System.nanoTime() - lastRequestTime;
-        writeLastHeaderLine(generated, "X-Request-Time", elapsedTime + "ns");
+        generated.put(requestTimeName);
+        HeaderEncoder.write(generated, elapsedTime);
+        generated.put(requestTimeUnit);
+        generated.put(HeaderEncoder.CRLF);
 
-        return StandardCharsets.UTF_8.encode(generated.toString());
+        return generated.flip();
     }
 
     @Override
     public boolean shouldCopyBody(Event event) {
-        return true;
+        return !(event instanceof PageRequestEvent)
+                || !isBodiless(((PageRequestEvent) event).getResponse().getStatusCode());
     }
 
-    protected void writeHeaders(StringBuilder builder, Map<String, String> headers) {
-        for (Map.Entry<String, String> e : headers.entrySet()) {
-            writeHeaderLine(builder, e.getKey(), e.getValue());
-        }
+    /**
+     * @return Whether responses with the given status code never have a body
+     */
+    public static boolean isBodiless(int statusCode) {
+        return statusCode < 200 || statusCode == 204 || statusCode == 304;
     }
 
-    protected StringBuilder writeLastHeaderLine(StringBuilder builder, String key, Object value) {
-        return writeHeaderLine(builder, key, value).append("\r\n");
+    @Override
+    public void release(ByteBuffer response) {
+        if (pool != null) {
+            // heads are generated on listener threads but released by connection handlers
+            pool.releaseShared(response);
+        }
     }
 
-    protected StringBuilder writeHeaderLine(StringBuilder builder, String key, Object value) {
-        return builder.append(key).append(": ").append(value).append("\r\n");
+    /**
+     * @return A buffer with room for exactly {@code length} bytes, acquired from the pool if there is one
+     */
+    protected ByteBuffer allocate(int length) {
+        return pool != null ? pool.acquire(length) : ByteBuffer.allocate(length);
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.response;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes HTTP response heads directly into byte buffers. The length of a head is computed first, so it can be written
+ * into a buffer of the right size without building a String or growing the buffer. Strings are written as UTF-8
+ * without being encoded into an intermediate array, and numbers are written as digits without being converted to
+ * Strings.
+ */
+public final class HeaderEncoder {
+    public static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] separator = {':', ' '};
+
+    private static final int minStatus = 100;
+    private static final int maxStatus = 599;
+    private static final byte[][] statusLines = new byte[maxStatus - minStatus + 1][];
+
+    static {
+        Map<Integer, String> reasons = Map.ofEntries(
+                Map.entry(100, "Continue"),
+                Map.entry(101, "Switching Protocols"),
+                Map.entry(200, "OK"),
+                Map.entry(201, "Created"),
+                Map.entry(202, "Accepted"),
+                Map.entry(204, "No Content"),
+                Map.entry(206, "Partial Content"),
+                Map.entry(301, "Moved Permanently"),
+                Map.entry(302, "Found"),
+                Map.entry(303, "See Other"),
+                Map.entry(304, "Not Modified"),
+                Map.entry(307, "Temporary Redirect"),
+                Map.entry(308, "Permanent Redirect"),
+                Map.entry(400, "Bad Request"),
+                Map.entry(401, "Unauthorized"),
+                Map.entry(403, "Forbidden"),
+                Map.entry(404, "Not Found"),
+                Map.entry(405, "Method Not Allowed"),
+                Map.entry(408, "Request Timeout"),
+                Map.entry(409, "Conflict"),
+                Map.entry(410, "Gone"),
+                Map.entry(411, "Length Required"),
+                Map.entry(412, "Precondition Failed"),
+                Map.entry(413, "Payload Too Large"),
+                Map.entry(414, "URI Too Long"),
+                Map.entry(415, "Unsupported Media Type"),
+                Map.entry(416, "Range Not Satisfiable"),
+                Map.entry(429, "Too Many Requests"),
+                Map.entry(431, "Request Header Fields Too Large"),
+                Map.entry(500, "Internal Server Error"),
+                Map.entry(501, "Not Implemented"),
+                Map.entry(502, "Bad Gateway"),
+                Map.entry(503, "Service Unavailable"),
+                Map.entry(504, "Gateway Timeout")
+        );
+
+        for (int status = minStatus; status <= maxStatus; status++) {
+            statusLines[status - minStatus] = encodeStatusLine(status, reasons.getOrDefault(status, ""));
+        }
+    }
+
+    private HeaderEncoder() {
+    }
+
+    private static byte[] encodeStatusLine(int status, String reason) {
+        return encode("HTTP/1.1 " + status + " " + reason + "\r\n");
+    }
+
+    /**
+     * Encodes a constant part of a response head once, so it can be copied into each response.
+     */
+    public static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The encoded status line, including its trailing CRLF, for the given status code
+     */
+    public static byte[] statusLine(int status) {
+        if (status < minStatus || status > maxStatus) {
+            return encodeStatusLine(status, "");
+        }
+        return statusLines[status - minStatus];
+    }
+
+    /**
+     * @return The number of bytes the given String is encoded as in UTF-8
+     */
+    public static int length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // a surrogate pair is encoded as four bytes
+                    length += 2;
+                    i++;
+                }
+                // an unpaired surrogate is written as a single '?'
+            } else if (c >= 0x800) {
+                length += 2;
+            } else if (c >= 0x80) {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return The number of digits in the decimal form of the given value, including a minus sign if it is negative
+     */
+    public static int length(long value) {
+        if (value < 0) {
+            return value == Long.MIN_VALUE ? 20 : 1 + length(-value);
+        }
+
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * @return The length of a header line with the given name and value
+     */
+    public static int headerLength(String name, String value) {
+        return length(name) + separator.length + length(value) + CRLF.length;
+    }
+
+    /**
+     * @return The length of the header lines for each of the given headers
+     */
+    public static int headersLength(Map<String, String> headers) {
+        int length = 0;
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            length += headerLength(e.getKey(), e.getValue());
+        }
+        return length;
+    }
+
+    /**
+     * Writes the given String as UTF-8. Unpaired surrogates are written as {@code ?}.
+     */
+    public static void write(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Writes the decimal digits of the given value.
+     */
+    public static void write(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            write(buffer, Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+
+        int end = buffer.position() + length(value);
+        int position = end;
+        do {
+            buffer.put(--position, (byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        buffer.position(end);
+    }
+
+    /**
+     * Writes a header line with the given name and value.
+     */
+    public static void writeHeader(ByteBuffer buffer, String name, String value) {
+        write(buffer, name);
+        buffer.put(separator);
+        write(buffer, value);
+        buffer.put(CRLF);
+    }
+
+    /**
+     * Writes a header line for each of the given headers.
+     */
+    public static void writeHeaders(ByteBuffer buffer, Map<String, String> headers) {
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            writeHeader(buffer, e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.response;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Provides the {@code Date} header line sent with each response. Dates in HTTP have a resolution of one second, so the
+ * line is formatted at most once per second and shared by every response generated within that second.
+ * <p>
+ * Each second's line is published as a new array through a volatile field, so readers never see a line that is being
+ * rewritten, and callers can tell that the second has changed by comparing arrays by identity.
+ */
+public final class HttpDate {
+    /**
+     * Formats dates as the IMF-fixdate required of HTTP dates, such as {@code Sun, 06 Nov 1994 08:49:37 GMT}
+     */
+    public static final DateTimeFormatter formatter =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile Snapshot current = new Snapshot(Long.MIN_VALUE, new byte[0]);
+
+    private HttpDate() {
+    }
+
+    /**
+     * @return The encoded {@code Date} header line for the current time, including its trailing CRLF. The array must
+     * not be modified.
+     */
+    public static byte[] line() {
+        return line(System.currentTimeMillis());
+    }
+
+    static byte[] line(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        Snapshot snapshot = current;
+
+        if (snapshot.second != second) {
+            // threads racing to format the same second produce identical lines, so either may be published
+            String date = formatter.format(Instant.ofEpochSecond(second));
+            snapshot = new Snapshot(second, HeaderEncoder.encode("Date: " + date + "\r\n"));
+            current = snapshot;
+        }
+
+        return snapshot.line;
+    }
+
+    private static class Snapshot {
+        final long second;
+        final byte[] line;
+
+        Snapshot(long second, byte[] line) {
+            this.second = second;
+            this.line = line;
+        }
+    }
+}
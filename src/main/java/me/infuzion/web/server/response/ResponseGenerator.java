@@ -24,4 +24,11 @@ public interface ResponseGenerator {
     ByteBuffer generateResponse(Event event);
 
     boolean shouldCopyBody(Event event);
+
+    /**
+     * Called by connection handlers once a response returned by {@link #generateResponse(Event)} has been written or
+     * discarded, so that its buffer can be reused.
+     */
+    default void release(ByteBuffer response) {
+    }
 }
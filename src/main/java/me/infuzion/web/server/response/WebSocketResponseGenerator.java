@@ -16,30 +16,34 @@
 
 package me.infuzion.web.server.response;
 
-import me.infuzion.web.server.Server;
 import me.infuzion.web.server.event.Event;
 import me.infuzion.web.server.event.def.PageRequestEvent;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 public class WebSocketResponseGenerator extends DefaultResponseGenerator {
+    private static final byte[] switchingProtocols = HeaderEncoder.encode("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n");
+
     @Override
     public ByteBuffer generateResponse(Event event) {
         if (!(event instanceof PageRequestEvent)) {
             return null;
         }
         PageRequestEvent pEvent = (PageRequestEvent) event;
+        Map<String, String> headers = pEvent.getResponse().getHeaders();
 
-        StringBuilder generated = new StringBuilder(256);
+        ByteBuffer generated = allocate(switchingProtocols.length + HeaderEncoder.headersLength(headers)
+                + serverLine.length + HeaderEncoder.CRLF.length);
 
-        generated.append("HTTP/1.1 101 Switching Protocols\r\n");
-        writeHeaderLine(generated, "Upgrade", "websocket");
-        writeHeaderLine(generated, "Connection", "Upgrade");
-        writeHeaders(generated, pEvent.getResponse().getHeaders());
-        writeLastHeaderLine(generated, "Server", "Glade v" + Server.version);
+        generated.put(switchingProtocols);
+        HeaderEncoder.writeHeaders(generated, headers);
+        generated.put(serverLine);
+        generated.put(HeaderEncoder.CRLF);
 
-        return ByteBuffer.wrap(generated.toString().getBytes(StandardCharsets.UTF_8));
+        return generated.flip();
     }
 
     @Override
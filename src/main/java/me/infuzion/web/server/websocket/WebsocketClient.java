@@ -27,8 +27,20 @@ import java.util.UUID;
  */
 public interface WebsocketClient {
 
+    /**
+     * @return A UUID identifying this client. The UUID is generated the first time it is requested; prefer
+     * {@link #getConnectionId()} where a UUID is not required.
+     */
     UUID getId();
 
+    /**
+     * @return The id assigned to the underlying connection when it was accepted by the server, or -1 if this client is
+     * not backed by a server connection
+     */
+    default long getConnectionId() {
+        return -1;
+    }
+
     /**
      * Sends a UTF-8 encoded string to this websocket client
      *
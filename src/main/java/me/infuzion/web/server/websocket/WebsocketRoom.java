@@ -48,7 +48,7 @@ public class WebsocketRoom {
     }
 
     public void removeClient(WebsocketClient client) {
-        removeClient(client.getId());
+        clients.remove(client);
     }
 
     public void sendToAll(String string) {
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server;
+
+import me.infuzion.web.server.event.Event;
+import me.infuzion.web.server.event.reflect.param.DefaultTypeConverter;
+import me.infuzion.web.server.network.AbstractConnectionHandler;
+import me.infuzion.web.server.network.SocketOptions;
+import me.infuzion.web.server.network.websocket.WebsocketConnectionHandler;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerOptionsTest {
+    static class RecordingConnectionHandler extends AbstractConnectionHandler<Object> {
+        final CompletableFuture<Map<String, Object>> options = new CompletableFuture<>();
+
+        @Override
+        protected void handleRead(SelectionKey key, Object client, SocketChannel clientChannel) throws Exception {
+            if (clientChannel.read(ByteBuffer.allocate(64)) == -1) {
+                removeClient(key);
+            }
+        }
+
+        @Override
+        protected void handleWrite(SelectionKey key, Object client, SocketChannel clientChannel) {
+        }
+
+        @Override
+        protected Object handleNewClient(SelectionKey key, SocketChannel client, long clientId, @Nullable Event event) {
+            try {
+                options.complete(Map.of(
+                        "nodelay", client.getOption(StandardSocketOptions.TCP_NODELAY),
+                        "keepalive", client.getOption(StandardSocketOptions.SO_KEEPALIVE),
+                        "linger", client.getOption(StandardSocketOptions.SO_LINGER)
+                ));
+            } catch (Exception e) {
+                options.completeExceptionally(e);
+            }
+            return new Object();
+        }
+
+        @Override
+        protected void handleRemoveClient(Object client) {
+        }
+    }
+
+    @Test
+    void appliesDefaultAndHandlerOptions() throws Exception {
+        ServerOptions options = new ServerOptions()
+                .setBacklog(16)
+                .setSocketOptions(new SocketOptions().setTcpNoDelay(true).setKeepAlive(false))
+                .setSocketOptions(RecordingConnectionHandler.class, new SocketOptions().setKeepAlive(true).setLinger(3));
+
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0), new DefaultTypeConverter(), options);
+        RecordingConnectionHandler handler = new RecordingConnectionHandler();
+        server.registerConnectionHandler(handler);
+        server.setDefaultConnectionHandler(RecordingConnectionHandler.class);
+
+        InetSocketAddress address = server.getAddress();
+        ServerTest.startInBackground(server);
+
+        try (Socket ignored = new Socket(address.getAddress(), address.getPort())) {
+            Map<String, Object> applied = handler.options.get(5, TimeUnit.SECONDS);
+
+            assertEquals(true, applied.get("nodelay"));
+            // handler options are applied after, and override, the defaults
+            assertEquals(true, applied.get("keepalive"));
+            assertEquals(3, applied.get("linger"));
+        }
+    }
+
+    @Test
+    void websocketsDisableNagleByDefault() {
+        SocketOptions options = new ServerOptions().getSocketOptions(WebsocketConnectionHandler.class);
+
+        assertNotNull(options);
+        assertEquals(true, options.getTcpNoDelay());
+        assertNull(new ServerOptions().getSocketOptions().getTcpNoDelay());
+    }
+
+    @Test
+    void invalidOptions() {
+        assertThrows(IllegalArgumentException.class, () -> new ServerOptions().setAcceptorThreads(0));
+        assertThrows(IllegalArgumentException.class, () -> new ServerOptions().setBacklog(-1));
+        assertThrows(IllegalArgumentException.class, () -> new SocketOptions().setReceiveBufferSize(0));
+    }
+}
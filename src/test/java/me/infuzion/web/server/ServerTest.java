@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server;
+
+import me.infuzion.web.server.event.reflect.param.DefaultTypeConverter;
+import me.infuzion.web.server.network.AdmissionControl;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerTest {
+    static void startInBackground(Server server) {
+        Thread t = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Test
+    void multipleAcceptors() throws Exception {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0), new DefaultTypeConverter(), 4);
+        InetSocketAddress address = server.getAddress();
+        startInBackground(server);
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 32; i++) {
+                sockets.add(new Socket(address.getAddress(), address.getPort()));
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (server.getAcceptedConnections() < 32 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(32, server.getAcceptedConnections());
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    static void sendRequest(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Test
+    void closesConnectionsOverLimit() throws Exception {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        server.setAdmissionControl(new AdmissionControl().setMaxConnectionsPerAddress(2));
+        InetSocketAddress address = server.getAddress();
+        startInBackground(server);
+
+        try (Socket first = new Socket(address.getAddress(), address.getPort());
+             Socket second = new Socket(address.getAddress(), address.getPort());
+             Socket third = new Socket(address.getAddress(), address.getPort())) {
+            waitFor(() -> server.getRejectedConnections() == 1);
+            assertEquals(1, server.getRejectedConnections());
+
+            third.setSoTimeout(5000);
+            assertEquals(-1, third.getInputStream().read());
+
+            // closing an admitted connection frees its slot
+            first.close();
+            waitFor(() -> server.getAdmissionControl().getOpenConnections() == 1);
+
+            try (Socket fourth = new Socket(address.getAddress(), address.getPort())) {
+                waitFor(() -> server.getAdmissionControl().getOpenConnections() == 2);
+                assertEquals(2, server.getAdmissionControl().getOpenConnections());
+                assertEquals(1, server.getRejectedConnections());
+            }
+        }
+    }
+
+    @Test
+    void pausesAcceptingAtLimit() throws Exception {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        server.setAdmissionControl(new AdmissionControl()
+                .setMaxConnections(1)
+                .setOverflowPolicy(AdmissionControl.OverflowPolicy.PAUSE));
+        InetSocketAddress address = server.getAddress();
+        startInBackground(server);
+
+        try (Socket first = new Socket(address.getAddress(), address.getPort());
+             Socket second = new Socket(address.getAddress(), address.getPort())) {
+            waitFor(() -> server.getAcceptedConnections() == 1);
+
+            // the second connection waits in the backlog and is not served
+            sendRequest(second);
+            second.setSoTimeout(300);
+            assertThrows(SocketTimeoutException.class, () -> second.getInputStream().read());
+            assertEquals(1, server.getAcceptedConnections());
+            assertEquals(0, server.getRejectedConnections());
+
+            first.close();
+            second.setSoTimeout(5000);
+            InputStream in = second.getInputStream();
+            assertTrue(in.read() != -1);
+            assertEquals(2, server.getAcceptedConnections());
+        }
+    }
+
+    @Test
+    void reportsMemoryUsage() throws Exception {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        InetSocketAddress address = server.getAddress();
+        startInBackground(server);
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            // a partial request holds a read buffer until the connection is closed
+            socket.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+            waitFor(() -> server.getMemoryUsed() > 0);
+            assertTrue(server.getMemoryUsed() > 0);
+            assertTrue(server.getPeakMemoryUsed() >= server.getMemoryUsed());
+        }
+
+        waitFor(() -> server.getMemoryUsed() == 0);
+        assertEquals(0, server.getMemoryUsed());
+        assertTrue(server.getPeakMemoryUsed() > 0);
+        assertEquals(0, server.getPausedConnections());
+        assertEquals(0, server.getMemoryPauseCount());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time for the server to accept a burst of new connections, opened by several client threads at once. Clients
+ * reset each connection as soon as it is established, so the burst measures the accept loops rather than the handler
+ * serving the connections. Closing them normally would leave every client port in TIME_WAIT, and a burst larger than
+ * the ephemeral port range would then measure the kernel's search for a free port.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class AcceptBenchmark {
+    private static final int clientThreads = 8;
+
+    @Param({"1", "4"})
+    int acceptors;
+
+    @Param({"50000"})
+    int connections;
+
+    /**
+     * The listen backlog of each listening channel. Connections that arrive while the backlog is full are retried by the
+     * client after a second or more, which then dominates the burst.
+     */
+    @Param({"4096"})
+    int backlog;
+
+    Server server;
+    InetSocketAddress address;
+    ExecutorService clients;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        server = BenchmarkServer.start(new ServerOptions().setAcceptorThreads(acceptors).setBacklog(backlog),
+                new HttpConnectionHandler(1, BenchmarkServer.config()));
+        address = server.getAddress();
+        // the handler logs each reset connection as a warning
+        BenchmarkServer.logger.setLevel(java.util.logging.Level.SEVERE);
+        clients = Executors.newFixedThreadPool(clientThreads, r -> {
+            Thread t = new Thread(r, "Benchmark client");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Waits for the handler to close the previous burst's connections, which otherwise accumulate until the process runs
+     * out of file descriptors when the handler is slower than the accept loops.
+     */
+    @TearDown(Level.Iteration)
+    public void drain() throws InterruptedException {
+        while (server.getAdmissionControl().getOpenConnections() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Benchmark
+    public long burst() throws Exception {
+        long target = server.getAcceptedConnections() + connections;
+
+        List<Future<?>> opened = new ArrayList<>();
+        for (int i = 0; i < clientThreads; i++) {
+            int count = connections / clientThreads + (i < connections % clientThreads ? 1 : 0);
+            opened.add(clients.submit(() -> {
+                for (int j = 0; j < count; j++) {
+                    try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+                        socket.setSoLinger(true, 0);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : opened) {
+            future.get();
+        }
+
+        // connections are established by the kernel, so the burst ends once the last one has been accepted
+        while (server.getAcceptedConnections() < target) {
+            Thread.onSpinWait();
+        }
+        return server.getAcceptedConnections();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A keep-alive connection to a benchmark server that sends a fixed request and reads whole responses, parsing only as
+ * much of each head as is needed to find the end of its body.
+ */
+final class BenchmarkClient implements Closeable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+    private final byte[] request;
+
+    BenchmarkClient(InetSocketAddress address, String path) throws IOException {
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(10000);
+        out = socket.getOutputStream();
+        in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: Glade benchmark\r\n"
+                + "Accept: */*\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Sends the request and reads its response.
+     *
+     * @return The length of the response body
+     */
+    long request() throws IOException {
+        send(1);
+        return readResponse();
+    }
+
+    /**
+     * Writes the request {@code count} times in a single write, without waiting for responses.
+     */
+    void send(int count) throws IOException {
+        if (count == 1) {
+            out.write(request);
+        } else {
+            byte[] requests = new byte[request.length * count];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(request, 0, requests, i * request.length, request.length);
+            }
+            out.write(requests);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return The length of the body of the next response, which is read and discarded
+     */
+    long readResponse() throws IOException {
+        long contentLength = -1;
+        boolean chunked = false;
+
+        // reads the head line by line, matching only the framing headers
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            line.setLength(0);
+            readLine(line);
+            if (line.length() == 0) {
+                break;
+            }
+            if (startsWithIgnoreCase(line, "content-length:")) {
+                contentLength = Long.parseLong(line.substring(15).trim());
+            } else if (startsWithIgnoreCase(line, "transfer-encoding:")) {
+                chunked = true;
+            }
+        }
+
+        if (!chunked) {
+            skip(Math.max(contentLength, 0));
+            return Math.max(contentLength, 0);
+        }
+
+        long total = 0;
+        while (true) {
+            line.setLength(0);
+            readLine(line);
+            long size = Long.parseLong(line.toString().trim(), 16);
+            if (size == 0) {
+                line.setLength(0);
+                readLine(line);
+                return total;
+            }
+            skip(size);
+            line.setLength(0);
+            readLine(line);
+            total += size;
+        }
+    }
+
+    private void readLine(StringBuilder line) throws IOException {
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b == -1) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new IOException("Connection closed");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence line, String prefix) {
+        return line.length() >= prefix.length() && line.subSequence(0, prefix.length()).toString().equalsIgnoreCase(prefix);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
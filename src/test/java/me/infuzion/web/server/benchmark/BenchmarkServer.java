@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.EventListener;
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.event.def.WebSocketMessageEvent;
+import me.infuzion.web.server.event.reflect.EventHandler;
+import me.infuzion.web.server.event.reflect.Route;
+import me.infuzion.web.server.event.reflect.param.DefaultTypeConverter;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.QueryParam;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.Response;
+import me.infuzion.web.server.http.BodySource;
+import me.infuzion.web.server.network.ConnectionHandler;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts servers for the benchmarks that measure the server over loopback connections. The servers answer
+ * {@code /plaintext} with a short text body and {@code /stream?size=n} with a streamed body of {@code n} bytes, and echo
+ * websocket messages, and are left running until the benchmark's
+ * JVM exits.
+ */
+final class BenchmarkServer {
+    /**
+     * Kept so the level is not lost when the logger is collected; the server logs every request at INFO
+     */
+    static final Logger logger = Logger.getLogger("me.infuzion");
+
+    private BenchmarkServer() {
+    }
+
+    /**
+     * @return The limits for benchmark connections, which are kept open for as many requests as a run makes
+     */
+    static HttpConnectionHandler.Config config() {
+        return new HttpConnectionHandler.Config().setMaxRequests(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param handler The handler to serve connections with, replacing the default handler of the same class
+     */
+    static Server start(ServerOptions options, ConnectionHandler handler) throws IOException {
+        logger.setLevel(Level.WARNING);
+
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0), new DefaultTypeConverter(), options);
+        server.registerConnectionHandler(handler);
+        server.setDefaultConnectionHandler(handler.getClass());
+        server.getEventManager().registerListener(new EventListener() {
+            @EventHandler
+            @Route("/plaintext")
+            @Response("text/plain")
+            public String plaintext(PageRequestEvent e) {
+                return "Hello, World!";
+            }
+
+            @EventHandler
+            @Route("/stream")
+            public void stream(PageRequestEvent e, @QueryParam("size") String size) {
+                e.getResponse().setContentType("application/octet-stream");
+                e.getResponse().setBodySource(new RepeatingSource(Long.parseLong(size)));
+            }
+
+            @EventHandler(WebSocketMessageEvent.class)
+            public void echo(WebSocketMessageEvent e) {
+                e.getClient().sendFrame(e.getOpcode(), e.getRawRequestData());
+            }
+        });
+
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "Benchmark server");
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    /**
+     * Produces a body of the given length by repeating a fixed block, so producing it costs little beyond the copy.
+     */
+    static final class RepeatingSource implements BodySource {
+        private static final byte[] block = new byte[8192];
+
+        static {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) ('a' + i % 26);
+            }
+        }
+
+        private long remaining;
+
+        RepeatingSource(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int count = (int) Math.min(Math.min(buffer.remaining(), block.length), remaining);
+            buffer.put(block, 0, count);
+            remaining -= count;
+            return count;
+        }
+    }
+}
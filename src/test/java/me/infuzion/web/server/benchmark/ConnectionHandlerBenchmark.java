@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.BlockingHttpConnectionHandler;
+import me.infuzion.web.server.network.ConnectionHandler;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import me.infuzion.web.server.network.SocketOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the selector based {@link HttpConnectionHandler} with the thread-per-connection
+ * {@link BlockingHttpConnectionHandler}, with one keep-alive connection per benchmark thread. Pipelined operations
+ * send {@value #pipelineDepth} requests in one write before reading their responses, and are scored per request.
+ * <p>
+ * TCP_NODELAY is enabled for both handlers. Without it, each pipelined batch stalls until the client's delayed ACK,
+ * because the responses after the first are small writes made while the first is unacknowledged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConnectionHandlerBenchmark {
+    private static final int pipelineDepth = 16;
+
+    @Param({"selector", "blocking"})
+    String handler;
+
+    InetSocketAddress address;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        ConnectionHandler connectionHandler;
+        switch (handler) {
+            case "selector":
+                connectionHandler = new HttpConnectionHandler(1, BenchmarkServer.config());
+                break;
+            case "blocking":
+                connectionHandler = new BlockingHttpConnectionHandler(BenchmarkServer.config());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown handler: " + handler);
+        }
+        ServerOptions options = new ServerOptions()
+                .setSocketOptions(connectionHandler.getClass(), new SocketOptions().setTcpNoDelay(true));
+        Server server = BenchmarkServer.start(options, connectionHandler);
+        address = server.getAddress();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        BenchmarkClient client;
+
+        @Setup(Level.Trial)
+        public void open(ConnectionHandlerBenchmark benchmark) throws IOException {
+            client = new BenchmarkClient(benchmark.address, "/plaintext");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public long keepAlive(Connection connection) throws IOException {
+        return connection.client.request();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(pipelineDepth)
+    public long pipelined(Connection connection) throws IOException {
+        connection.client.send(pipelineDepth);
+        long length = 0;
+        for (int i = 0; i < pipelineDepth; i++) {
+            length += connection.client.readResponse();
+        }
+        return length;
+    }
+}
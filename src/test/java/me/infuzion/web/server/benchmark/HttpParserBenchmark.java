@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.http.parser.HttpParser;
+import me.infuzion.web.server.http.parser.HttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of parsing the head of a request as a browser sends it, and of reading the fields a typical listener uses.
+ * The request is either parsed once it has been received in full, or as each {@value #fragmentSize} byte fragment of it
+ * arrives, as from a slow client. Fragments are parsed either by resuming from the state of the previous call, or by
+ * starting over each time. Run with {@code -prof gc} to see the bytes allocated per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HttpParserBenchmark {
+    private static final int fragmentSize = 64;
+
+    private static final String browserRequest = "GET /articles/2024/parsing-http?page=2&sort=recent HTTP/1.1\r\n"
+            + "Host: www.example.com\r\n"
+            + "Connection: keep-alive\r\n"
+            + "sec-ch-ua: \"Chromium\";v=\"124\", \"Google Chrome\";v=\"124\", \"Not-A.Brand\";v=\"99\"\r\n"
+            + "sec-ch-ua-mobile: ?0\r\n"
+            + "sec-ch-ua-platform: \"Windows\"\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) "
+            + "Chrome/124.0.0.0 Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,"
+            + "application/signed-exchange;v=b3;q=0.7\r\n"
+            + "Sec-Fetch-Site: same-origin\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "Sec-Fetch-User: ?1\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Referer: https://www.example.com/articles/2024/\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Accept-Language: en-US,en;q=0.9\r\n"
+            + "Cookie: session=8f14e45fceea167a5a36dedd4bea2543; theme=dark; _ga=GA1.1.1234567890.1700000000\r\n"
+            + "\r\n";
+
+    HttpParser parser;
+    HttpParser.State state;
+    ByteBuffer buffer;
+    int length;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        parser = new HttpParser();
+        state = new HttpParser.State();
+
+        byte[] request = browserRequest.getBytes(StandardCharsets.US_ASCII);
+        length = request.length;
+        buffer = ByteBuffer.allocate(4096);
+        buffer.put(request);
+    }
+
+    @Benchmark
+    public void whole(Blackhole blackhole) {
+        buffer.position(length);
+        read(parser.parse(buffer), blackhole);
+    }
+
+    @Benchmark
+    public void fragmented(Blackhole blackhole) {
+        HttpRequest request = null;
+        for (int end = fragmentSize; request == null; end += fragmentSize) {
+            buffer.position(Math.min(end, length));
+            request = parser.parse(buffer, state);
+        }
+        read(request, blackhole);
+    }
+
+    @Benchmark
+    public void rescanned(Blackhole blackhole) {
+        HttpRequest request = null;
+        for (int end = fragmentSize; request == null; end += fragmentSize) {
+            buffer.position(Math.min(end, length));
+            request = parser.parse(buffer);
+        }
+        read(request, blackhole);
+    }
+
+    private static void read(HttpRequest request, Blackhole blackhole) {
+        blackhole.consume(request.getMethod());
+        blackhole.consume(request.getPath());
+        blackhole.consume(request.getQuery());
+        blackhole.consume(request.getHeaders().get("host"));
+        blackhole.consume(request.getHeaders().get("cookie"));
+        blackhole.consume(request.getHeaders().get("accept-encoding"));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second over keep-alive connections, with one connection per benchmark thread. The number of selector
+ * loops only helps once there are more cores than loops to run them on, alongside the client threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class KeepAliveBenchmark {
+    @Param({"1", "2", "4", "8"})
+    int loops;
+
+    InetSocketAddress address;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Server server = BenchmarkServer.start(new ServerOptions(), new HttpConnectionHandler(loops, BenchmarkServer.config()));
+        address = server.getAddress();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        BenchmarkClient client;
+
+        @Setup(Level.Trial)
+        public void open(KeepAliveBenchmark benchmark) throws IOException {
+            client = new BenchmarkClient(benchmark.address, "/plaintext");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    public long request(Connection connection) throws IOException {
+        return connection.client.request();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import me.infuzion.web.server.network.wait.WaitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency distribution of a single request on an otherwise idle keep-alive connection, for each of the selector
+ * loop's wait strategies. The spinning strategies only pay off when the loop has a core to itself; sharing one with
+ * the client, they delay it instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LatencyBenchmark {
+    @Param({"blocking", "busySpin", "spinThenYield", "spinThenPark"})
+    String waitStrategy;
+
+    BenchmarkClient client;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        HttpConnectionHandler handler = new HttpConnectionHandler(1, BenchmarkServer.config());
+        handler.setWaitStrategy(waitStrategy());
+        Server server = BenchmarkServer.start(new ServerOptions(), handler);
+        client = new BenchmarkClient(server.getAddress(), "/plaintext");
+    }
+
+    private WaitStrategy waitStrategy() {
+        switch (waitStrategy) {
+            case "blocking":
+                return WaitStrategy.blocking();
+            case "busySpin":
+                return WaitStrategy.busySpin();
+            case "spinThenYield":
+                return WaitStrategy.spinThenYield(1000);
+            case "spinThenPark":
+                return WaitStrategy.spinThenPark(1000, 50_000);
+            default:
+                throw new IllegalArgumentException(waitStrategy);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Benchmark
+    public long request() throws IOException {
+        return client.request();
+    }
+}
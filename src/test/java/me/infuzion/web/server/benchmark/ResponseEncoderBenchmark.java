@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.HttpMethod;
+import me.infuzion.web.server.http.parser.BodyData;
+import me.infuzion.web.server.http.parser.HttpRequest;
+import me.infuzion.web.server.network.BufferPool;
+import me.infuzion.web.server.response.DefaultResponseGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of encoding the head of a small text response with {@link DefaultResponseGenerator}, with heads acquired
+ * from a {@link BufferPool} and released after each response, or allocated for each. Run with {@code -prof gc} to see
+ * the bytes allocated per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseEncoderBenchmark {
+    @Param({"true", "false"})
+    boolean pooled;
+
+    DefaultResponseGenerator generator;
+    PageRequestEvent event;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        generator = pooled ? new DefaultResponseGenerator(5, 1000, new BufferPool()) : new DefaultResponseGenerator(5, 1000);
+
+        HttpRequest request = new HttpRequest(HttpMethod.GET, "/plaintext", "", "HTTP/1.1", Map.of("Host", "localhost"), null);
+        event = new PageRequestEvent(request, new BodyData(Collections.emptyMap()));
+        event.getResponse().setStatusCode(200);
+        event.getResponse().setContentType("text/plain");
+        event.getResponse().setHeader("Cache-Control", "no-cache");
+        event.getResponse().setBody("Hello, World!");
+    }
+
+    @Benchmark
+    public int encode() {
+        ByteBuffer head = generator.generateResponse(event);
+        int length = head.remaining();
+        generator.release(head);
+        return length;
+    }
+}
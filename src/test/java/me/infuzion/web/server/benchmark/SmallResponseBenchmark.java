@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import me.infuzion.web.server.network.SocketOptions;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second for small responses from {@link HttpConnectionHandler}, with and without TCP_NODELAY, on a
+ * single keep-alive connection. Pipelined operations send {@value #pipelineDepth} requests in one write and are
+ * scored per request.
+ * <p>
+ * The number of TCP segments sent is reported alongside the number of requests, from the kernel's counters in
+ * {@code /proc/net/snmp}. The count covers both ends of the loopback connection, including ACKs, and other traffic on
+ * the machine, so it is only meaningful on an otherwise idle machine. It reads as zero where the file is missing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SmallResponseBenchmark {
+    private static final int pipelineDepth = 16;
+
+    @Param({"false", "true"})
+    boolean tcpNoDelay;
+
+    BenchmarkClient client;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        ServerOptions options = new ServerOptions()
+                .setSocketOptions(HttpConnectionHandler.class, new SocketOptions().setTcpNoDelay(tcpNoDelay));
+        Server server = BenchmarkServer.start(options, new HttpConnectionHandler(1, BenchmarkServer.config()));
+        client = new BenchmarkClient(server.getAddress(), "/plaintext");
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Segments {
+        long start;
+        public long requests;
+        public long segments;
+
+        @Setup(Level.Iteration)
+        public void begin() throws IOException {
+            requests = 0;
+            segments = 0;
+            start = sentSegments();
+        }
+
+        @TearDown(Level.Iteration)
+        public void end() throws IOException {
+            segments = sentSegments() - start;
+        }
+
+        private static long sentSegments() throws IOException {
+            Path snmp = Paths.get("/proc/net/snmp");
+            if (!Files.isReadable(snmp)) {
+                return 0;
+            }
+
+            // a header line naming the TCP counters is followed by a line with their values
+            List<String> lines = Files.readAllLines(snmp);
+            for (int i = 0; i + 1 < lines.size(); i++) {
+                if (lines.get(i).startsWith("Tcp:") && lines.get(i + 1).startsWith("Tcp:")) {
+                    String[] names = lines.get(i).split(" ");
+                    String[] values = lines.get(i + 1).split(" ");
+                    for (int j = 0; j < names.length; j++) {
+                        if (names[j].equals("OutSegs")) {
+                            return Long.parseLong(values[j]);
+                        }
+                    }
+                }
+            }
+            return 0;
+        }
+    }
+
+    @Benchmark
+    public long keepAlive(Segments segments) throws IOException {
+        segments.requests++;
+        return client.request();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(pipelineDepth)
+    public long pipelined(Segments segments) throws IOException {
+        segments.requests += pipelineDepth;
+        client.send(pipelineDepth);
+        long length = 0;
+        for (int i = 0; i < pipelineDepth; i++) {
+            length += client.readResponse();
+        }
+        return length;
+    }
+}
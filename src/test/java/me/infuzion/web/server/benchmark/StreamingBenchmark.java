@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.BlockingHttpConnectionHandler;
+import me.infuzion.web.server.network.ConnectionHandler;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time taken to download a large body streamed from a {@link me.infuzion.web.server.http.BodySource} with chunked
+ * encoding. At the end of each trial, the peak memory charged to the server's memory budget is printed, which shows
+ * that only a few buffers are held however large the body is. Run with {@code -prof gc} to see the bytes allocated
+ * per download.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class StreamingBenchmark {
+    @Param({"selector", "blocking"})
+    String handler;
+
+    @Param({"1073741824"})
+    long size;
+
+    Server server;
+    BenchmarkClient client;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        ConnectionHandler connectionHandler;
+        switch (handler) {
+            case "selector":
+                connectionHandler = new HttpConnectionHandler(1, BenchmarkServer.config());
+                break;
+            case "blocking":
+                connectionHandler = new BlockingHttpConnectionHandler(BenchmarkServer.config());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown handler: " + handler);
+        }
+        server = BenchmarkServer.start(new ServerOptions(), connectionHandler);
+        client = new BenchmarkClient(server.getAddress(), "/stream?size=" + size);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        client.close();
+        System.out.println("Peak memory charged: " + server.getPeakMemoryUsed() + " bytes");
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        long length = client.request();
+        if (length != size) {
+            throw new IOException("Received " + length + " of " + size + " bytes");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.benchmark;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import me.infuzion.web.server.network.SocketOptions;
+import me.infuzion.web.server.network.websocket.WebsocketConnectionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The round-trip time of small websocket messages echoed by the server, with and without TCP_NODELAY on the
+ * websocket handler's connections. Each operation sends {@code frames} masked 16 byte text frames in one write and
+ * waits for all of their echoes. Nagle's algorithm holds back each echo written while an earlier one is
+ * unacknowledged, so it shows once more than one frame is in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WebsocketEchoBenchmark {
+    private static final int payloadLength = 16;
+
+    @Param({"true", "false"})
+    boolean tcpNoDelay;
+
+    @Param({"1", "2"})
+    int frames;
+
+    Socket socket;
+    OutputStream out;
+    InputStream in;
+    byte[] request;
+    byte[] response;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Server server = BenchmarkServer.start(new ServerOptions()
+                        .setSocketOptions(WebsocketConnectionHandler.class, new SocketOptions().setTcpNoDelay(tcpNoDelay)),
+                new HttpConnectionHandler(1, BenchmarkServer.config()));
+        InetSocketAddress address = server.getAddress();
+
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(10000);
+        out = socket.getOutputStream();
+        in = new BufferedInputStream(socket.getInputStream());
+
+        out.write(("GET /echo HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade\r\nUpgrade: websocket\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        readHandshake();
+
+        // a masked text frame, as clients must send, with the mask and payload fixed for every message
+        byte[] frame = new byte[2 + 4 + payloadLength];
+        frame[0] = (byte) 0x81;
+        frame[1] = (byte) (0x80 | payloadLength);
+        byte[] mask = {0x12, 0x34, 0x56, 0x78};
+        System.arraycopy(mask, 0, frame, 2, 4);
+        for (int i = 0; i < payloadLength; i++) {
+            frame[6 + i] = (byte) (('a' + i) ^ mask[i % 4]);
+        }
+
+        request = new byte[frame.length * frames];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(frame, 0, request, i * frame.length, frame.length);
+        }
+        response = new byte[(2 + payloadLength) * frames];
+    }
+
+    private void readHandshake() throws IOException {
+        int matched = 0;
+        StringBuilder head = new StringBuilder();
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed during the handshake");
+            }
+            head.append((char) b);
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        if (!head.toString().startsWith("HTTP/1.1 101")) {
+            throw new IOException("Upgrade refused: " + head);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    @Benchmark
+    public byte[] echo() throws IOException {
+        out.write(request);
+        out.flush();
+
+        // the echoes are unmasked frames with the same payload
+        int read = 0;
+        while (read < response.length) {
+            int count = in.read(response, read, response.length - read);
+            if (count == -1) {
+                throw new IOException("Connection closed");
+            }
+            read += count;
+        }
+        return response;
+    }
+}
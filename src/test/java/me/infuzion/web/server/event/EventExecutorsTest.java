@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.event;
+
+import me.infuzion.web.server.EventListener;
+import me.infuzion.web.server.event.reflect.EventHandler;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventExecutorsTest {
+    static class TestEvent extends AbstractEvent {
+    }
+
+    @Test
+    void virtualThreadSupportMatchesRuntime() {
+        assertEquals(Runtime.version().feature() >= 21, EventExecutors.isVirtualThreadSupported());
+
+        if (!EventExecutors.isVirtualThreadSupported()) {
+            assertThrows(UnsupportedOperationException.class, EventExecutors::newVirtualThreadExecutor);
+        }
+    }
+
+    @Test
+    void preferredExecutorRunsManyBlockingTasks() throws InterruptedException {
+        ExecutorService executor = EventExecutors.newExecutor(true);
+        CountDownLatch done = new CountDownLatch(1000);
+
+        try {
+            for (int i = 0; i < 1000; i++) {
+                executor.execute(() -> {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ignored) {
+                    }
+                    done.countDown();
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void eventManagerUsesGivenExecutor() throws Exception {
+        ExecutorService executor = EventExecutors.newExecutor(true);
+        EventManager manager = new EventManager(executor);
+        CompletableFuture<Thread> listenerThread = new CompletableFuture<>();
+        CompletableFuture<Thread> callbackThread = new CompletableFuture<>();
+
+        manager.registerListener(new EventListener() {
+            @EventHandler
+            public void listener(TestEvent event) {
+                listenerThread.complete(Thread.currentThread());
+            }
+        });
+
+        try {
+            manager.fireEvent(new TestEvent(), e -> callbackThread.complete(Thread.currentThread()));
+
+            Thread thread = listenerThread.get(5, TimeUnit.SECONDS);
+            assertNotSame(Thread.currentThread(), thread);
+            assertSame(thread, callbackThread.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -101,5 +101,231 @@ class HttpParserTest {
         });
     }
 
+    @Test
+    void parseIncrementally() {
+        HttpParser parser = new HttpParser();
+        HttpParser.State state = new HttpParser.State();
+
+        byte[] request = ("POST /submit HTTP/1.1\r\n" +
+                "Host: example.com\r\n" +
+                "Content-Length: 5\r\n" +
+                "\r\n" +
+                "hello").getBytes(StandardCharsets.UTF_8);
+        int headerEnd = request.length - 5;
+
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        HttpRequest ret = null;
+        for (int i = 0; i < request.length; i++) {
+            assertNull(ret);
+            buffer.put(request[i]);
+            buffer.limit(buffer.position());
+
+            ret = parser.parse(buffer, state);
+
+            if (ret == null) {
+                assertEquals(i + 1 >= headerEnd, state.isHeaderComplete());
+                buffer.position(buffer.limit());
+                buffer.limit(buffer.capacity());
+            }
+        }
+
+        assertNotNull(ret);
+        assertEquals(HttpMethod.POST, ret.getMethod());
+        assertEquals("/submit", ret.getPath());
+        assertEquals("example.com", ret.getHeader("host"));
+        assertEquals("hello", ret.getBody());
+        assertEquals(request.length, buffer.position());
+        assertEquals(headerEnd, state.getHeaderEnd());
+    }
+
+    @Test
+    void detach() {
+        HttpParser parser = new HttpParser();
+
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode("POST /a%20b?c=d HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "X-Custom: value\r\n" +
+                "Content-Length: 4\r\n" +
+                "\r\n" +
+                "body");
+        buffer.position(buffer.limit());
+
+        HttpRequest ret = parser.parse(buffer);
+        assertNotNull(ret);
+        ret.detach();
+
+        // the buffer is reused for another request
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 'x');
+        }
+
+        assertEquals("/a b", ret.getPath());
+        assertEquals("c=d", ret.getQuery());
+        assertEquals("HTTP/1.1", ret.getVersion());
+        assertEquals("localhost", ret.getHeaders().get("host"));
+        assertEquals("value", ret.getHeaders().get("X-Custom"));
+        assertEquals(StandardCharsets.UTF_8.encode("body"), ret.getRawBody());
+    }
+
+    @Test
+    void parsePipelined() {
+        HttpParser parser = new HttpParser();
+        HttpParser.State state = new HttpParser.State();
+
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode("GET /first HTTP/1.1\r\nHost: a\r\n\r\n" +
+                "GET /second HTTP/1.1\r\nHost: b\r\n\r\n");
+        buffer.position(buffer.limit());
+
+        HttpRequest first = parser.parse(buffer, state);
+        assertNotNull(first);
+        assertEquals("/first", first.getPath());
+
+        // the handlers move the remaining data to the start of the buffer before parsing the next request
+        buffer.compact();
+        HttpRequest second = parser.parse(buffer, state);
+        assertNotNull(second);
+        assertEquals("/second", second.getPath());
+        assertEquals("b", second.getHeader("HOST"));
+    }
+
+    @Test
+    void parseHeaders() {
+        HttpParser parser = new HttpParser();
+
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode("get /a%20b/%C3%A9?x=%26&y=2#frag HTTP/1.1\r\n" +
+                "Accept:text/html  \r\n" +
+                "X-Repeated: 1\r\n" +
+                "x-repeated: 2\r\n" +
+                "\r\n");
+        buffer.position(buffer.limit());
+
+        HttpRequest ret = parser.parse(buffer);
+
+        assertNotNull(ret);
+        assertEquals(HttpMethod.GET, ret.getMethod());
+        assertEquals("/a b/\u00e9", ret.getPath());
+        assertEquals("x=&&y=2", ret.getQuery());
+        assertEquals("text/html", ret.getHeader("Accept"));
+        assertEquals("2", ret.getHeader("X-Repeated"));
+        assertNull(ret.getHeader("Accept-Encoding"));
+        assertEquals("2", ret.getHeaders().get("X-REPEATED"));
+        assertTrue(ret.getHeaders().containsKey("accept"));
+    }
+
+    @Test
+    void parseAbsoluteTarget() {
+        HttpParser parser = new HttpParser();
+
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode("GET http://example.com/index.html?q HTTP/1.1\n\n");
+        buffer.position(buffer.limit());
+
+        HttpRequest ret = parser.parse(buffer);
+
+        assertNotNull(ret);
+        assertEquals("/index.html", ret.getPath());
+        assertEquals("q", ret.getQuery());
+    }
+
+    @Test
+    void parseMalformed() {
+        for (String request : new String[]{
+                "FETCH / HTTP/1.1\r\n\r\n",
+                "GET / HTTP/1.1 extra\r\n\r\n",
+                "GET /a|b HTTP/1.1\r\n\r\n",
+                "GET /%zz HTTP/1.1\r\n\r\n",
+                "GET / HTTP/1.1\r\nContent-Length: -1\r\n\r\n",
+                "GET / HTTP/1.1\r\nContent-Length: 99999999999\r\n\r\n",
+                "POST / HTTP/1.1\r\nContent-Length: 0\r\nContent-Length: 50\r\n\r\n",
+                "GET / HTTP/1.1\r\nNo separator\r\n\r\n"
+        }) {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(request);
+            buffer.position(buffer.limit());
+
+            assertThrows(ParseException.class, () -> new HttpParser().parse(buffer), request);
+        }
+    }
+
+    @Test
+    void parseRepeatedContentLength() {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode("POST / HTTP/1.1\r\n" +
+                "Content-Length: 4\r\n" +
+                "Content-Length: 4\r\n" +
+                "\r\n" +
+                "body");
+        buffer.position(buffer.limit());
 
-}
\ No newline at end of file
+        HttpRequest ret = new HttpParser().parse(buffer);
+
+        assertNotNull(ret);
+        assertEquals("body", ret.getBody());
+    }
+
+    @Test
+    void parseChunked() {
+        HttpParser parser = new HttpParser();
+        HttpParser.State state = new HttpParser.State();
+
+        byte[] request = ("POST /upload HTTP/1.1\r\n" +
+                "Transfer-Encoding: Chunked\r\n" +
+                "\r\n" +
+                "5;ext=1\r\nhello\r\n" +
+                "7\r\n, world\r\n" +
+                "0\r\n" +
+                "X-Checksum: abc\r\n" +
+                "Content-Length: 1\r\n" +
+                "\r\n" +
+                "GET /next HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(request.length);
+        HttpRequest ret = null;
+        for (int i = 0; i < request.length && ret == null; i++) {
+            buffer.put(request[i]);
+            buffer.limit(buffer.position());
+
+            ret = parser.parse(buffer, state);
+
+            if (ret == null) {
+                buffer.position(buffer.limit());
+                buffer.limit(buffer.capacity());
+            }
+        }
+
+        assertNotNull(ret);
+        assertEquals("hello, world", ret.getBody());
+        assertEquals(12, state.getBodyLength());
+        // trailers arrive after the headers may have been acted on, so they are kept apart from them
+        assertEquals("abc", ret.getTrailers().get("x-checksum"));
+        assertNull(ret.getHeader("x-checksum"));
+        assertFalse(ret.getHeaders().containsKey("x-checksum"));
+        assertEquals(1, ret.getHeaders().size());
+        // framing headers are ignored in trailers
+        assertNull(ret.getHeader("Content-Length"));
+        assertNull(ret.getTrailers().get("Content-Length"));
+        assertEquals(1, ret.getTrailers().size());
+
+        // the rest of the buffer holds the start of the next request
+        ByteBuffer rest = ByteBuffer.allocate(request.length);
+        rest.put(request, buffer.position(), request.length - buffer.position());
+        rest.put((byte) '\n');
+        HttpRequest next = parser.parse(rest, state);
+        assertNotNull(next);
+        assertEquals("/next", next.getPath());
+    }
+
+    @Test
+    void parseChunkedMalformed() {
+        for (String request : new String[]{
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 3\r\n\r\n0\r\n\r\n",
+                "POST / HTTP/1.1\r\nTransfer-Encoding: gzip, chunked\r\n\r\n0\r\n\r\n",
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nz\r\n\r\n",
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n1\r\nab\r\n0\r\n\r\n",
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nffffffffff\r\n"
+        }) {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(request);
+            buffer.position(buffer.limit());
+
+            assertThrows(ParseException.class, () -> new HttpParser().parse(buffer), request);
+        }
+    }
+}
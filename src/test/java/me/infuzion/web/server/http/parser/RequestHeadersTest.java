@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.http.parser;
+
+import me.infuzion.web.server.http.HttpHeader;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestHeadersTest {
+
+    private static RequestHeaders parse(String headers) {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode("GET / HTTP/1.1\r\n" + headers + "\r\n");
+        buffer.position(buffer.limit());
+
+        HttpRequest request = new HttpParser().parse(buffer);
+        assertNotNull(request);
+        return request.getHeaders();
+    }
+
+    @Test
+    void knownHeaders() {
+        RequestHeaders headers = parse("HOST: example.com\r\n" +
+                "sec-websocket-key: abc\r\n" +
+                "X-Custom: 1\r\n" +
+                "Connection: keep-alive\r\n" +
+                "connection: Upgrade\r\n");
+
+        assertEquals("example.com", headers.get(HttpHeader.HOST));
+        assertEquals("abc", headers.get(HttpHeader.SEC_WEBSOCKET_KEY));
+        assertEquals("Upgrade", headers.get(HttpHeader.CONNECTION));
+        assertTrue(headers.contains(HttpHeader.CONNECTION));
+        assertFalse(headers.contains(HttpHeader.UPGRADE));
+        assertNull(headers.get(HttpHeader.CONTENT_TYPE));
+
+        assertEquals("example.com", headers.get("Host"));
+        assertEquals("1", headers.get("x-CUSTOM"));
+        assertNull(headers.get("X-Custo"));
+    }
+
+    @Test
+    void mapView() {
+        RequestHeaders headers = parse("Accept: text/html\r\n" +
+                "X-Custom: 1\r\n" +
+                "x-custom: 2\r\n");
+
+        assertEquals(Map.of("accept", "text/html", "x-custom", "2"), headers);
+        assertEquals(2, headers.size());
+        assertTrue(headers.containsKey("ACCEPT"));
+        assertThrows(UnsupportedOperationException.class, () -> headers.put("a", "b"));
+    }
+
+    @Test
+    void fromMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("Content-Type", "text/plain");
+        map.put("X-Custom", "1");
+
+        RequestHeaders headers = new RequestHeaders(map);
+
+        assertEquals("text/plain", headers.get(HttpHeader.CONTENT_TYPE));
+        assertEquals("1", headers.get("x-custom"));
+        assertEquals(Map.of("content-type", "text/plain", "x-custom", "1"), headers);
+    }
+
+    @Test
+    void forName() {
+        byte[] name = "content-LENGTH".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(HttpHeader.CONTENT_LENGTH, HttpHeader.forName(name, 0, name.length));
+        assertEquals(HttpHeader.CONTENT_LENGTH, HttpHeader.forName("Content-Length"));
+        assertNull(HttpHeader.forName(name, 1, name.length - 1));
+        assertNull(HttpHeader.forName("Content-Lengthy"));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.listener;
+
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.HttpMethod;
+import me.infuzion.web.server.http.parser.BodyData;
+import me.infuzion.web.server.http.parser.HttpRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class FileCacheTest {
+    @TempDir
+    Path root;
+
+    private FileCache cache;
+
+    @BeforeEach
+    void createCache() throws IOException {
+        cache = new FileCache(25, 10);
+    }
+
+    @AfterEach
+    void closeCache() throws IOException {
+        cache.close();
+    }
+
+    private FileCache.Entry load(String name) throws IOException {
+        Path file = root.resolve(name);
+        return cache.load(file, Files.readAttributes(file, BasicFileAttributes.class), "text/plain");
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Test
+    void cachesSmallFiles() throws IOException {
+        Files.writeString(root.resolve("a.txt"), "0123456789");
+        Files.writeString(root.resolve("large.txt"), "0123456789a");
+
+        FileCache.Entry entry = load("a.txt");
+        assertNotNull(entry);
+        assertEquals("0123456789", string(entry.getBody()));
+        assertSame(entry, cache.get(root.resolve("a.txt")));
+
+        assertNull(load("large.txt"));
+        assertEquals(1, cache.size());
+        assertEquals(10, cache.getUsedBytes());
+    }
+
+    @Test
+    void bodiesHaveIndependentPositions() throws IOException {
+        Files.writeString(root.resolve("a.txt"), "0123456789");
+        FileCache.Entry entry = load("a.txt");
+
+        ByteBuffer first = entry.getBody();
+        first.get(new byte[5]);
+
+        assertEquals(10, entry.getBody().remaining());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws IOException {
+        Files.writeString(root.resolve("a.txt"), "0123456789");
+        Files.writeString(root.resolve("b.txt"), "0123456789");
+        Files.writeString(root.resolve("c.txt"), "0123456789");
+
+        load("a.txt");
+        load("b.txt");
+        cache.get(root.resolve("a.txt"));
+        load("c.txt");
+
+        assertNotNull(cache.get(root.resolve("a.txt")));
+        assertNull(cache.get(root.resolve("b.txt")));
+        assertNotNull(cache.get(root.resolve("c.txt")));
+        assertEquals(20, cache.getUsedBytes());
+    }
+
+    @Test
+    void changedFilesAreInvalidated() throws IOException, InterruptedException {
+        Path file = root.resolve("a.txt");
+        Files.writeString(file, "before");
+        load("a.txt");
+
+        Files.writeString(file, "after");
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cache.get(file) != null) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The entry was not invalidated after its file changed");
+            }
+            Thread.sleep(10);
+        }
+
+        assertEquals("after", string(load("a.txt").getBody()));
+    }
+
+    @Test
+    void invalidatesDirectories() throws IOException {
+        Files.createDirectory(root.resolve("sub"));
+        Files.writeString(root.resolve("sub/a.txt"), "a");
+        Files.writeString(root.resolve("b.txt"), "b");
+        load("sub/a.txt");
+        load("b.txt");
+
+        cache.invalidate(root.resolve("sub"));
+
+        assertNull(cache.get(root.resolve("sub/a.txt")));
+        assertNotNull(cache.get(root.resolve("b.txt")));
+        assertEquals(1, cache.getUsedBytes());
+    }
+
+    @Test
+    void textIsCompressedOnce() throws IOException {
+        try (FileCache cache = new FileCache(1024 * 1024, 64 * 1024)) {
+            Path file = root.resolve("a.css");
+            String contents = "body { margin: 0; }\n".repeat(100);
+            Files.writeString(file, contents);
+
+            FileCache.Entry entry = cache.load(file, Files.readAttributes(file, BasicFileAttributes.class), "text/css");
+            FileCache.Entry compressed = entry.getCompressed();
+            assertNotNull(compressed);
+            assertSame(compressed, entry.getCompressed());
+            assertTrue(!compressed.getETag().equals(entry.getETag()));
+            assertEquals(contents, gunzip(compressed.getBody()));
+            assertEquals(entry.getBody().remaining() + compressed.getBody().remaining(), cache.getUsedBytes());
+
+            HttpRequest request = new HttpRequest(HttpMethod.GET, "/a.css", "", "HTTP/1.1", Map.of("Host", "test"), null);
+            PageRequestEvent event = new PageRequestEvent(request, new BodyData(Collections.emptyMap()));
+            assertTrue(string(compressed.generateResponse(event)).contains("Content-Encoding: gzip\r\n"));
+            assertTrue(string(entry.generateResponse(event)).contains("Vary: Accept-Encoding\r\n"));
+        }
+    }
+
+    @Test
+    void precompressedSiblingIsUsed() throws IOException {
+        try (FileCache cache = new FileCache(1024 * 1024, 64 * 1024)) {
+            Path file = root.resolve("a.bin");
+            Files.writeString(file, "contents");
+            Files.writeString(root.resolve("a.bin.gz"), "compressed");
+
+            FileCache.Entry entry = cache.load(file, Files.readAttributes(file, BasicFileAttributes.class), "application/octet-stream");
+            assertEquals("compressed", string(entry.getCompressed().getBody()));
+
+            // binary files without a sibling are not compressed
+            Path other = root.resolve("b.bin");
+            Files.writeString(other, "0".repeat(1000));
+            assertNull(cache.load(other, Files.readAttributes(other, BasicFileAttributes.class), "application/octet-stream").getCompressed());
+        }
+    }
+
+    private static String gunzip(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void headersArePrebuilt() throws IOException {
+        Files.writeString(root.resolve("a.txt"), "0123456789");
+        FileCache.Entry entry = load("a.txt");
+
+        HttpRequest request = new HttpRequest(HttpMethod.GET, "/a.txt", "", "HTTP/1.1", Map.of("Host", "test"), null);
+        PageRequestEvent event = new PageRequestEvent(request, new BodyData(Collections.emptyMap()));
+
+        String headers = string(entry.generateResponse(event));
+        assertTrue(headers.startsWith("HTTP/1.1 200 OK\r\n"), headers);
+        assertTrue(headers.contains("Content-Type: text/plain\r\n"), headers);
+        assertTrue(headers.contains("Content-Length: 10\r\n"), headers);
+        assertTrue(headers.contains("ETag: " + entry.getETag() + "\r\n"), headers);
+        assertTrue(headers.endsWith("\r\n\r\n"), headers);
+        assertTrue(!headers.contains("Connection"), headers);
+
+        assertTrue(headers.contains("\r\nDate: "), headers);
+
+        event.getResponse().setHeader("Connection", "close");
+        assertTrue(string(entry.generateResponse(event)).endsWith("Connection: close\r\n\r\n"));
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.listener;
+
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.HttpMethod;
+import me.infuzion.web.server.http.parser.BodyData;
+import me.infuzion.web.server.http.parser.HttpParser;
+import me.infuzion.web.server.http.parser.HttpRequest;
+import me.infuzion.web.server.http.parser.RequestHeaders;
+import me.infuzion.web.server.network.AsyncHttpConnectionHandler;
+import me.infuzion.web.server.network.BlockingHttpConnectionHandler;
+import me.infuzion.web.server.network.ConnectionHandler;
+import me.infuzion.web.server.network.HttpConnectionHandler;
+import me.infuzion.web.server.response.DefaultResponseGenerator;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StaticFileListenerTest {
+    @TempDir
+    static Path root;
+
+    private static final byte[] large = new byte[4 * 1024 * 1024 + 17];
+
+    @BeforeAll
+    static void createFiles() throws IOException {
+        new Random(42).nextBytes(large);
+        Files.writeString(root.resolve("index.html"), "<h1>index</h1>");
+        Files.writeString(root.resolve("hello.txt"), "hello, world");
+        Files.writeString(root.resolve("my file.txt"), "spaced");
+        Files.writeString(root.resolve("100%.txt"), "percent");
+        Files.write(root.resolve("large.bin"), large);
+        Files.createDirectory(root.resolve("sub"));
+        Files.writeString(root.resolve("sub").resolve("index.html"), "sub");
+
+        Files.writeString(root.resolve("app.js"), "console.log('app');");
+        Files.write(root.resolve("app.js.gz"), gzip("console.log('app');"));
+        Files.writeString(root.resolve("stale.js"), "console.log('stale');");
+        Files.write(root.resolve("stale.js.gz"), gzip("console.log('old');"));
+        FileTime modified = Files.getLastModifiedTime(root.resolve("stale.js"));
+        Files.setLastModifiedTime(root.resolve("stale.js.gz"), FileTime.fromMillis(modified.toMillis() - 60000));
+    }
+
+    private static byte[] gzip(String value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static PageRequestEvent event(HttpMethod method, String path, Map<String, String> headers) {
+        Map<String, String> all = new HashMap<>(headers);
+        all.put("Host", "test");
+        HttpRequest request = new HttpRequest(method, path, "", "HTTP/1.1", all, null);
+        return new PageRequestEvent(request, new BodyData(Collections.emptyMap()));
+    }
+
+    private static PageRequestEvent parse(String request) {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(request);
+        buffer.position(buffer.limit());
+        return new PageRequestEvent(new HttpParser().parse(buffer), new BodyData(Collections.emptyMap()));
+    }
+
+    private static PageRequestEvent get(String path, Map<String, String> headers) {
+        StaticFileListener listener = new StaticFileListener(root);
+        PageRequestEvent event = event(HttpMethod.GET, path, headers);
+        assertTrue(listener.onPageRequest(event));
+        return event;
+    }
+
+    @Test
+    void servesFile() {
+        PageRequestEvent event = get("/hello.txt", Map.of());
+
+        assertEquals(200, event.getResponse().getStatusCode());
+        assertEquals("text/plain", event.getResponse().getContentType());
+        assertEquals("bytes", event.getResponse().getHeaders().get("accept-ranges"));
+        assertNotNull(event.getResponse().getHeaders().get("last-modified"));
+        assertEquals(12, event.getResponse().getFileBody().getCount());
+    }
+
+    @Test
+    void servesDirectoryIndex() {
+        assertEquals(14, get("/", Map.of()).getResponse().getFileBody().getCount());
+        assertEquals(3, get("/sub/", Map.of()).getResponse().getFileBody().getCount());
+    }
+
+    @Test
+    void ignoresMissingFilesAndOtherMethods() {
+        StaticFileListener listener = new StaticFileListener(root);
+
+        assertFalse(listener.onPageRequest(event(HttpMethod.GET, "/missing.txt", Map.of())));
+        assertFalse(listener.onPageRequest(event(HttpMethod.POST, "/hello.txt", Map.of())));
+    }
+
+    @Test
+    void pathsOutsideRootAreNotServed() {
+        StaticFileListener listener = new StaticFileListener(root.resolve("sub"));
+
+        assertNull(listener.resolve("/../hello.txt"));
+        assertNull(listener.resolve("/sub/../../hello.txt"));
+        assertFalse(listener.onPageRequest(event(HttpMethod.GET, "/../hello.txt", Map.of())));
+        assertFalse(listener.onPageRequest(parse("GET /%2e%2e/hello.txt HTTP/1.1\r\nHost: test\r\n\r\n")));
+    }
+
+    @Test
+    void pathsAreDecodedOnce() {
+        StaticFileListener listener = new StaticFileListener(root);
+
+        // the parser decodes the request target, and the listener uses the decoded path as is
+        PageRequestEvent spaced = parse("GET /my%20file.txt HTTP/1.1\r\nHost: test\r\n\r\n");
+        assertTrue(listener.onPageRequest(spaced));
+        assertEquals(6, spaced.getResponse().getFileBody().getCount());
+
+        PageRequestEvent percent = parse("GET /100%25.txt HTTP/1.1\r\nHost: test\r\n\r\n");
+        assertTrue(listener.onPageRequest(percent));
+        assertEquals(7, percent.getResponse().getFileBody().getCount());
+
+        assertEquals(root.resolve("my file.txt"), listener.resolve("/my file.txt"));
+        assertEquals(root.resolve("%41"), listener.resolve("/%41"));
+    }
+
+    @Test
+    void prefixIsStripped() {
+        StaticFileListener listener = new StaticFileListener(root, "/static", "index.html");
+
+        assertEquals(root.resolve("hello.txt"), listener.resolve("/static/hello.txt"));
+        assertEquals(root, listener.resolve("/static"));
+        assertNull(listener.resolve("/hello.txt"));
+        assertNull(listener.resolve("/statichello.txt"));
+    }
+
+    @Test
+    void parseRange() {
+        assertArrayEquals(new long[]{0, 9}, StaticFileListener.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[]{10, 99}, StaticFileListener.parseRange("bytes=10-", 100));
+        assertArrayEquals(new long[]{90, 99}, StaticFileListener.parseRange("bytes=-10", 100));
+        assertArrayEquals(new long[]{0, 99}, StaticFileListener.parseRange("bytes=-1000", 100));
+        assertArrayEquals(new long[]{50, 99}, StaticFileListener.parseRange("bytes=50-1000", 100));
+        assertArrayEquals(new long[0], StaticFileListener.parseRange("bytes=100-", 100));
+        assertArrayEquals(new long[0], StaticFileListener.parseRange("bytes=-0", 100));
+
+        assertNull(StaticFileListener.parseRange("bytes=0-1,5-6", 100));
+        assertNull(StaticFileListener.parseRange("bytes=9-0", 100));
+        assertNull(StaticFileListener.parseRange("bytes=a-b", 100));
+        assertNull(StaticFileListener.parseRange("items=0-9", 100));
+    }
+
+    @Test
+    void rangeRequests() {
+        PageRequestEvent partial = get("/hello.txt", Map.of("Range", "bytes=7-"));
+        assertEquals(206, partial.getResponse().getStatusCode());
+        assertEquals("bytes 7-11/12", partial.getResponse().getHeaders().get("content-range"));
+        assertEquals(7, partial.getResponse().getFileBody().getPosition());
+        assertEquals(5, partial.getResponse().getFileBody().getCount());
+
+        PageRequestEvent unsatisfiable = get("/hello.txt", Map.of("Range", "bytes=12-"));
+        assertEquals(416, unsatisfiable.getResponse().getStatusCode());
+        assertEquals("bytes */12", unsatisfiable.getResponse().getHeaders().get("content-range"));
+        assertNull(unsatisfiable.getResponse().getFileBody());
+
+        PageRequestEvent stale = get("/hello.txt", Map.of("Range", "bytes=7-", "If-Range", "Thu, 01 Jan 1970 00:00:00 GMT"));
+        assertEquals(200, stale.getResponse().getStatusCode());
+        assertEquals(12, stale.getResponse().getFileBody().getCount());
+    }
+
+    @Test
+    void notModified() {
+        String lastModified = get("/hello.txt", Map.of()).getResponse().getHeaders().get("last-modified");
+
+        PageRequestEvent event = get("/hello.txt", Map.of("If-Modified-Since", lastModified));
+        assertEquals(304, event.getResponse().getStatusCode());
+        assertNull(event.getResponse().getFileBody());
+        String head = StandardCharsets.US_ASCII.decode(new DefaultResponseGenerator().generateResponse(event)).toString();
+        assertTrue(head.startsWith("HTTP/1.1 304"), head);
+        assertFalse(head.toLowerCase().contains("content-length:"), head);
+
+        PageRequestEvent modified = get("/hello.txt", Map.of("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT"));
+        assertEquals(200, modified.getResponse().getStatusCode());
+    }
+
+    @Test
+    void entityTags() {
+        String etag = get("/hello.txt", Map.of()).getResponse().getHeaders().get("etag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""), etag);
+
+        assertEquals(304, get("/hello.txt", Map.of("If-None-Match", etag)).getResponse().getStatusCode());
+        assertEquals(304, get("/hello.txt", Map.of("If-None-Match", "\"other\", W/" + etag)).getResponse().getStatusCode());
+        assertEquals(304, get("/hello.txt", Map.of("If-None-Match", "*")).getResponse().getStatusCode());
+
+        PageRequestEvent changed = get("/hello.txt", Map.of("If-None-Match", "\"other\""));
+        assertEquals(200, changed.getResponse().getStatusCode());
+        assertNotNull(changed.getResponse().getFileBody());
+
+        // If-None-Match takes precedence over If-Modified-Since
+        String lastModified = changed.getResponse().getHeaders().get("last-modified");
+        assertEquals(200, get("/hello.txt", Map.of("If-None-Match", "\"other\"", "If-Modified-Since", lastModified))
+                .getResponse().getStatusCode());
+    }
+
+    @Test
+    void precompressedFilesAreServed() throws IOException {
+        PageRequestEvent compressed = get("/app.js", Map.of("Accept-Encoding", "deflate, gzip"));
+        assertEquals("gzip", compressed.getResponse().getHeaders().get("content-encoding"));
+        assertEquals("Accept-Encoding", compressed.getResponse().getHeaders().get("vary"));
+        assertEquals("application/javascript", compressed.getResponse().getContentType());
+        assertEquals(Files.size(root.resolve("app.js.gz")), compressed.getResponse().getFileBody().getCount());
+
+        PageRequestEvent identity = get("/app.js", Map.of());
+        assertNull(identity.getResponse().getHeaders().get("content-encoding"));
+        assertEquals("Accept-Encoding", identity.getResponse().getHeaders().get("vary"));
+        assertEquals(Files.size(root.resolve("app.js")), identity.getResponse().getFileBody().getCount());
+
+        // each representation has its own entity tag
+        String etag = compressed.getResponse().getHeaders().get("etag");
+        assertTrue(!etag.equals(identity.getResponse().getHeaders().get("etag")));
+        assertEquals(304, get("/app.js", Map.of("Accept-Encoding", "gzip", "If-None-Match", etag)).getResponse().getStatusCode());
+        assertEquals(200, get("/app.js", Map.of("If-None-Match", etag)).getResponse().getStatusCode());
+
+        assertNull(get("/app.js", Map.of("Accept-Encoding", "gzip;q=0")).getResponse().getHeaders().get("content-encoding"));
+        assertNull(get("/app.js", Map.of("Accept-Encoding", "gzip", "Range", "bytes=0-1")).getResponse().getHeaders().get("content-encoding"));
+        assertNull(get("/stale.js", Map.of("Accept-Encoding", "gzip")).getResponse().getHeaders().get("content-encoding"));
+    }
+
+    @Test
+    void acceptsGzip() {
+        assertTrue(StaticFileListener.acceptsGzip(headers(Map.of("Accept-Encoding", "gzip"))));
+        assertTrue(StaticFileListener.acceptsGzip(headers(Map.of("Accept-Encoding", "br;q=1.0, GZIP;q=0.5"))));
+        assertTrue(StaticFileListener.acceptsGzip(headers(Map.of("Accept-Encoding", "*"))));
+        assertFalse(StaticFileListener.acceptsGzip(headers(Map.of("Accept-Encoding", "gzip;q=0"))));
+        assertFalse(StaticFileListener.acceptsGzip(headers(Map.of("Accept-Encoding", "deflate, br"))));
+        assertFalse(StaticFileListener.acceptsGzip(headers(Map.of())));
+    }
+
+    private static RequestHeaders headers(Map<String, String> headers) {
+        return event(HttpMethod.GET, "/", headers).getRequestHeaders();
+    }
+
+    private static InetSocketAddress startServer(ConnectionHandler handler) throws IOException {
+        return startServer(handler, new StaticFileListener(root));
+    }
+
+    private static InetSocketAddress startServer(ConnectionHandler handler, StaticFileListener listener) throws IOException {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        server.registerConnectionHandler(handler);
+        server.setDefaultConnectionHandler(handler.getClass());
+        server.getEventManager().registerListener(listener);
+
+        Thread t = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        return server.getAddress();
+    }
+
+    /**
+     * Requests the large file, then a range of it on the same connection, and checks both bodies.
+     */
+    private static void assertFilesServed(InetSocketAddress address) throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(10000);
+            InputStream in = socket.getInputStream();
+
+            socket.getOutputStream().write("GET /large.bin HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(large, readBody(in, "HTTP/1.1 200"));
+
+            socket.getOutputStream().write("GET /large.bin HTTP/1.1\r\nHost: localhost\r\nRange: bytes=-1000\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertArrayEquals(Arrays.copyOfRange(large, large.length - 1000, large.length), readBody(in, "HTTP/1.1 206"));
+
+            socket.getOutputStream().write("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("hello, world", new String(readBody(in, "HTTP/1.1 200"), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] readBody(InputStream in, String status) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString(StandardCharsets.UTF_8).endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed before the response was read");
+            }
+            head.write(b);
+        }
+
+        String headers = head.toString(StandardCharsets.UTF_8);
+        assertTrue(headers.startsWith(status), headers);
+
+        int contentLength = 0;
+        for (String line : headers.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            }
+        }
+        return in.readNBytes(contentLength);
+    }
+
+    @Test
+    void nonBlockingHandlerServesFiles() throws IOException {
+        assertFilesServed(startServer(new HttpConnectionHandler(1)));
+    }
+
+    @Test
+    void cachedFilesAreServed() throws IOException {
+        try (FileCache cache = new FileCache()) {
+            InetSocketAddress address = startServer(new HttpConnectionHandler(1),
+                    new StaticFileListener(root, "/", "index.html", cache));
+
+            try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+                socket.setSoTimeout(10000);
+                InputStream in = socket.getInputStream();
+
+                for (int i = 0; i < 3; i++) {
+                    socket.getOutputStream().write("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                    assertEquals("hello, world", new String(readBody(in, "HTTP/1.1 200"), StandardCharsets.UTF_8));
+                }
+
+                // large files and ranges are still sent from the file system
+                socket.getOutputStream().write("GET /large.bin HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                assertArrayEquals(large, readBody(in, "HTTP/1.1 200"));
+                socket.getOutputStream().write("GET /hello.txt HTTP/1.1\r\nHost: localhost\r\nRange: bytes=7-\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals("world", new String(readBody(in, "HTTP/1.1 206"), StandardCharsets.UTF_8));
+            }
+
+            assertNotNull(cache.get(root.resolve("hello.txt")));
+            assertNull(cache.get(root.resolve("large.bin")));
+        }
+    }
+
+    @Test
+    void cachedIndexFilesAreServed() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        try (FileCache cache = new FileCache() {
+            @Override
+            public @Nullable Entry load(Path file, BasicFileAttributes attributes, String contentType) throws IOException {
+                loads.incrementAndGet();
+                return super.load(file, attributes, contentType);
+            }
+        }) {
+            StaticFileListener listener = new StaticFileListener(root, "/", "index.html", cache);
+
+            for (String path : new String[]{"/", "/sub/"}) {
+                PageRequestEvent first = event(HttpMethod.GET, path, Map.of());
+                assertTrue(listener.onPageRequest(first));
+                assertEquals(1, loads.getAndSet(0));
+
+                // later requests for the directory are answered from the cache, without reading the file's attributes
+                PageRequestEvent cached = event(HttpMethod.GET, path, Map.of());
+                assertTrue(listener.onPageRequest(cached));
+                assertEquals(0, loads.get());
+                assertTrue(cached.getResponseGenerator() instanceof FileCache.Entry);
+            }
+        }
+    }
+
+    @Test
+    void blockingHandlerServesFiles() throws IOException {
+        assertFilesServed(startServer(new BlockingHttpConnectionHandler()));
+    }
+
+    @Test
+    void asyncHandlerServesFiles() throws IOException {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        AsyncHttpConnectionHandler handler = new AsyncHttpConnectionHandler(new InetSocketAddress("127.0.0.1", 0), 1,
+                new HttpConnectionHandler.Config());
+        server.registerConnectionHandler(handler);
+        server.getEventManager().registerListener(new StaticFileListener(root));
+
+        Thread t = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        assertFilesServed(handler.getAddress());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+    private static final InetAddress first = InetAddress.getLoopbackAddress();
+    private static final InetAddress second;
+
+    static {
+        try {
+            second = InetAddress.getByAddress(new byte[]{10, 0, 0, 1});
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Test
+    void totalLimit() {
+        AdmissionControl admission = new AdmissionControl().setMaxConnections(2);
+
+        assertTrue(admission.tryAcquire(first));
+        assertTrue(admission.tryAcquire(second));
+        assertFalse(admission.hasCapacity());
+        assertFalse(admission.tryAcquire(first));
+        assertEquals(2, admission.getOpenConnections());
+
+        assertTrue(admission.release(first));
+        assertTrue(admission.hasCapacity());
+        assertFalse(admission.release(second));
+        assertEquals(0, admission.getOpenConnections());
+    }
+
+    @Test
+    void perAddressLimit() {
+        AdmissionControl admission = new AdmissionControl().setMaxConnectionsPerAddress(2);
+
+        assertTrue(admission.tryAcquire(first));
+        assertTrue(admission.tryAcquire(first));
+        assertFalse(admission.tryAcquire(first));
+        assertTrue(admission.tryAcquire(second));
+
+        // a rejected address does not hold a slot in the total count
+        assertEquals(3, admission.getOpenConnections());
+
+        admission.release(first);
+        assertTrue(admission.tryAcquire(first));
+
+        admission.release(first);
+        admission.release(first);
+        admission.release(second);
+        assertEquals(0, admission.getOpenConnections());
+        assertEquals(0, admission.trackedAddresses());
+    }
+
+    @Test
+    void concurrentAcquireAndRelease() throws InterruptedException {
+        AdmissionControl admission = new AdmissionControl().setMaxConnections(64).setMaxConnectionsPerAddress(8);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        int[] overLimit = new int[threads];
+
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            InetAddress address = index % 2 == 0 ? first : second;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 100_000; j++) {
+                    if (admission.tryAcquire(address)) {
+                        if (admission.getOpenConnections() > 64) {
+                            overLimit[index]++;
+                        }
+                        admission.release(address);
+                    }
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+
+        for (int count : overLimit) {
+            assertEquals(0, count);
+        }
+        assertEquals(0, admission.getOpenConnections());
+        assertEquals(0, admission.trackedAddresses());
+    }
+
+    @Test
+    void invalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl().setMaxConnections(0));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl().setMaxConnectionsPerAddress(-1));
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import me.infuzion.web.server.EventListener;
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.event.reflect.EventHandler;
+import me.infuzion.web.server.event.reflect.Route;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.BodyParam;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.QueryParam;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.Response;
+import me.infuzion.web.server.router.RouteMethod;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertChunkedUpload;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertOversizedHeadersRejected;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertOversizedRequestRejected;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertStreamedBody;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.readLine;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.readResponse;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.request;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class AsyncHttpConnectionHandlerTest {
+    private static InetSocketAddress address;
+
+    @BeforeAll
+    static void start() throws IOException {
+        address = startServer(new HttpConnectionHandler.Config());
+    }
+
+    static InetSocketAddress startServer(HttpConnectionHandler.Config config) throws IOException {
+        return startServer(new Server(new InetSocketAddress("127.0.0.1", 0)), config);
+    }
+
+    static InetSocketAddress startServer(Server server, HttpConnectionHandler.Config config) throws IOException {
+        AsyncHttpConnectionHandler handler = new AsyncHttpConnectionHandler(new InetSocketAddress("127.0.0.1", 0), 2, config);
+        server.registerConnectionHandler(handler);
+        server.getEventManager().registerListener(new EventListener() {
+            @EventHandler
+            @Route("/echo")
+            @Response("text/plain")
+            public String echo(PageRequestEvent e, @QueryParam("value") String value) {
+                return value;
+            }
+
+            @EventHandler
+            @Route(value = "/body", methods = RouteMethod.POST)
+            @Response("text/plain")
+            public String body(PageRequestEvent e, @BodyParam(value = "value", raw = true) String value) {
+                return value;
+            }
+
+            @EventHandler
+            @Route("/stream")
+            public void stream(PageRequestEvent e, @QueryParam("size") String size) {
+                e.getResponse().setContentType("text/plain");
+                e.getResponse().setBodySource(new ChunkedBodyTest.CountingSource(Long.parseLong(size), Integer.MAX_VALUE));
+            }
+
+            @EventHandler
+            @Route("/upgrade")
+            @Response("text/plain")
+            public String upgrade(PageRequestEvent e) {
+                e.getResponse().setStatusCode(101);
+                e.getResponse().setHeader("Upgrade", "websocket");
+                e.setConnectionHandler(HttpConnectionHandler.class);
+                return "";
+            }
+        });
+
+        HttpConnectionHandlerTest.startInBackground(server);
+
+        return handler.getAddress();
+    }
+
+    @Test
+    void keepAlive() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            for (int i = 0; i < 4; i++) {
+                assertEquals("value" + i, request(socket, "value" + i));
+            }
+        }
+    }
+
+    @Test
+    void pipelinedRequests() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                requests.append("GET /echo?value=").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            out.write(requests.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < 8; i++) {
+                assertEquals(String.valueOf(i), readResponse(in));
+            }
+        }
+    }
+
+    @Test
+    void fragmentedRequest() throws IOException, InterruptedException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /echo?value=frag HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(50);
+            out.write("Host: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("frag", readResponse(socket.getInputStream()));
+        }
+    }
+
+    @Test
+    void largeRequestAndResponse() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config().setMaxHeaderSize(256 * 1024));
+        String value = "x".repeat(100 * 1024);
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(value, request(socket, value));
+            assertEquals("small", request(socket, "small"));
+        }
+    }
+
+    @Test
+    void idleKeepAliveConnectionIsClosed() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config()
+                .setKeepAliveTimeout(200, TimeUnit.MILLISECONDS));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals("a", request(socket, "a"));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void incompleteHeadersAreClosed() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config()
+                .setHeaderTimeout(200, TimeUnit.MILLISECONDS));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void closesAfterMaxRequests() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config().setMaxRequests(2));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals("1", request(socket, "1"));
+            assertEquals("2", request(socket, "2"));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void oversizedHeadersAreRejected() throws IOException {
+        assertOversizedHeadersRejected(address);
+    }
+
+    @Test
+    void oversizedRequestIsRejected() throws IOException {
+        assertOversizedRequestRejected(startServer(new HttpConnectionHandler.Config().setMaxRequestSize(16 * 1024)));
+    }
+
+    @Test
+    void chunkedUpload() throws IOException, InterruptedException {
+        assertChunkedUpload(address);
+    }
+
+    @Test
+    void streamedBody() throws IOException, InterruptedException {
+        assertStreamedBody(address);
+    }
+
+    @Test
+    void slowReaderOutlastsKeepAliveTimeout() throws IOException, InterruptedException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config()
+                .setKeepAliveTimeout(300, TimeUnit.MILLISECONDS));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            // reading takes well over the keep-alive timeout, which only starts once the response has been written
+            assertStreamedBody(socket, 20 * 1024 * 1024, 1);
+
+            // the idle connection is still closed once the keep-alive timeout expires
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void countsConnectionsOverLimit() throws IOException, InterruptedException {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        server.setAdmissionControl(new AdmissionControl().setMaxConnectionsPerAddress(1));
+        InetSocketAddress address = startServer(server, new HttpConnectionHandler.Config());
+
+        try (Socket first = new Socket(address.getAddress(), address.getPort());
+             Socket second = new Socket(address.getAddress(), address.getPort())) {
+            first.setSoTimeout(5000);
+            second.setSoTimeout(5000);
+
+            assertEquals(-1, second.getInputStream().read());
+            assertEquals("first", request(first, "first"));
+            assertEquals(2, server.getAcceptedConnections());
+            assertEquals(1, server.getRejectedConnections());
+        }
+    }
+
+    @Test
+    void pausesAcceptingAtLimit() throws IOException, InterruptedException {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        server.setAdmissionControl(new AdmissionControl()
+                .setMaxConnections(1)
+                .setOverflowPolicy(AdmissionControl.OverflowPolicy.PAUSE));
+        InetSocketAddress address = startServer(server, new HttpConnectionHandler.Config());
+
+        try (Socket first = new Socket(address.getAddress(), address.getPort());
+             Socket second = new Socket(address.getAddress(), address.getPort())) {
+            first.setSoTimeout(5000);
+            assertEquals("first", request(first, "first"));
+
+            // the second connection waits in the backlog and is not served
+            second.getOutputStream().write("GET /echo?value=second HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            second.setSoTimeout(300);
+            assertThrows(SocketTimeoutException.class, () -> second.getInputStream().read());
+            assertEquals(1, server.getAcceptedConnections());
+            assertEquals(0, server.getRejectedConnections());
+
+            first.close();
+            second.setSoTimeout(5000);
+            assertEquals("second", readResponse(second.getInputStream()));
+            assertEquals(2, server.getAcceptedConnections());
+            assertEquals(0, server.getRejectedConnections());
+        }
+    }
+
+    @Test
+    void stalledReaderIsClosed() throws IOException, InterruptedException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config()
+                .setKeepAliveTimeout(300, TimeUnit.MILLISECONDS));
+        long size = 256L * 1024 * 1024;
+
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(address);
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /stream?size=" + size + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+
+            // stop reading until well past the timeout, once the server can no longer write
+            Thread.sleep(1500);
+
+            long received = 0;
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                for (int read = 0; read != -1; read = socket.getInputStream().read(buffer)) {
+                    received += read;
+                }
+            } catch (SocketTimeoutException e) {
+                fail("Connection was not closed");
+            } catch (IOException ignored) {
+                // reset by the server
+            }
+            assertTrue(received < size, String.valueOf(received));
+        }
+    }
+
+    @Test
+    void slowBodyIsClosed() throws IOException, InterruptedException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler.Config()
+                .setMinBodyRate(1000, 200, TimeUnit.MILLISECONDS));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /body HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10000\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+
+            // send the body a byte at a time, well below the minimum rate, until the server closes the connection
+            socket.setSoTimeout(50);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (System.nanoTime() < deadline) {
+                try {
+                    out.write('a');
+                    if (socket.getInputStream().read() == -1) {
+                        return;
+                    }
+                    fail("Unexpected response");
+                } catch (SocketTimeoutException e) {
+                    // still open
+                } catch (IOException e) {
+                    return;
+                }
+            }
+            fail("Connection was not closed");
+        }
+    }
+
+    @Test
+    void upgradeIsRefused() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /upgrade HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade\r\n"
+                    + "Upgrade: websocket\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+            InputStream in = socket.getInputStream();
+            String status = readLine(in);
+            assertTrue(status.startsWith("HTTP/1.1 501"), status);
+            int contentLength = 0;
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                assertFalse(line.toLowerCase().startsWith("upgrade:"), line);
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+            in.readNBytes(contentLength);
+
+            // the connection is still usable for plain requests
+            assertEquals("after", request(socket, "after"));
+        }
+    }
+
+    @Test
+    void closeStopsThreads() throws IOException, InterruptedException {
+        Set<Thread> existing = Thread.getAllStackTraces().keySet();
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        AsyncHttpConnectionHandler handler = new AsyncHttpConnectionHandler(new InetSocketAddress("127.0.0.1", 0), 2,
+                new HttpConnectionHandler.Config());
+        server.registerConnectionHandler(handler);
+        HttpConnectionHandlerTest.startInBackground(server);
+        InetSocketAddress address = handler.getAddress();
+
+        List<Thread> started = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!existing.contains(thread) && thread.getName().startsWith("Async HTTP")) {
+                started.add(thread);
+            }
+        }
+        assertFalse(started.isEmpty());
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            // a connection still in the listen backlog would be reset rather than closed
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.getAcceptedConnections() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            handler.close();
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        for (Thread thread : started) {
+            thread.join(5000);
+            assertFalse(thread.isAlive(), thread.getName());
+        }
+        assertThrows(IOException.class, () -> new Socket(address.getAddress(), address.getPort()).close());
+    }
+
+    @Test
+    void servesTransferredConnections() throws IOException, InterruptedException {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0));
+        server.registerConnectionHandler(new AsyncHttpConnectionHandler(new InetSocketAddress("127.0.0.1", 0), 2,
+                new HttpConnectionHandler.Config().setKeepAliveTimeout(300, TimeUnit.MILLISECONDS)));
+        server.getEventManager().registerListener(new EventListener() {
+            @EventHandler
+            @Route("/transfer")
+            @Response("text/plain")
+            public String transfer(PageRequestEvent e) {
+                e.setConnectionHandler(AsyncHttpConnectionHandler.class);
+                return "transferred";
+            }
+
+            @EventHandler
+            @Route("/handler")
+            @Response("text/plain")
+            public String handler(PageRequestEvent e) {
+                return e.getConnectionHandler().getSimpleName();
+            }
+
+            @EventHandler
+            @Route("/stream")
+            public void stream(PageRequestEvent e, @QueryParam("size") String size) {
+                e.getResponse().setContentType("text/plain");
+                e.getResponse().setBodySource(new ChunkedBodyTest.CountingSource(Long.parseLong(size), Integer.MAX_VALUE));
+            }
+        });
+        HttpConnectionHandlerTest.startInBackground(server);
+        InetSocketAddress address = server.getAddress();
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            out.write("GET /handler HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("HttpConnectionHandler", readResponse(in));
+            out.write("GET /transfer HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("transferred", readResponse(in));
+
+            // the connection is now served by this handler through blocking reads and writes
+            for (int i = 0; i < 3; i++) {
+                out.write("GET /handler HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals("AsyncHttpConnectionHandler", readResponse(in));
+            }
+            assertStreamedBody(socket, 1024 * 1024, 0);
+
+            assertEquals(-1, in.read());
+        }
+    }
+}
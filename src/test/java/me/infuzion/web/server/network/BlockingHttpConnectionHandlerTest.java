@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertChunkedUpload;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertOversizedHeadersRejected;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertOversizedRequestRejected;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.assertStreamedBody;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.readResponse;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.request;
+import static me.infuzion.web.server.network.HttpConnectionHandlerTest.startServer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockingHttpConnectionHandlerTest {
+    private static InetSocketAddress address;
+
+    @BeforeAll
+    static void start() throws IOException {
+        address = startServer(new BlockingHttpConnectionHandler());
+    }
+
+    @Test
+    void keepAlive() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            for (int i = 0; i < 4; i++) {
+                assertEquals("value" + i, request(socket, "value" + i));
+            }
+        }
+    }
+
+    @Test
+    void pipelinedRequests() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /echo?value=a HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /echo?value=b HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            assertEquals("a", readResponse(in));
+            assertEquals("b", readResponse(in));
+        }
+    }
+
+    @Test
+    void fragmentedRequest() throws IOException, InterruptedException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /echo?value=frag HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(50);
+            out.write("Host: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("frag", readResponse(socket.getInputStream()));
+        }
+    }
+
+    @Test
+    void largeRequestGrowsBuffer() throws IOException {
+        InetSocketAddress address = startServer(new BlockingHttpConnectionHandler(new HttpConnectionHandler.Config()
+                .setMaxHeaderSize(256 * 1024)));
+        String value = "x".repeat(40 * 1024);
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(value, request(socket, value));
+        }
+    }
+
+    @Test
+    void idleKeepAliveConnectionIsClosed() throws IOException {
+        InetSocketAddress address = startServer(new BlockingHttpConnectionHandler(new HttpConnectionHandler.Config()
+                .setKeepAliveTimeout(200, TimeUnit.MILLISECONDS)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals("a", request(socket, "a"));
+
+            long start = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        }
+    }
+
+    @Test
+    void incompleteHeadersAreClosed() throws IOException {
+        InetSocketAddress address = startServer(new BlockingHttpConnectionHandler(new HttpConnectionHandler.Config()
+                .setHeaderTimeout(200, TimeUnit.MILLISECONDS)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void closesAfterMaxRequests() throws IOException {
+        InetSocketAddress address = startServer(new BlockingHttpConnectionHandler(new HttpConnectionHandler.Config()
+                .setMaxRequests(2)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals("1", request(socket, "1"));
+            assertEquals("2", request(socket, "2"));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void oversizedHeadersAreRejected() throws IOException {
+        assertOversizedHeadersRejected(address);
+    }
+
+    @Test
+    void oversizedRequestIsRejected() throws IOException {
+        assertOversizedRequestRejected(startServer(new BlockingHttpConnectionHandler(new HttpConnectionHandler.Config()
+                .setMaxRequestSize(16 * 1024))));
+    }
+
+    @Test
+    void chunkedUpload() throws IOException, InterruptedException {
+        assertChunkedUpload(address);
+    }
+
+    @Test
+    void streamedBody() throws IOException, InterruptedException {
+        assertStreamedBody(address);
+    }
+}
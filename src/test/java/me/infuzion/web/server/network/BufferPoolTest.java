@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+    @Test
+    void sizeClasses() {
+        assertEquals(0, BufferPool.sizeClass(0));
+        assertEquals(0, BufferPool.sizeClass(BufferPool.minPooledSize));
+        assertEquals(1, BufferPool.sizeClass(BufferPool.minPooledSize + 1));
+        assertEquals(1, BufferPool.sizeClass(BufferPool.minPooledSize * 2));
+        assertEquals(-1, BufferPool.sizeClass(BufferPool.maxPooledSize + 1));
+
+        BufferPool pool = new BufferPool();
+        ByteBuffer buffer = pool.acquire(1000);
+        assertEquals(1024, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(1000, buffer.limit());
+    }
+
+    @Test
+    void releasedBuffersAreReused() {
+        BufferPool pool = new BufferPool();
+
+        ByteBuffer first = pool.acquire(4096);
+        first.put((byte) 1);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire(3000);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(3000, second.limit());
+
+        // a different size class is allocated separately
+        assertNotSame(first, pool.acquire(100));
+        assertEquals(2, pool.getAllocations());
+    }
+
+    @Test
+    void buffersAreSharedBetweenThreads() throws InterruptedException {
+        BufferPool pool = new BufferPool();
+        ByteBuffer[] released = new ByteBuffer[64];
+
+        for (int i = 0; i < released.length; i++) {
+            released[i] = pool.acquire(64 * 1024);
+        }
+
+        Thread t = new Thread(() -> {
+            for (ByteBuffer buffer : released) {
+                pool.release(buffer);
+            }
+        });
+        t.start();
+        t.join();
+
+        // buffers that overflowed the releasing thread's cache are available to other threads
+        long allocations = pool.getAllocations();
+        for (int i = 0; i < 8; i++) {
+            pool.acquire(64 * 1024);
+        }
+        assertEquals(allocations, pool.getAllocations());
+    }
+
+    @Test
+    void largeBuffersAreNotPooled() {
+        BufferPool pool = new BufferPool();
+
+        ByteBuffer large = pool.acquire(BufferPool.maxPooledSize + 1);
+        assertEquals(BufferPool.maxPooledSize + 1, large.capacity());
+        pool.release(large);
+
+        assertNotSame(large, pool.acquire(BufferPool.maxPooledSize + 1));
+    }
+
+    @Test
+    void directBuffers() {
+        BufferPool pool = new BufferPool(true, false);
+
+        ByteBuffer buffer = pool.acquire(512);
+        assertTrue(buffer.isDirect());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(512));
+
+        // heap buffers are never mixed into a direct pool
+        ByteBuffer heap = ByteBuffer.allocate(512);
+        pool.release(heap);
+        assertNotSame(heap, pool.acquire(512));
+    }
+
+    @Test
+    void leakDetection() {
+        BufferPool pool = new BufferPool(false, true);
+
+        ByteBuffer released = pool.acquire(100);
+        ByteBuffer leaked = pool.acquire(100);
+        pool.release(released);
+
+        assertEquals(1, pool.getOutstandingBuffers());
+        assertEquals(1, pool.reportLeaks());
+
+        // a second release is reported and ignored, so the buffer cannot be handed out twice
+        pool.release(released);
+        ByteBuffer first = pool.acquire(100);
+        ByteBuffer second = pool.acquire(100);
+        assertNotSame(first, second);
+
+        pool.release(leaked);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(0, pool.getOutstandingBuffers());
+        assertEquals(0, pool.reportLeaks());
+
+        assertEquals(-1, new BufferPool().getOutstandingBuffers());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import me.infuzion.web.server.http.BodySource;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedBodyTest {
+
+    /**
+     * Produces the given number of bytes, in parts of at most the given size.
+     */
+    static class CountingSource implements BodySource {
+        private final long length;
+        private final int partSize;
+        long produced = 0;
+        int reads = 0;
+        boolean closed = false;
+
+        CountingSource(long length, int partSize) {
+            this.length = length;
+            this.partSize = partSize;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) {
+            reads++;
+            if (produced == length) {
+                return -1;
+            }
+
+            int count = (int) Math.min(Math.min(buffer.remaining(), partSize), length - produced);
+            for (int i = 0; i < count; i++) {
+                buffer.put((byte) ('a' + (produced + i) % 26));
+            }
+            produced += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Accepts up to a given number of bytes before it stops accepting data, like a full socket.
+     */
+    static class LimitedChannel implements WritableByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        long available;
+
+        LimitedChannel(long available) {
+            this.available = available;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int count = (int) Math.min(src.remaining(), available);
+            for (int i = 0; i < count; i++) {
+                written.write(src.get());
+            }
+            available -= count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void encodesChunks() throws Exception {
+        ChunkedBody body = new ChunkedBody(new CountingSource(30, 20));
+        LimitedChannel channel = new LimitedChannel(Long.MAX_VALUE);
+
+        assertTrue(body.writeTo(channel, ByteBuffer.allocate(ChunkedBody.bufferSize)));
+        assertEquals("14\r\nabcdefghijklmnopqrst\r\na\r\nuvwxyzabcd\r\n0\r\n\r\n",
+                channel.written.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void emptyBody() throws Exception {
+        ChunkedBody body = new ChunkedBody(buffer -> -1);
+        ByteBuffer buffer = ByteBuffer.allocate(ChunkedBody.bufferSize);
+
+        assertEquals("0\r\n\r\n", StandardCharsets.US_ASCII.decode(body.next(buffer)).toString());
+        assertNull(body.next(buffer));
+    }
+
+    @Test
+    void pullsOnlyOnceWritten() throws Exception {
+        CountingSource source = new CountingSource(1024 * 1024, Integer.MAX_VALUE);
+        ChunkedBody body = new ChunkedBody(source);
+        ByteBuffer buffer = ByteBuffer.allocate(ChunkedBody.bufferSize);
+        LimitedChannel channel = new LimitedChannel(ChunkedBody.bufferSize * 2);
+
+        // the channel is full partway through the third chunk, so no more is pulled until it accepts data again
+        assertFalse(body.writeTo(channel, buffer));
+        assertEquals(3, source.reads);
+        assertFalse(body.writeTo(channel, buffer));
+        assertEquals(3, source.reads);
+
+        channel.available = Long.MAX_VALUE;
+        assertTrue(body.writeTo(channel, buffer));
+        assertEquals(1024 * 1024, source.produced);
+
+        body.close();
+        assertTrue(source.closed);
+    }
+}
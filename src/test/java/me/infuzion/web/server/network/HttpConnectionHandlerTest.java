@@ -0,0 +1,626 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import me.infuzion.web.server.EventListener;
+import me.infuzion.web.server.Server;
+import me.infuzion.web.server.ServerOptions;
+import me.infuzion.web.server.event.Event;
+import me.infuzion.web.server.event.EventManager;
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.event.reflect.EventHandler;
+import me.infuzion.web.server.event.reflect.Route;
+import me.infuzion.web.server.event.reflect.param.DefaultTypeConverter;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.BodyParam;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.QueryParam;
+import me.infuzion.web.server.event.reflect.param.mapper.impl.Response;
+import me.infuzion.web.server.router.RouteMethod;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpConnectionHandlerTest {
+    private static InetSocketAddress address;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        address = startServer(new HttpConnectionHandler(2));
+    }
+
+    static InetSocketAddress startServer(ConnectionHandler handler) throws IOException {
+        return startServer(handler, new ServerOptions());
+    }
+
+    static InetSocketAddress startServer(ConnectionHandler handler, ServerOptions options) throws IOException {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0), new DefaultTypeConverter(), options);
+        server.registerConnectionHandler(handler);
+        server.setDefaultConnectionHandler(handler.getClass());
+        server.getEventManager().registerListener(new EventListener() {
+            @EventHandler
+            @Route("/echo")
+            @Response("text/plain")
+            public String echo(PageRequestEvent e, @QueryParam("value") String value) {
+                return value;
+            }
+
+            @EventHandler
+            @Route(value = "/body", methods = RouteMethod.POST)
+            @Response("text/plain")
+            public String body(PageRequestEvent e, @BodyParam(value = "value", raw = true) String value) {
+                return value;
+            }
+
+            @EventHandler
+            @Route("/stream")
+            public void stream(PageRequestEvent e, @QueryParam("size") String size) {
+                e.getResponse().setContentType("text/plain");
+                e.getResponse().setBodySource(new ChunkedBodyTest.CountingSource(Long.parseLong(size), Integer.MAX_VALUE));
+            }
+        });
+
+        startInBackground(server);
+
+        return server.getAddress();
+    }
+
+    static void startInBackground(Server server) {
+        Thread t = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static String request(Socket socket, String value) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /echo?value=" + value + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        return readResponse(socket.getInputStream());
+    }
+
+    static String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Connection closed before the response was read");
+            }
+            head.write(b);
+
+            String current = head.toString(StandardCharsets.UTF_8);
+            if (current.endsWith("\r\n\r\n")) {
+                break;
+            }
+        }
+
+        String headers = head.toString(StandardCharsets.UTF_8);
+        int contentLength = 0;
+        for (String line : headers.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            }
+        }
+
+        byte[] body = in.readNBytes(contentLength);
+        assertTrue(headers.startsWith("HTTP/1.1 200"), headers);
+
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends the start of a request whose header section is one byte over the default limit, and expects a 431
+     * response followed by the connection being closed.
+     */
+    static void assertOversizedHeadersRejected(InetSocketAddress address) throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            String start = "GET /echo?value=";
+            String value = "x".repeat(new HttpConnectionHandler.Config().maxHeaderSize + 1 - start.length());
+            socket.getOutputStream().write((start + value).getBytes(StandardCharsets.UTF_8));
+
+            // the connection is closed once the response is written
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("HTTP/1.1 431 Request Header Fields Too Large\r\n"), response);
+        }
+    }
+
+    /**
+     * Sends a request whose body does not fit in a 16KB request size limit, and expects a 413 response followed by the
+     * connection being closed.
+     */
+    static void assertOversizedRequestRejected(InetSocketAddress address) throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            byte[] headers = "POST /echo?value=a HTTP/1.1\r\nHost: localhost\r\nContent-Length: 65536\r\n\r\n"
+                    .getBytes(StandardCharsets.UTF_8);
+            out.write(headers);
+            // fill the limit exactly; sending more than the server reads before closing would reset the connection
+            out.write(new byte[16 * 1024 - headers.length]);
+            out.flush();
+
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("HTTP/1.1 413 Payload Too Large\r\n"), response);
+        }
+    }
+
+    /**
+     * Uploads a form with a chunked body in several writes, followed by a pipelined request, and expects the decoded
+     * form field to be echoed before the pipelined request is answered.
+     */
+    static void assertChunkedUpload(InetSocketAddress address) throws IOException, InterruptedException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            String value = "x".repeat(10000);
+            String[] parts = {
+                    "POST /body HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n" +
+                            "Transfer-Encoding: chunked\r\n\r\n",
+                    "6;name=ext\r\nvalue=\r\n",
+                    Integer.toHexString(4000) + "\r\n" + value.substring(0, 4000) + "\r\n",
+                    Integer.toHexString(6000) + "\r\n" + value.substring(4000),
+                    "\r\n0\r\nX-Checksum: 1\r\n\r\nGET /echo?value=next HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            };
+
+            for (String part : parts) {
+                out.write(part.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(20);
+            }
+
+            InputStream in = socket.getInputStream();
+            assertEquals(value, readResponse(in));
+            assertEquals("next", readResponse(in));
+        }
+    }
+
+    /**
+     * Requests a streamed body of several megabytes, and expects it to arrive in chunks with the expected content,
+     * followed by a response to a second request on the same connection.
+     */
+    static void assertStreamedBody(InetSocketAddress address) throws IOException, InterruptedException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertStreamedBody(socket, 3 * 1024 * 1024 + 7, 0);
+            assertEquals("after", request(socket, "after"));
+        }
+    }
+
+    /**
+     * Requests a streamed body of the given size, and reads it chunk by chunk, pausing after each chunk.
+     */
+    static void assertStreamedBody(Socket socket, long size, long pauseMillis) throws IOException, InterruptedException {
+        socket.getOutputStream().write(("GET /stream?size=" + size + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        InputStream in = socket.getInputStream();
+        String head = readLine(in);
+        assertTrue(head.startsWith("HTTP/1.1 200"), head);
+        boolean chunked = false;
+        for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+            chunked |= line.equalsIgnoreCase("Transfer-Encoding: chunked");
+            assertFalse(line.toLowerCase().startsWith("content-length:"), line);
+        }
+        assertTrue(chunked);
+
+        long received = 0;
+        for (int length = Integer.parseInt(readLine(in), 16); length != 0; length = Integer.parseInt(readLine(in), 16)) {
+            byte[] data = in.readNBytes(length);
+            assertEquals(length, data.length);
+            for (byte b : data) {
+                assertEquals('a' + received++ % 26, b);
+            }
+            assertEquals("", readLine(in));
+            Thread.sleep(pauseMillis);
+        }
+        assertEquals("", readLine(in));
+        assertEquals(size, received);
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b == -1) {
+                throw new IOException("Connection closed before the line was read");
+            }
+            line.write(b);
+        }
+        String read = line.toString(StandardCharsets.US_ASCII);
+        return read.endsWith("\r") ? read.substring(0, read.length() - 1) : read;
+    }
+
+    @Test
+    void invalidConfig() {
+        HttpConnectionHandler.Config config = new HttpConnectionHandler.Config();
+        assertThrows(IllegalArgumentException.class, () -> config.setKeepAliveTimeout(0, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> config.setKeepAliveTimeout(100, TimeUnit.MICROSECONDS));
+        assertThrows(IllegalArgumentException.class, () -> config.setHeaderTimeout(-1, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> config.setMinBodyRate(0, 5, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> config.setMinBodyRate(1024, -5, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> config.setMaxRequests(0));
+        assertThrows(IllegalArgumentException.class, () -> config.setMaxHeaderSize(0));
+        assertThrows(IllegalArgumentException.class, () -> config.setMaxBodySize(-1));
+    }
+
+    @Test
+    void keepAliveAcrossSelectorLoops() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                InputStream in = socket.getInputStream();
+
+                for (int j = 0; j < 2; j++) {
+                    String value = i + "-" + j;
+                    out.write(("GET /echo?value=" + value + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+
+                    assertEquals(value, readResponse(in));
+                }
+            }
+        }
+    }
+
+    @Test
+    void fragmentedRequest() throws IOException, InterruptedException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /echo?value=frag HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(50);
+            out.write("Host: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("frag", readResponse(socket.getInputStream()));
+        }
+    }
+
+    @Test
+    void idleKeepAliveConnectionIsClosed() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1, new HttpConnectionHandler.Config()
+                .setKeepAliveTimeout(200, TimeUnit.MILLISECONDS)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals("a", request(socket, "a"));
+
+            long start = System.nanoTime();
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        }
+    }
+
+    @Test
+    void incompleteHeadersAreClosed() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1, new HttpConnectionHandler.Config()
+                .setHeaderTimeout(200, TimeUnit.MILLISECONDS)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void closesAfterMaxRequests() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1, new HttpConnectionHandler.Config()
+                .setMaxRequests(2)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals("1", request(socket, "1"));
+            assertEquals("2", request(socket, "2"));
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void requestBuffersAreReturnedToThePool() throws IOException, InterruptedException {
+        BufferPool pool = new BufferPool(false, true);
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1), new ServerOptions().setBufferPool(pool));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            for (int i = 0; i < 50; i++) {
+                assertEquals("v" + i, request(socket, "v" + i));
+            }
+        }
+
+        // requests on a single connection reuse the same buffers, apart from one per size the read buffer shrinks to
+        // and the buffer each response head is written into
+        assertTrue(pool.getAllocations() <= 4, "allocated " + pool.getAllocations() + " buffers");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getOutstandingBuffers() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getOutstandingBuffers());
+    }
+
+    @Test
+    void largeRequestGrowsBuffer() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1, new HttpConnectionHandler.Config()
+                .setMaxHeaderSize(256 * 1024)));
+        String value = "x".repeat(100 * 1024);
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(value, request(socket, value));
+            assertEquals("small", request(socket, "small"));
+        }
+    }
+
+    @Test
+    void oversizedHeadersAreRejected() throws IOException {
+        assertOversizedHeadersRejected(address);
+    }
+
+    @Test
+    void oversizedRequestIsRejected() throws IOException {
+        assertOversizedRequestRejected(startServer(new HttpConnectionHandler(1, new HttpConnectionHandler.Config()
+                .setMaxRequestSize(16 * 1024))));
+    }
+
+    @Test
+    void chunkedUpload() throws IOException, InterruptedException {
+        assertChunkedUpload(address);
+    }
+
+    @Test
+    void streamedBody() throws IOException, InterruptedException {
+        assertStreamedBody(address);
+    }
+
+    @Test
+    void oversizedChunkedBodyIsRejected() throws IOException {
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1, new HttpConnectionHandler.Config()
+                .setMaxBodySize(1024)));
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            // the size of the second chunk exceeds the limit, so the request is rejected before its data is sent
+            socket.getOutputStream().write(("POST /body HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" +
+                    "200\r\n" + "x".repeat(512) + "\r\n201\r\n").getBytes(StandardCharsets.UTF_8));
+
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("HTTP/1.1 413 Payload Too Large\r\n"), response);
+        }
+    }
+
+    @Test
+    void readsPauseWhileMemoryBudgetIsExhausted() throws IOException, InterruptedException {
+        // two partial requests hold a 4KB read buffer each, which exceeds the budget
+        MemoryBudget budget = new MemoryBudget(6 * 1024, 64 * 1024);
+        InetSocketAddress address = startServer(new HttpConnectionHandler(1), new ServerOptions().setMemoryBudget(budget));
+
+        try (Socket first = new Socket(address.getAddress(), address.getPort());
+             Socket second = new Socket(address.getAddress(), address.getPort());
+             Socket third = new Socket(address.getAddress(), address.getPort())) {
+            first.setSoTimeout(5000);
+            third.setSoTimeout(5000);
+
+            first.getOutputStream().write("GET /echo?value=first HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+            waitFor(() -> budget.getUsed() > 0);
+            second.getOutputStream().write("GET /echo?value=second HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+            waitFor(budget::isExhausted);
+            assertTrue(budget.isExhausted());
+
+            third.getOutputStream().write("GET /echo?value=third HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            waitFor(() -> budget.getPausedConnections() == 1);
+            assertEquals(1, budget.getPausedConnections());
+
+            // completing the first request releases its buffer, which resumes reading from the third connection
+            first.getOutputStream().write("Host: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("first", readResponse(first.getInputStream()));
+            assertEquals("third", readResponse(third.getInputStream()));
+            assertEquals(0, budget.getPausedConnections());
+        }
+    }
+
+    @Test
+    void transferredRequestOutlivesItsBuffer() throws Exception {
+        TransferTarget target = new TransferTarget();
+        Server server = new Server(new InetSocketAddress("127.0.0.1", 0), new DefaultTypeConverter(), new ServerOptions());
+        server.registerConnectionHandler(new HttpConnectionHandler(1));
+        server.registerConnectionHandler(target);
+        server.getEventManager().registerListener(new EventListener() {
+            @EventHandler
+            @Route("/transfer")
+            public void transfer(PageRequestEvent e) {
+                e.setConnectionHandler(TransferTarget.class);
+            }
+
+            @EventHandler
+            @Route("/echo")
+            @Response("text/plain")
+            public String echo(PageRequestEvent e, @QueryParam("value") String value) {
+                return value;
+            }
+        });
+        startInBackground(server);
+        InetSocketAddress address = server.getAddress();
+
+        try (Socket transferred = new Socket(address.getAddress(), address.getPort());
+             Socket other = new Socket(address.getAddress(), address.getPort())) {
+            transferred.setSoTimeout(5000);
+            other.setSoTimeout(5000);
+
+            transferred.getOutputStream().write("GET /transfer HTTP/1.1\r\nHost: localhost\r\nX-Marker: original\r\n\r\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            readResponse(transferred.getInputStream());
+            PageRequestEvent event = (PageRequestEvent) target.event.get(5, TimeUnit.SECONDS);
+
+            // later requests reuse the pooled buffer the transferred request was read into
+            for (int i = 0; i < 4; i++) {
+                other.getOutputStream().write("GET /echo?value=a HTTP/1.1\r\nHost: localhost\r\nX-Marker: replaced\r\n\r\n"
+                        .getBytes(StandardCharsets.UTF_8));
+                assertEquals("a", readResponse(other.getInputStream()));
+            }
+
+            assertEquals("original", event.getRequestHeaders().get("x-marker"));
+            assertEquals("HTTP/1.1", event.getRequest().getVersion());
+        }
+    }
+
+    /**
+     * Records the event a connection is transferred with, and closes the connection.
+     */
+    static class TransferTarget implements ConnectionHandler {
+        final CompletableFuture<Event> event = new CompletableFuture<>();
+        private Server server;
+
+        @Override
+        public void init(Server server, EventManager eventManager) {
+            this.server = server;
+        }
+
+        @Override
+        public void register(SocketChannel channel, long clientId, @Nullable Event event) throws IOException {
+            server.releaseConnection(channel);
+            channel.close();
+            this.event.complete(event);
+        }
+
+        @Override
+        public void handleConnections() {
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void pipelinedRequests() throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                requests.append("GET /echo?value=").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            // all requests arrive before the first response is written, so no further reads are triggered
+            out.write(requests.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < 8; i++) {
+                assertEquals(String.valueOf(i), readResponse(in));
+            }
+        }
+    }
+
+    @Test
+    void headersAndBodyAreWrittenTogether() throws IOException {
+        CountingChannel channel = new CountingChannel(Integer.MAX_VALUE);
+        ByteBuffer[] response = {ByteBuffer.allocate(100), ByteBuffer.allocate(1000)};
+
+        assertTrue(HttpConnectionHandler.writeAvailable(channel, response));
+        assertEquals(1, channel.writes);
+        assertEquals(1100, channel.written);
+    }
+
+    @Test
+    void writesUntilChannelIsFull() throws IOException {
+        CountingChannel channel = new CountingChannel(300);
+        ByteBuffer[] response = {ByteBuffer.allocate(100), ByteBuffer.allocate(1000)};
+
+        assertFalse(HttpConnectionHandler.writeAvailable(channel, response));
+        assertEquals(300, channel.written);
+        assertEquals(800, response[1].remaining());
+
+        channel.capacity = Integer.MAX_VALUE;
+        assertTrue(HttpConnectionHandler.writeAvailable(channel, response));
+        assertEquals(1100, channel.written);
+    }
+
+    /**
+     * Accepts up to a fixed number of bytes, and counts the writes made to it.
+     */
+    private static class CountingChannel implements GatheringByteChannel {
+        int capacity;
+        int writes = 0;
+        long written = 0;
+
+        CountingChannel(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writes++;
+
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int n = (int) Math.min(srcs[i].remaining(), capacity - written);
+                srcs[i].position(srcs[i].position() + n);
+                written += n;
+                total += n;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
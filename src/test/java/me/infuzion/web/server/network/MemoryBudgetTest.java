@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryBudgetTest {
+    @Test
+    void chargesAreCountedGlobally() {
+        MemoryBudget budget = new MemoryBudget(1000, 1000);
+        MemoryBudget.Account first = budget.newAccount();
+        MemoryBudget.Account second = budget.newAccount();
+
+        first.charge(300);
+        second.charge(200);
+        assertEquals(300, first.getUsed());
+        assertEquals(500, budget.getUsed());
+
+        first.release(300);
+        assertEquals(200, budget.getUsed());
+        assertEquals(500, budget.getPeakUsed());
+    }
+
+    @Test
+    void connectionLimit() {
+        MemoryBudget budget = new MemoryBudget(1000, 100);
+        MemoryBudget.Account first = budget.newAccount();
+        MemoryBudget.Account second = budget.newAccount();
+
+        first.charge(101);
+        assertTrue(first.isExhausted());
+        assertFalse(second.isExhausted());
+        assertFalse(budget.isExhausted());
+    }
+
+    @Test
+    void globalLimit() {
+        MemoryBudget budget = new MemoryBudget(100, 100);
+        MemoryBudget.Account first = budget.newAccount();
+        MemoryBudget.Account second = budget.newAccount();
+
+        first.charge(60);
+        second.charge(60);
+        assertTrue(budget.isExhausted());
+        assertTrue(first.isExhausted());
+        assertTrue(second.isExhausted());
+    }
+
+    @Test
+    void resumesOnceOwnUsageDrops() {
+        MemoryBudget budget = new MemoryBudget(1000, 100);
+        MemoryBudget.Account account = budget.newAccount();
+        AtomicInteger resumed = new AtomicInteger();
+
+        account.charge(150);
+        account.onAvailable(resumed::incrementAndGet);
+        assertEquals(0, resumed.get());
+        assertEquals(1, budget.getPausedConnections());
+
+        account.release(40);
+        assertEquals(0, resumed.get());
+
+        account.release(10);
+        assertEquals(1, resumed.get());
+        assertEquals(0, budget.getPausedConnections());
+        assertEquals(1, budget.getPauseCount());
+
+        // the task only runs once
+        account.release(100);
+        assertEquals(1, resumed.get());
+    }
+
+    @Test
+    void resumesAllOnceGlobalUsageDrops() {
+        MemoryBudget budget = new MemoryBudget(100, 1000);
+        MemoryBudget.Account large = budget.newAccount();
+        MemoryBudget.Account small = budget.newAccount();
+        MemoryBudget.Account idle = budget.newAccount();
+        AtomicInteger resumed = new AtomicInteger();
+
+        large.charge(150);
+        small.charge(10);
+        small.onAvailable(resumed::incrementAndGet);
+        idle.onAvailable(resumed::incrementAndGet);
+        assertEquals(2, budget.getPausedConnections());
+
+        // the accounts are resumed by a release from another account
+        large.release(100);
+        assertEquals(2, resumed.get());
+        assertEquals(0, budget.getPausedConnections());
+    }
+
+    @Test
+    void runsImmediatelyWhenAvailable() {
+        MemoryBudget budget = new MemoryBudget(100, 100);
+        AtomicInteger resumed = new AtomicInteger();
+
+        budget.newAccount().onAvailable(resumed::incrementAndGet);
+        assertEquals(1, resumed.get());
+        assertEquals(0, budget.getPausedConnections());
+    }
+
+    @Test
+    void closeReleasesEverything() {
+        MemoryBudget budget = new MemoryBudget(100, 100);
+        MemoryBudget.Account account = budget.newAccount();
+        AtomicInteger resumed = new AtomicInteger();
+
+        account.charge(150);
+        account.onAvailable(resumed::incrementAndGet);
+        account.close();
+
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, budget.getPausedConnections());
+        assertEquals(0, resumed.get());
+
+        // late charges and releases, such as frames sent to a disconnected client, are ignored
+        account.charge(50);
+        account.release(20);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    void concurrentChargesAndClose() throws InterruptedException {
+        MemoryBudget budget = new MemoryBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+        for (int i = 0; i < 100; i++) {
+            MemoryBudget.Account account = budget.newAccount();
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    account.charge(10);
+                }
+            });
+            t.start();
+            account.close();
+            t.join();
+        }
+
+        assertEquals(0, budget.getUsed());
+    }
+}
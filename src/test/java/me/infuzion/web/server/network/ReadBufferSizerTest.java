@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReadBufferSizerTest {
+    @Test
+    void startsAtInitialSize() {
+        assertEquals(ReadBufferSizer.initialSize, new ReadBufferSizer().nextSize());
+    }
+
+    @Test
+    void growsToFitLargeRequests() {
+        ReadBufferSizer sizer = new ReadBufferSizer();
+
+        sizer.record(ReadBufferSizer.initialSize + 1);
+        assertEquals(ReadBufferSizer.initialSize * 2, sizer.nextSize());
+
+        sizer.record(20000);
+        assertEquals(32 * 1024, sizer.nextSize());
+
+        sizer.record(10 * 1024 * 1024);
+        assertEquals(ReadBufferSizer.maxSize, sizer.nextSize());
+    }
+
+    @Test
+    void shrinksAfterConsecutiveSmallRequests() {
+        ReadBufferSizer sizer = new ReadBufferSizer();
+
+        sizer.record(200);
+        assertEquals(ReadBufferSizer.initialSize, sizer.nextSize());
+        sizer.record(200);
+        assertEquals(ReadBufferSizer.initialSize / 2, sizer.nextSize());
+
+        for (int i = 0; i < 10; i++) {
+            sizer.record(200);
+        }
+        assertEquals(ReadBufferSizer.minSize, sizer.nextSize());
+    }
+
+    @Test
+    void singleSmallRequestDoesNotShrink() {
+        ReadBufferSizer sizer = new ReadBufferSizer();
+
+        sizer.record(200);
+        sizer.record(ReadBufferSizer.initialSize);
+        sizer.record(200);
+        assertEquals(ReadBufferSizer.initialSize, sizer.nextSize());
+    }
+}
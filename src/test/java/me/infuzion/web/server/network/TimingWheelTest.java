@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void firesAfterDeadline() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, 0);
+        List<String> fired = new ArrayList<>();
+
+        TimingWheel.Timeout a = new TimingWheel.Timeout(() -> fired.add("a"));
+        TimingWheel.Timeout b = new TimingWheel.Timeout(() -> fired.add("b"));
+
+        wheel.schedule(a, 25, TimeUnit.MILLISECONDS, 0);
+        wheel.schedule(b, 10, TimeUnit.MILLISECONDS, 0);
+        assertEquals(2, wheel.size());
+
+        assertEquals(0, wheel.advance(9 * MS));
+        assertEquals(1, wheel.advance(10 * MS));
+        assertEquals(List.of("b"), fired);
+
+        // never fires early, even though the tick containing the deadline has started
+        assertEquals(0, wheel.advance(25 * MS - 1));
+        assertEquals(1, wheel.advance(30 * MS));
+        assertEquals(List.of("b", "a"), fired);
+        assertEquals(0, wheel.size());
+        assertEquals(-1, wheel.nanosUntilNextTick(30 * MS));
+    }
+
+    @Test
+    void deadlinesBeyondOneRotation() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 4, 0);
+        int[] count = {0};
+
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(() -> count[0]++);
+        wheel.schedule(timeout, 100, TimeUnit.MILLISECONDS, 0);
+
+        for (long t = 0; t < 100; t += 5) {
+            wheel.advance(t * MS);
+        }
+        assertEquals(0, count[0]);
+
+        wheel.advance(100 * MS);
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    void cancelAndReschedule() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, 0);
+        int[] count = {0};
+
+        TimingWheel.Timeout timeout = new TimingWheel.Timeout(() -> count[0]++);
+        wheel.schedule(timeout, 20, TimeUnit.MILLISECONDS, 0);
+        assertTrue(timeout.isScheduled());
+
+        wheel.cancel(timeout);
+        assertFalse(timeout.isScheduled());
+        assertEquals(0, wheel.size());
+        wheel.advance(50 * MS);
+        assertEquals(0, count[0]);
+
+        // rescheduling an already scheduled timeout moves it
+        wheel.schedule(timeout, 20, TimeUnit.MILLISECONDS, 50 * MS);
+        wheel.schedule(timeout, 40, TimeUnit.MILLISECONDS, 50 * MS);
+        assertEquals(1, wheel.size());
+        wheel.advance(70 * MS);
+        assertEquals(0, count[0]);
+        wheel.advance(90 * MS);
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    void timeoutsCanRescheduleAndCancelWhileFiring() {
+        TimingWheel wheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 8, 0);
+        List<String> fired = new ArrayList<>();
+
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[2];
+        timeouts[0] = new TimingWheel.Timeout(() -> {
+            fired.add("a");
+            wheel.cancel(timeouts[1]);
+            wheel.schedule(timeouts[0], 10, TimeUnit.MILLISECONDS, 10 * MS);
+        });
+        timeouts[1] = new TimingWheel.Timeout(() -> {
+            fired.add("b");
+            wheel.cancel(timeouts[0]);
+        });
+
+        wheel.schedule(timeouts[0], 10, TimeUnit.MILLISECONDS, 0);
+        wheel.schedule(timeouts[1], 10, TimeUnit.MILLISECONDS, 0);
+
+        wheel.advance(10 * MS);
+        // whichever fires first cancels the other
+        assertEquals(1, fired.size());
+
+        if (fired.get(0).equals("a")) {
+            assertTrue(timeouts[0].isScheduled());
+            wheel.advance(20 * MS);
+            assertEquals(List.of("a", "a"), fired);
+        } else {
+            assertEquals(0, wheel.size());
+        }
+    }
+
+    @Test
+    void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, TimeUnit.MILLISECONDS, 8, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(10, TimeUnit.MILLISECONDS, 0, 0));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.network.wait;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WaitStrategyTest {
+    private static final List<WaitStrategy> strategies = List.of(
+            WaitStrategy.blocking(),
+            WaitStrategy.busySpin(),
+            WaitStrategy.spinThenYield(10),
+            WaitStrategy.spinThenPark(10, 1000)
+    );
+
+    @Test
+    void selectsReadyKeys() throws IOException {
+        for (WaitStrategy strategy : strategies) {
+            try (Selector selector = Selector.open()) {
+                Pipe pipe = Pipe.open();
+                pipe.source().configureBlocking(false);
+                pipe.source().register(selector, SelectionKey.OP_READ);
+
+                pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+
+                int ready = 0;
+                for (int i = 0; ready == 0 && i < 100_000; i++) {
+                    ready = strategy.select(selector, i, 0);
+                }
+
+                assertEquals(1, ready, strategy.getClass().getSimpleName());
+
+                pipe.source().close();
+                pipe.sink().close();
+            }
+        }
+    }
+
+    @Test
+    void spinningStrategiesReturnWhenIdle() throws IOException {
+        try (Selector selector = Selector.open()) {
+            assertEquals(0, WaitStrategy.busySpin().select(selector, 0, 0));
+            assertEquals(0, WaitStrategy.spinThenYield(1).select(selector, 5, 0));
+            assertEquals(0, WaitStrategy.spinThenPark(1, 1000).select(selector, 5, 0));
+        }
+    }
+
+    @Test
+    void blockingStrategyHonorsTimeout() throws IOException {
+        try (Selector selector = Selector.open()) {
+            long start = System.nanoTime();
+            assertEquals(0, WaitStrategy.blocking().select(selector, 0, 20));
+            assertTrue(System.nanoTime() - start >= 15_000_000);
+        }
+    }
+
+    @Test
+    void invalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> WaitStrategy.spinThenYield(-1));
+        assertThrows(IllegalArgumentException.class, () -> WaitStrategy.spinThenPark(10, 0));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package me.infuzion.web.server.response;
+
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.HttpMethod;
+import me.infuzion.web.server.http.parser.BodyData;
+import me.infuzion.web.server.http.parser.HttpRequest;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DefaultResponseGeneratorTest {
+    private static PageRequestEvent event(int status, String body) {
+        HttpRequest request = new HttpRequest(HttpMethod.GET, "/", "", "HTTP/1.1", Map.of("Host", "test"), null);
+        PageRequestEvent event = new PageRequestEvent(request, new BodyData(Collections.emptyMap()));
+        event.getResponse().setStatusCode(status);
+        event.getResponse().setBody(body);
+        return event;
+    }
+
+    private static String head(PageRequestEvent event) {
+        return StandardCharsets.US_ASCII.decode(new DefaultResponseGenerator().generateResponse(event)).toString();
+    }
+
+    @Test
+    void sendsBodyLength() {
+        PageRequestEvent event = event(200, "hello");
+        String head = head(event);
+
+        assertTrue(head.startsWith("HTTP/1.1 200"), head);
+        assertTrue(head.contains("\r\nContent-Length: 5\r\n"), head);
+        assertTrue(new DefaultResponseGenerator().shouldCopyBody(event));
+    }
+
+    @Test
+    void bodilessStatusesHaveNoLength() {
+        for (int status : new int[]{101, 204, 304}) {
+            PageRequestEvent event = event(status, "ignored");
+            String head = head(event);
+
+            assertTrue(head.startsWith("HTTP/1.1 " + status), head);
+            assertFalse(head.contains("Content-Length"), head);
+            assertFalse(head.contains("Transfer-Encoding"), head);
+            assertFalse(new DefaultResponseGenerator().shouldCopyBody(event));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.response;
+
+import me.infuzion.web.server.event.def.PageRequestEvent;
+import me.infuzion.web.server.http.HttpMethod;
+import me.infuzion.web.server.http.parser.BodyData;
+import me.infuzion.web.server.http.parser.HttpRequest;
+import me.infuzion.web.server.network.BufferPool;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeaderEncoderTest {
+    private static String written(String value) {
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderEncoder.length(value));
+        HeaderEncoder.write(buffer, value);
+        assertFalse(buffer.hasRemaining());
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private static String written(long value) {
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderEncoder.length(value));
+        HeaderEncoder.write(buffer, value);
+        assertFalse(buffer.hasRemaining());
+        return new String(buffer.array(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void writesStrings() {
+        assertEquals("text/html", written("text/html"));
+        assertEquals("", written(""));
+        assertEquals("caf\u00e9 \u20ac \ud83d\ude00", written("caf\u00e9 \u20ac \ud83d\ude00"));
+        assertEquals(
+                "caf\u00e9 \u20ac \ud83d\ude00".getBytes(StandardCharsets.UTF_8).length,
+                HeaderEncoder.length("caf\u00e9 \u20ac \ud83d\ude00")
+        );
+        assertEquals("a?b", written("a\ud83db"));
+    }
+
+    @Test
+    void writesNumbers() {
+        for (long value : new long[]{0, 7, 10, 99, 100, 12345, Integer.MAX_VALUE, Long.MAX_VALUE, -1, -120, Long.MIN_VALUE}) {
+            assertEquals(Long.toString(value), written(value));
+        }
+    }
+
+    @Test
+    void statusLines() {
+        assertEquals("HTTP/1.1 200 OK\r\n", new String(HeaderEncoder.statusLine(200), StandardCharsets.US_ASCII));
+        assertEquals("HTTP/1.1 404 Not Found\r\n", new String(HeaderEncoder.statusLine(404), StandardCharsets.US_ASCII));
+        assertEquals("HTTP/1.1 299 \r\n", new String(HeaderEncoder.statusLine(299), StandardCharsets.US_ASCII));
+        assertEquals("HTTP/1.1 999 \r\n", new String(HeaderEncoder.statusLine(999), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void writesHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("etag", "\"1\"");
+        headers.put("x-name", "value");
+
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderEncoder.headersLength(headers));
+        HeaderEncoder.writeHeaders(buffer, headers);
+
+        assertFalse(buffer.hasRemaining());
+        assertEquals("etag: \"1\"\r\nx-name: value\r\n", new String(buffer.array(), StandardCharsets.US_ASCII));
+    }
+
+    private static PageRequestEvent event() {
+        HttpRequest request = new HttpRequest(HttpMethod.GET, "/", "", "HTTP/1.1", Map.of("Host", "test"), null);
+        PageRequestEvent event = new PageRequestEvent(request, new BodyData(Collections.emptyMap()));
+        event.getResponse().setBody("hello");
+        event.getResponse().setContentType("text/plain");
+        event.getResponse().setHeader("X-Test", "value");
+        return event;
+    }
+
+    @Test
+    void generatesResponseHead() {
+        PageRequestEvent event = event();
+        ByteBuffer head = new DefaultResponseGenerator(5, 100).generateResponse(event);
+        String generated = StandardCharsets.US_ASCII.decode(head).toString();
+
+        assertTrue(generated.startsWith("HTTP/1.1 200 OK\r\nDate: "), generated);
+        assertTrue(generated.contains("\r\nContent-Type: text/plain\r\n"), generated);
+        assertTrue(generated.contains("\r\nContent-Length: 5\r\n"), generated);
+        assertTrue(generated.contains("\r\nConnection: Keep-Alive\r\nKeep-Alive: timeout=5, max=100\r\n"), generated);
+        assertTrue(generated.contains("\r\nx-test: value\r\n"), generated);
+        assertTrue(generated.matches("(?s).*\r\nX-Request-Time: \\d+ns\r\n\r\n"), generated);
+
+        event.getResponse().setHeader("Connection", "close");
+        generated = StandardCharsets.US_ASCII.decode(new DefaultResponseGenerator(5, 100).generateResponse(event)).toString();
+        assertFalse(generated.contains("Keep-Alive"), generated);
+        assertTrue(generated.contains("\r\nconnection: close\r\n"), generated);
+
+        // a Date set by a listener replaces the generated one
+        event.getResponse().setHeader("Date", "Sun, 06 Nov 1994 08:49:37 GMT");
+        generated = StandardCharsets.US_ASCII.decode(new DefaultResponseGenerator(5, 100).generateResponse(event)).toString();
+        assertFalse(generated.contains("Date: "), generated);
+        assertTrue(generated.contains("\r\ndate: Sun, 06 Nov 1994 08:49:37 GMT\r\n"), generated);
+    }
+
+    @Test
+    void responseHeadsAreReusedFromThePool() {
+        BufferPool pool = new BufferPool(false, true);
+        DefaultResponseGenerator generator = new DefaultResponseGenerator(5, 100, pool);
+
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer head = generator.generateResponse(event());
+            assertEquals(0, head.position());
+            generator.release(head);
+        }
+
+        assertEquals(1, pool.getAllocations());
+        assertEquals(0, pool.getOutstandingBuffers());
+    }
+}
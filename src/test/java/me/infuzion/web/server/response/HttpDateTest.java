@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Srikavin Ramkumar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.infuzion.web.server.response;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpDateTest {
+    private static String string(byte[] line) {
+        return new String(line, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void formatsOncePerSecond() {
+        byte[] line = HttpDate.line(784111777000L);
+        assertEquals("Date: Sun, 06 Nov 1994 08:49:37 GMT\r\n", string(line));
+
+        assertSame(line, HttpDate.line(784111777999L));
+        assertNotSame(line, HttpDate.line(784111778000L));
+        assertEquals("Date: Sun, 06 Nov 1994 08:49:38 GMT\r\n", string(HttpDate.line(784111778000L)));
+    }
+
+    @Test
+    void currentDate() {
+        String line = string(HttpDate.line());
+        assertTrue(line.startsWith("Date: ") && line.endsWith(" GMT\r\n"), line);
+
+        ZonedDateTime date = ZonedDateTime.parse(line.substring(6, line.length() - 2), DateTimeFormatter.RFC_1123_DATE_TIME);
+        assertTrue(Math.abs(date.toEpochSecond() - System.currentTimeMillis() / 1000) <= 1, line);
+    }
+}